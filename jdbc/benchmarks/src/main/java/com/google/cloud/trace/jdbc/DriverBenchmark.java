@@ -0,0 +1,98 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of opening connections of {@link StubDriver} via {@link DriverManager} versus via
+ * {@link NonRegisteringDriver#connect}, with several other drivers registered.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DriverBenchmark {
+
+  /** The URL of {@link StubDriver} with the prefix of {@link NonRegisteringDriver}. */
+  private static final String TRACED_URL =
+      "jdbc:stackdriver:" + StubDriver.URL.substring("jdbc:".length());
+
+  /**
+   * The number of other drivers registered before {@link StubDriver}, each of which {@code
+   * DriverManager} probes before getting to {@code StubDriver}.
+   */
+  @Param({"0", "10"})
+  public int otherDrivers;
+
+  private final List<Driver> registeredDrivers = new ArrayList<>();
+
+  private final Properties info = new Properties();
+
+  private final NonRegisteringDriver driver =
+      new NonRegisteringDriver(new CloudTraceSdkTraceService());
+
+  @Setup
+  public void setUp() throws SQLException {
+    for (int i = 0; i < otherDrivers; i++) {
+      registeredDrivers.add(new StubDriver("jdbc:other" + i + ":"));
+    }
+    registeredDrivers.add(new StubDriver());
+    for (Driver driver : registeredDrivers) {
+      DriverManager.registerDriver(driver);
+    }
+    ThreadLocalTracerStore.setCurrent(NoopTracer.INSTANCE);
+  }
+
+  @TearDown
+  public void tearDown() throws SQLException {
+    for (Driver driver : registeredDrivers) {
+      DriverManager.deregisterDriver(driver);
+    }
+    registeredDrivers.clear();
+    ThreadLocalTracerStore.remove();
+  }
+
+  @Benchmark
+  public Connection connect_raw() throws SQLException {
+    return DriverManager.getConnection(StubDriver.URL, info);
+  }
+
+  @Benchmark
+  public Connection connect_traced() throws SQLException {
+    return driver.connect(TRACED_URL, info);
+  }
+}
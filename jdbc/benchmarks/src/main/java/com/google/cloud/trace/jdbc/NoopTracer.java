@@ -0,0 +1,80 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import com.google.cloud.trace.Tracer;
+import com.google.cloud.trace.core.EndSpanOptions;
+import com.google.cloud.trace.core.Labels;
+import com.google.cloud.trace.core.SpanContext;
+import com.google.cloud.trace.core.SpanContextHandle;
+import com.google.cloud.trace.core.SpanId;
+import com.google.cloud.trace.core.StackTrace;
+import com.google.cloud.trace.core.StartSpanOptions;
+import com.google.cloud.trace.core.TraceContext;
+import com.google.cloud.trace.core.TraceId;
+import com.google.cloud.trace.core.TraceOptions;
+import java.math.BigInteger;
+
+/**
+ * {@link Tracer} which discards all spans. Unlike the fallback used when there is no current
+ * {@code Tracer}, spans are still started, annotated and ended, so benchmarks using it measure the
+ * full cost of tracing minus the export. All spans share the same, constant {@link TraceContext}.
+ */
+final class NoopTracer implements Tracer {
+
+  static final Tracer INSTANCE = new NoopTracer();
+
+  private static final SpanContext SPAN_CONTEXT =
+      new SpanContext(
+          new TraceId(new BigInteger("0af7651916cd43dd8448eb211c80319c", 16)),
+          new SpanId(0xb7ad6b7169203331L),
+          TraceOptions.forTraceEnabled());
+
+  private static final TraceContext TRACE_CONTEXT =
+      new TraceContext(
+          new SpanContextHandle() {
+            @Override
+            public SpanContext getCurrentSpanContext() {
+              return SPAN_CONTEXT;
+            }
+
+            @Override
+            public void detach() {}
+          });
+
+  private NoopTracer() {}
+
+  @Override
+  public TraceContext startSpan(String name) {
+    return TRACE_CONTEXT;
+  }
+
+  @Override
+  public TraceContext startSpan(String name, StartSpanOptions options) {
+    return TRACE_CONTEXT;
+  }
+
+  @Override
+  public void endSpan(TraceContext traceContext) {}
+
+  @Override
+  public void endSpan(TraceContext traceContext, EndSpanOptions options) {}
+
+  @Override
+  public void annotateSpan(TraceContext traceContext, Labels labels) {}
+
+  @Override
+  public void setStackTrace(TraceContext traceContext, StackTrace stackTrace) {}
+}
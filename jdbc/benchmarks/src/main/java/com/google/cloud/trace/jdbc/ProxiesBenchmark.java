@@ -0,0 +1,73 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import com.google.common.base.Optional;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of wrapping a statement in a dynamic proxy via {@link Proxies#newProxyInstance}
+ * versus in a {@link TracingStatement}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ProxiesBenchmark {
+
+  private final Connection connection = new StubDriver().getConnection();
+
+  private final Statement statement;
+
+  private final TraceOptions traceOptions = TraceOptions.of(new Properties());
+
+  private final TraceService traceService = new CloudTraceSdkTraceService();
+
+  public ProxiesBenchmark() {
+    try {
+      statement = connection.createStatement();
+    } catch (SQLException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  @Benchmark
+  public Statement newProxyInstance() {
+    return Proxies.newProxyInstance(
+        statement,
+        new StatementInvocationHandler(
+            statement, traceOptions, traceService, Optional.<String>absent()));
+  }
+
+  @Benchmark
+  public Statement newTracingStatement() {
+    return new TracingStatement(statement, connection, traceOptions, traceService);
+  }
+}
@@ -0,0 +1,65 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import com.google.common.base.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Benchmarks of each {@link Scrubbers.Scrubber} implementation. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ScrubbersBenchmark {
+
+  private static final String SQL =
+      "SELECT u.id, u.name FROM users u JOIN orders o ON o.user_id = u.id "
+          + "WHERE u.email = 'someone@example.com' AND o.total > 100 ORDER BY o.created DESC";
+
+  private static final String URL =
+      "jdbc:mysql://google/exampledatabase?user=root&password=secret"
+          + "&socketFactory=com.google.cloud.sql.mysql.SocketFactory";
+
+  @Param({"SQL_SCRUBBER", "URL_SCRUBBER", "KEEP", "DROP"})
+  public String scrubber;
+
+  private Scrubbers.Scrubber sqlScrubber;
+
+  private String input;
+
+  @Setup
+  public void setUp() throws ReflectiveOperationException {
+    sqlScrubber = (Scrubbers.Scrubber) Scrubbers.class.getDeclaredField(scrubber).get(null);
+    input = scrubber.equals("URL_SCRUBBER") ? URL : SQL;
+  }
+
+  @Benchmark
+  public Optional<String> apply() {
+    return sqlScrubber.apply(input);
+  }
+}
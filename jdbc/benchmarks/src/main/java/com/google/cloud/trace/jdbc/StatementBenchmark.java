@@ -0,0 +1,126 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of executing statements on a raw connection of {@link StubDriver} versus the same
+ * connection wrapped by <i>Stackdriver Trace for JDBC</i>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatementBenchmark {
+
+  private static final String SQL =
+      "SELECT id, name FROM users WHERE id = 42 AND status = 'active'";
+
+  private static final String PREPARED_SQL =
+      "SELECT id, name FROM users WHERE id = ? AND status = ?";
+
+  private static final String INSERT_SQL = "INSERT INTO users (id, name) VALUES (?, ?)";
+
+  private static final int BATCH_SIZE = 10;
+
+  /**
+   * The connection under test: "raw" is the unwrapped connection; "unsampled" is wrapped, but
+   * there is no current {@code Tracer}; "traced" and "proxies" are wrapped in a {@link
+   * TracingConnection} or dynamic proxies, respectively, with a no-op {@code Tracer}; "comments"
+   * is "traced" with the SQL texts of plain statements commented with the trace context.
+   */
+  @Param({"raw", "unsampled", "traced", "proxies", "comments"})
+  public String connection;
+
+  private Connection conn;
+
+  @Setup
+  public void setUp() throws SQLException {
+    Connection rawConnection = new StubDriver().getConnection();
+    if (connection.equals("raw")) {
+      conn = rawConnection;
+      return;
+    }
+
+    if (!connection.equals("unsampled")) {
+      ThreadLocalTracerStore.setCurrent(NoopTracer.INSTANCE);
+    }
+    Properties info = new Properties();
+    info.setProperty(
+        "stackdriver.trace.dynamicProxies", String.valueOf(connection.equals("proxies")));
+    info.setProperty(
+        "stackdriver.trace.sql.comments", String.valueOf(connection.equals("comments")));
+    conn =
+        NonRegisteringDriver.wrap(
+            rawConnection, TraceOptions.of(info), new CloudTraceSdkTraceService(), null);
+  }
+
+  @TearDown
+  public void tearDown() {
+    ThreadLocalTracerStore.remove();
+  }
+
+  @Benchmark
+  public boolean executeQuery() throws SQLException {
+    try (Statement statement = conn.createStatement();
+        ResultSet resultSet = statement.executeQuery(SQL)) {
+      return resultSet.next();
+    }
+  }
+
+  @Benchmark
+  public boolean preparedStatement() throws SQLException {
+    try (PreparedStatement statement = conn.prepareStatement(PREPARED_SQL)) {
+      statement.setLong(1, 42);
+      statement.setString(2, "active");
+      try (ResultSet resultSet = statement.executeQuery()) {
+        return resultSet.next();
+      }
+    }
+  }
+
+  @Benchmark
+  public int[] executeBatch() throws SQLException {
+    try (PreparedStatement statement = conn.prepareStatement(INSERT_SQL)) {
+      for (int i = 0; i < BATCH_SIZE; i++) {
+        statement.setLong(1, i);
+        statement.setString(2, "name");
+        statement.addBatch();
+      }
+      return statement.executeBatch();
+    }
+  }
+}
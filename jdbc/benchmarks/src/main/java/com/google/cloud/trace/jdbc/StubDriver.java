@@ -0,0 +1,153 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * In-memory JDBC driver for URLs starting with "jdbc:stub:" by default, whose connections,
+ * statements and result sets do nothing at all, for measuring the overhead of tracing in isolation.
+ *
+ * <p>The JDBC objects are dynamic proxies answering every call with a shared, pre-allocated object
+ * or a default value, so that the raw and the traced benchmarks pay the same (small) cost for
+ * them. Result sets are empty.
+ */
+final class StubDriver implements Driver {
+
+  static final String URL = "jdbc:stub:benchmark";
+
+  /** The prefix of the URLs accepted by this driver. */
+  private final String urlPrefix;
+
+  private static final int[] BATCH_RESULT = new int[0];
+
+  private final ResultSet resultSet = stub(ResultSet.class);
+
+  private final Statement statement = stub(Statement.class, resultSet);
+
+  private final PreparedStatement preparedStatement = stub(PreparedStatement.class, resultSet);
+
+  private final CallableStatement callableStatement = stub(CallableStatement.class, resultSet);
+
+  private final Connection connection =
+      stub(Connection.class, statement, preparedStatement, callableStatement);
+
+  StubDriver() {
+    this("jdbc:stub:");
+  }
+
+  /** Creates a driver for URLs starting with the specified prefix instead of "jdbc:stub:". */
+  StubDriver(String urlPrefix) {
+    this.urlPrefix = urlPrefix;
+  }
+
+  /** Returns the stub connection, without going through {@link DriverManager}. */
+  Connection getConnection() {
+    return connection;
+  }
+
+  /**
+   * Returns a stub of the specified JDBC interface, answering calls returning any of the specified
+   * objects' types with these objects, and all other calls with default values.
+   */
+  private static <T> T stub(final Class<T> type, final Object... results) {
+    return type.cast(
+        Proxy.newProxyInstance(
+            StubDriver.class.getClassLoader(),
+            new Class<?>[] {type},
+            new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getDeclaringClass() == Object.class) {
+                  switch (method.getName()) {
+                    case "equals":
+                      return proxy == args[0];
+                    case "hashCode":
+                      return System.identityHashCode(proxy);
+                    default:
+                      return "Stub" + type.getSimpleName();
+                  }
+                }
+                Class<?> returnType = method.getReturnType();
+                for (Object result : results) {
+                  if (returnType.isInterface() && returnType.isInstance(result)) {
+                    return result;
+                  }
+                }
+                if (returnType == boolean.class) {
+                  return false;
+                } else if (returnType == int.class) {
+                  return 0;
+                } else if (returnType == long.class) {
+                  return 0L;
+                } else if (returnType == int[].class) {
+                  return BATCH_RESULT;
+                } else if (returnType.isPrimitive() && returnType != void.class) {
+                  throw new UnsupportedOperationException(method.toString());
+                }
+                return null;
+              }
+            }));
+  }
+
+  @Override
+  public Connection connect(String url, Properties info) {
+    return acceptsURL(url) ? connection : null;
+  }
+
+  @Override
+  public boolean acceptsURL(String url) {
+    return url.startsWith(urlPrefix);
+  }
+
+  @Override
+  public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+    return new DriverPropertyInfo[0];
+  }
+
+  @Override
+  public int getMajorVersion() {
+    return 1;
+  }
+
+  @Override
+  public int getMinorVersion() {
+    return 0;
+  }
+
+  @Override
+  public boolean jdbcCompliant() {
+    return false;
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException();
+  }
+}
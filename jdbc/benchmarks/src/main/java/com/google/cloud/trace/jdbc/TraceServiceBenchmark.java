@@ -0,0 +1,78 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import com.google.common.base.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of a span with three labels via {@link CloudTraceSdkTraceService}, either with a
+ * no-op {@code Tracer} or without any current {@code Tracer}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceServiceBenchmark {
+
+  private static final Optional<String> SQL = Optional.of("SELECT * FROM users WHERE id = ?");
+
+  private static final Optional<String> FINGERPRINT = Optional.of("0123456789abcdef");
+
+  private static final Optional<String> TABLE = Optional.of("users");
+
+  @Param({"none", "noop"})
+  public String tracer;
+
+  private final TraceService traceService = new CloudTraceSdkTraceService();
+
+  @Setup
+  public void setUp() {
+    if (tracer.equals("noop")) {
+      ThreadLocalTracerStore.setCurrent(NoopTracer.INSTANCE);
+    }
+  }
+
+  @TearDown
+  public void tearDown() {
+    ThreadLocalTracerStore.remove();
+  }
+
+  @Benchmark
+  public TraceService.Span span() {
+    try (TraceService.Span span = traceService.open("JDBC.Statement#executeQuery")) {
+      if (span.isRecording()) {
+        span.annotate(Label.SQL_TEXT, SQL);
+        span.annotate(Label.SQL_FINGERPRINT, FINGERPRINT);
+        span.annotate(Label.SQL_TABLE, TABLE);
+      }
+      return span;
+    }
+  }
+}
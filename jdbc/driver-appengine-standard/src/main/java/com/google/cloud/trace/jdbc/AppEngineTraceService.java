@@ -16,6 +16,8 @@ package com.google.cloud.trace.jdbc;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.CloudTraceContext;
 import com.google.auto.service.AutoService;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
@@ -43,7 +45,22 @@ public class AppEngineTraceService extends TraceService {
   public Span open(String name) {
     checkNotNull(name);
 
-    return new SpanImpl(traceService.startSpan(name));
+    com.google.appengine.api.labs.trace.Span span = traceService.startSpan(name);
+    // Spans of requests which are not traced have no context, or one with tracing disabled. The
+    // API offers no way to tell before starting the span, so it is ended right away, lest it stay
+    // on the request's span stack as the parent of later spans.
+    CloudTraceContext context = span.getContext();
+    if (context == null || !context.isTraceEnabled()) {
+      span.endSpan();
+      return NOOP_SPAN;
+    }
+    return new SpanImpl(span);
+  }
+
+  /** Returns the environment of the current request, or null if none. */
+  @Override
+  Object currentTrace() {
+    return ApiProxy.getCurrentEnvironment();
   }
 
   private static class SpanImpl implements Span {
@@ -53,6 +70,11 @@ public class AppEngineTraceService extends TraceService {
       this.span = checkNotNull(span);
     }
 
+    @Override
+    public boolean isRecording() {
+      return true;
+    }
+
     @Override
     public void annotate(Label label, Optional<String> value) {
       checkNotNull(label);
@@ -63,6 +85,16 @@ public class AppEngineTraceService extends TraceService {
       }
     }
 
+    /** Returns null, as App Engine's trace context does not expose the trace ID in plain form. */
+    @Override
+    public String traceParent() {
+      return null;
+    }
+
+    /** Does nothing, as App Engine's trace API does not support stack traces. */
+    @Override
+    public void setStackTrace(Throwable t) {}
+
     @Override
     public void close() {
       span.close();
@@ -18,9 +18,12 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
+import com.google.apphosting.api.ApiProxy;
+import com.google.apphosting.api.CloudTraceContext;
 import com.google.common.base.Optional;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -46,18 +49,59 @@ public class AppEngineTraceServiceTest {
   @Test
   public void exampleSpan() {
     when(mockTraceService.startSpan(any(String.class))).thenReturn(mockSpan);
+    when(mockSpan.getContext()).thenReturn(new CloudTraceContext(new byte[16], 1, 2, 1));
 
     TraceService traceService = new AppEngineTraceService(mockTraceService);
 
     try (TraceService.Span span = traceService.open("JDBC.Driver#connect")) {
+      assertThat(span.isRecording()).isTrue();
       span.annotate(Label.DATABASE_URL, Optional.of("jdbc:mockdriver"));
       span.annotate(Label.SQL_TEXT, Optional.<String>absent());
     }
 
     InOrder inOrder = inOrder(mockTraceService, mockSpan);
     inOrder.verify(mockTraceService).startSpan("JDBC.Driver#connect");
+    inOrder.verify(mockSpan).getContext();
     inOrder.verify(mockSpan).setLabel("g.co/jdbc/url", "jdbc:mockdriver");
     inOrder.verify(mockSpan).close();
     verifyNoMoreInteractions(mockTraceService, mockSpan); // No annotation for SQL_TEXT created.
   }
+
+  @Test
+  public void notTraced() {
+    when(mockTraceService.startSpan(any(String.class))).thenReturn(mockSpan);
+    when(mockSpan.getContext()).thenReturn(new CloudTraceContext(new byte[16], 1, 2, 0));
+
+    TraceService traceService = new AppEngineTraceService(mockTraceService);
+
+    assertThat(traceService.open("JDBC.Driver#connect")).isSameAs(TraceService.NOOP_SPAN);
+
+    verify(mockSpan).endSpan(); // The started span is not left open.
+  }
+
+  @Test
+  public void noContext() {
+    when(mockTraceService.startSpan(any(String.class))).thenReturn(mockSpan);
+
+    TraceService traceService = new AppEngineTraceService(mockTraceService);
+
+    assertThat(traceService.open("JDBC.Driver#connect")).isSameAs(TraceService.NOOP_SPAN);
+
+    verify(mockSpan).endSpan();
+  }
+
+  @Test
+  public void currentTrace() {
+    ApiProxy.Environment mockEnvironment = mock(ApiProxy.Environment.class);
+    TraceService traceService = new AppEngineTraceService(mockTraceService);
+
+    assertThat(traceService.currentTrace()).isNull(); // Outside of any request.
+
+    ApiProxy.setEnvironmentForCurrentThread(mockEnvironment);
+    try {
+      assertThat(traceService.currentTrace()).isSameAs(mockEnvironment);
+    } finally {
+      ApiProxy.clearEnvironmentForCurrentThread();
+    }
+  }
 }
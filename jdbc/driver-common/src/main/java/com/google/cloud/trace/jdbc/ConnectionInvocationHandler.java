@@ -22,10 +22,18 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
 
 /**
  * {@link InvocationHandler} for intercepting calls to the given {@link Connection} and recording
  * latency data for Stackdriver Trace.
+ *
+ * <p>Statements which are not sampled by {@link TraceOptions#sampler} are returned unwrapped, or
+ * wrapped for recording {@link TraceOptions#statementStatistics} only. Sampled statements take part
+ * in the {@link Transaction} tracking of the connection. All wrapped statements are counted by
+ * the {@link RepeatedStatements} of the connection, if enabled, and their spans are annotated with
+ * the {@link ConnectionLabels} of the connection, if enabled.
  */
 final class ConnectionInvocationHandler implements InvocationHandler {
 
@@ -36,27 +44,64 @@ final class ConnectionInvocationHandler implements InvocationHandler {
 
   private final TraceService traceService;
 
+  /** Counter of connections in flight, decremented once the connection is closed, if any. */
+  @Nullable private final AtomicInteger inFlight;
+
+  private boolean closed;
+
+  /** The sampling decision for this connection, if made once per connection. */
+  private final boolean sampled;
+
+  private final Transaction transaction;
+
+  /** Counter of the statements prepared on the connection, if enabled. */
+  @Nullable private final PrepareTracker prepares;
+
+  /** Counter of the statements executed per trace by fingerprint, if enabled. */
+  @Nullable private final RepeatedStatements repeatedStatements;
+
+  /** The labels of the connection attached to statement spans, if enabled. */
+  @Nullable private final ConnectionLabels connectionLabels;
+
   ConnectionInvocationHandler(
       Connection conn, TraceOptions traceOptions, TraceService traceService) {
+    this(conn, traceOptions, traceService, null);
+  }
+
+  ConnectionInvocationHandler(
+      Connection conn,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      @Nullable AtomicInteger inFlight) {
     this.conn = checkNotNull(conn);
     this.traceOptions = checkNotNull(traceOptions);
     this.traceService = checkNotNull(traceService);
+    this.inFlight = inFlight;
+    this.sampled = !traceOptions.samplePerConnection() || traceOptions.sampler().sample();
+    this.transaction = new Transaction(conn, traceOptions, traceService);
+    this.prepares = PrepareTracker.create(traceOptions);
+    this.repeatedStatements = RepeatedStatements.create(traceOptions, traceService);
+    this.connectionLabels = ConnectionLabels.create(conn, traceOptions);
   }
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
     checkNotNull(method);
 
+    MethodInfo methodInfo = MethodInfo.of(method);
+    if (methodInfo.endsTransaction()) {
+      return invokeEndingTransaction(method, args, methodInfo.spanName());
+    }
+
     // Extract the sql text when creating a CallableStatement or a PreparedStatement and then pass
     // it to the StatementInvocationHandler which will annotate the trace span with this sql text.
     Optional<String> sql;
-    if ((method.getName().equals("prepareCall") || method.getName().equals("prepareStatement"))
-        && method.getParameterTypes().length > 0
-        && method.getParameterTypes()[0] == String.class) {
-      sql = Optional.fromNullable((String) args[0]);
+    if (methodInfo.sqlArgumentIndex() != MethodInfo.NO_SQL_ARGUMENT) {
+      sql = Optional.fromNullable((String) args[methodInfo.sqlArgumentIndex()]);
     } else {
       sql = Optional.absent();
     }
+    long startNanoTime = prepares != null && sql.isPresent() ? System.nanoTime() : 0;
 
     Object o;
     try {
@@ -64,15 +109,86 @@ final class ConnectionInvocationHandler implements InvocationHandler {
     } catch (InvocationTargetException e) {
       // Rethrow the exception from the underlying method.
       throw e.getCause();
+    } finally {
+      // Ended even if closing failed, as the connection is unusable either way.
+      if (methodInfo.closes() && !closed) {
+        closed = true;
+        transaction.end();
+        if (inFlight != null) {
+          inFlight.decrementAndGet();
+        }
+      }
     }
 
     if (o instanceof Statement) {
-      Statement stmt = (Statement) o;
-      o =
-          Proxies.newProxyInstance(
-              stmt, new StatementInvocationHandler(stmt, traceOptions, traceService, sql));
+      TraceService statementTraceService = statementTraceService(sql.orNull());
+      if (prepares != null && sql.isPresent()) {
+        prepares.record(methodInfo.spanName(), sql.get(), startNanoTime, statementTraceService);
+      }
+      if (statementTraceService != null) {
+        Statement stmt = (Statement) o;
+        o =
+            Proxies.newProxyInstance(
+                stmt,
+                new StatementInvocationHandler(
+                    stmt,
+                    traceOptions,
+                    statementTraceService,
+                    sql,
+                    statementTraceService == traceService ? transaction : null,
+                    repeatedStatements,
+                    connectionLabels));
+      }
     }
 
     return o;
   }
+
+  /**
+   * Invokes {@code commit}, {@code rollback} or {@code setAutoCommit}, tracing the call if it ends
+   * the active transaction.
+   */
+  private Object invokeEndingTransaction(Method method, Object[] args, String spanName)
+      throws Throwable {
+    // Only setAutoCommit takes an argument; disabling auto-commit mode ends no transaction.
+    Boolean autoCommit = args != null && args.length == 1 ? (Boolean) args[0] : null;
+    StatementSpan span = Boolean.FALSE.equals(autoCommit) ? null : transaction.openEnd(spanName);
+
+    Object o;
+    try {
+      o = method.invoke(conn, args);
+    } catch (InvocationTargetException e) {
+      // Rethrow the exception from the underlying method.
+      if (span != null) {
+        span.failed(e.getCause());
+      }
+      throw e.getCause();
+    } finally {
+      if (span != null) {
+        transaction.closeEnd(span);
+      }
+    }
+
+    if (autoCommit != null) {
+      transaction.setAutoCommit(autoCommit);
+    }
+    return o;
+  }
+
+  /**
+   * Returns the {@link TraceService} for the next statement with the specified SQL text, if known:
+   * the actual one if sampled, else a no-op one if statement statistics are recorded nevertheless,
+   * else null. Statements excluded via {@link TraceOptions#sqlExclusions} record nothing, so they
+   * take no sampling decision, which would consume the rate limit of the sampler.
+   */
+  @Nullable
+  private TraceService statementTraceService(@Nullable String sql) {
+    if (traceOptions.sqlExclusions().excludes(sql)) {
+      return null;
+    }
+    if (traceOptions.samplePerConnection() ? sampled : traceOptions.sampler().sample()) {
+      return traceService;
+    }
+    return traceOptions.statementStatistics().isPresent() ? TraceService.NOOP : null;
+  }
 }
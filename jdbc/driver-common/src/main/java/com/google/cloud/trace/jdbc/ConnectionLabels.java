@@ -0,0 +1,130 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Labels describing the database of a connection, i.e. the scrubbed JDBC database URL and the
+ * product name and version of the database, which are attached to every statement span of the
+ * connection, if enabled via {@link TraceOptions#connectionLabels}. With pooled connections, this
+ * tells which database served a statement, as the database URL is only labeled when connecting.
+ *
+ * <p>The label values are derived from the {@link DatabaseMetaData} of the connection when the
+ * connection is wrapped, i.e. outside of any statement span, and kept for the lifetime of the
+ * wrapper, so that neither the URL is scrubbed nor the metadata queried per span. The metadata is
+ * queried only once per connection created by the driver, i.e. the connection which produced the
+ * {@link DatabaseMetaData} (see {@link DatabaseMetaData#getConnection}), as pooled connections are
+ * wrapped anew whenever they are checked out. Connection pools which also wrap the metadata defeat
+ * this, so their connections are queried whenever checked out. Label values which are unavailable,
+ * e.g. because the metadata could not be retrieved, are omitted.
+ */
+final class ConnectionLabels {
+
+  /**
+   * Unscrubbed label values by the connection created by the driver, weakly keyed by identity so
+   * that closed and discarded connections are not retained.
+   */
+  private static final Cache<Connection, ImmutableMap<Label, String>> METADATA =
+      CacheBuilder.newBuilder().weakKeys().build();
+
+  private final ImmutableMap<Label, Optional<String>> labels;
+
+  ConnectionLabels(Connection conn, TraceOptions traceOptions) {
+    checkNotNull(conn);
+    checkNotNull(traceOptions);
+
+    ImmutableMap.Builder<Label, Optional<String>> labels = ImmutableMap.builder();
+    for (Map.Entry<Label, String> entry : metaData(conn).entrySet()) {
+      Optional<String> labelValue =
+          entry.getKey() == Label.DATABASE_URL
+              ? traceOptions.urlScrubber().apply(entry.getValue())
+              : Optional.of(entry.getValue());
+      if (labelValue.isPresent()) {
+        labels.put(entry.getKey(), labelValue);
+      }
+    }
+    this.labels = labels.build();
+  }
+
+  /** Returns new labels if enabled via {@link TraceOptions#connectionLabels}, else null. */
+  @Nullable
+  static ConnectionLabels create(Connection conn, TraceOptions traceOptions) {
+    return traceOptions.connectionLabels() ? new ConnectionLabels(conn, traceOptions) : null;
+  }
+
+  /** Annotates the specified span with the labels of the connection. */
+  void annotate(TraceService.Span span) {
+    checkNotNull(span);
+
+    for (Map.Entry<Label, Optional<String>> entry : labels.entrySet()) {
+      span.annotate(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Returns the label values of the specified connection, looked up by the connection itself, else
+   * by the connection which produced its metadata, else queried from its metadata. Failures of the
+   * driver, including runtime exceptions and methods missing from old drivers, are not propagated,
+   * so that they never fail wrapping the connection.
+   */
+  private static ImmutableMap<Label, String> metaData(Connection conn) {
+    ImmutableMap<Label, String> cached = METADATA.getIfPresent(conn);
+    if (cached != null) {
+      return cached;
+    }
+
+    Connection key = conn;
+    ImmutableMap.Builder<Label, String> values = ImmutableMap.builder();
+    try {
+      DatabaseMetaData metaData = conn.getMetaData();
+      if (metaData != null) {
+        Connection driverConn = metaData.getConnection();
+        if (driverConn != null && driverConn != conn) {
+          cached = METADATA.getIfPresent(driverConn);
+          if (cached != null) {
+            return cached;
+          }
+          key = driverConn;
+        }
+        put(values, Label.DATABASE_URL, metaData.getURL());
+        put(values, Label.DATABASE_PRODUCT, metaData.getDatabaseProductName());
+        put(values, Label.DATABASE_VERSION, metaData.getDatabaseProductVersion());
+      }
+    } catch (SQLException | RuntimeException | AbstractMethodError e) {
+      // Intentionally not retrying: the connection is labeled with whatever was derived so far.
+    }
+    ImmutableMap<Label, String> result = values.build();
+    METADATA.put(key, result);
+    return result;
+  }
+
+  private static void put(
+      ImmutableMap.Builder<Label, String> values, Label label, @Nullable String value) {
+    if (value != null) {
+      values.put(label, value);
+    }
+  }
+}
@@ -26,12 +26,195 @@ enum Label {
    */
   DATABASE_URL("g.co/jdbc/url"),
 
+  /**
+   * Span annotations labeled with {@link #DATABASE_PRODUCT} (key {@value #DATABASE_PRODUCT})
+   * contain the product name of the database, see {@link ConnectionLabels}.
+   */
+  DATABASE_PRODUCT("g.co/jdbc/db/product"),
+
+  /**
+   * Span annotations labeled with {@link #DATABASE_VERSION} (key {@value #DATABASE_VERSION})
+   * contain the product version of the database, see {@link ConnectionLabels}.
+   */
+  DATABASE_VERSION("g.co/jdbc/db/version"),
+
   /**
    * Span annotations labeled with {@link #SQL_TEXT} (key {@value #SQL_TEXT}) contain the SQL
    * statement that is sent to the database for execution.
    */
   SQL_TEXT("g.co/jdbc/sql"),
 
+  /**
+   * Span annotations labeled with {@link #SQL_FINGERPRINT} (key {@value #SQL_FINGERPRINT}) contain
+   * the fingerprint hash identifying the shape of the SQL statement, see {@link SqlFingerprint}.
+   */
+  SQL_FINGERPRINT("g.co/jdbc/sql/fingerprint"),
+
+  /**
+   * Span annotations labeled with {@link #SQL_OPERATION} (key {@value #SQL_OPERATION}) contain the
+   * operation of the SQL statement, e.g. "SELECT".
+   */
+  SQL_OPERATION("g.co/jdbc/sql/operation"),
+
+  /**
+   * Span annotations labeled with {@link #SQL_TABLE} (key {@value #SQL_TABLE}) contain the primary
+   * table of the SQL statement.
+   */
+  SQL_TABLE("g.co/jdbc/sql/table"),
+
+  /**
+   * Span annotations labeled with {@link #BATCH_SIZE} (key {@value #BATCH_SIZE}) contain the number
+   * of statements in the executed batch.
+   */
+  BATCH_SIZE("g.co/jdbc/batch/size"),
+
+  /**
+   * Span annotations labeled with {@link #BATCH_FINGERPRINTS} (key {@value #BATCH_FINGERPRINTS})
+   * contain the number of distinct SQL statement fingerprints in the executed batch.
+   */
+  BATCH_FINGERPRINTS("g.co/jdbc/batch/fingerprints"),
+
+  /**
+   * Span annotations labeled with {@link #BATCH_SQL_BYTES} (key {@value #BATCH_SQL_BYTES}) contain
+   * the total length in UTF-8 bytes of the SQL texts in the executed batch.
+   */
+  BATCH_SQL_BYTES("g.co/jdbc/batch/bytes"),
+
+  /**
+   * Span annotations labeled with {@link #RESULT_SET_ROWS} (key {@value #RESULT_SET_ROWS}) contain
+   * the number of rows iterated in a result set.
+   */
+  RESULT_SET_ROWS("g.co/jdbc/resultset/rows"),
+
+  /**
+   * Span annotations labeled with {@link #RESULT_SET_FETCHES} (key {@value #RESULT_SET_FETCHES})
+   * contain the number of times rows were fetched from the database while iterating a result set.
+   */
+  RESULT_SET_FETCHES("g.co/jdbc/resultset/fetches"),
+
+  /**
+   * Span annotations labeled with {@link #RESULT_SET_FIRST_ROW_MICROS} (key {@value
+   * #RESULT_SET_FIRST_ROW_MICROS}) contain the time in microseconds from the execution of the query
+   * to the first row of its result set.
+   */
+  RESULT_SET_FIRST_ROW_MICROS("g.co/jdbc/resultset/first_row_us"),
+
+  /**
+   * Span annotations labeled with {@link #RESULT_SET_NEXT_MICROS} (key {@value
+   * #RESULT_SET_NEXT_MICROS}) contain the total time in microseconds spent in the JDBC driver
+   * advancing a result set to its next row.
+   */
+  RESULT_SET_NEXT_MICROS("g.co/jdbc/resultset/next_us"),
+
+  /**
+   * Span annotations labeled with {@link #RESULT_SET_ITERATION_MICROS} (key {@value
+   * #RESULT_SET_ITERATION_MICROS}) contain the time in microseconds from the first to the last row
+   * of a result set, including the time spent by the application processing the rows.
+   */
+  RESULT_SET_ITERATION_MICROS("g.co/jdbc/resultset/iteration_us"),
+
+  /**
+   * Span annotations labeled with {@link #POOL_WAITING} (key {@value #POOL_WAITING}) contain the
+   * number of threads waiting for a connection from a data source, including the current thread.
+   */
+  POOL_WAITING("g.co/jdbc/pool/waiting"),
+
+  /**
+   * Span annotations labeled with {@link #POOL_IN_FLIGHT} (key {@value #POOL_IN_FLIGHT}) contain
+   * the number of connections obtained from a data source and not yet closed.
+   */
+  POOL_IN_FLIGHT("g.co/jdbc/pool/in_flight"),
+
+  /**
+   * Span annotations labeled with {@link #TRANSACTION_STATEMENTS} (key {@value
+   * #TRANSACTION_STATEMENTS}) contain the number of statements executed in a transaction.
+   */
+  TRANSACTION_STATEMENTS("g.co/jdbc/transaction/statements"),
+
+  /**
+   * Span annotations labeled with {@link #TRANSACTION_DB_MICROS} (key {@value
+   * #TRANSACTION_DB_MICROS}) contain the total time in microseconds spent executing the statements
+   * of a transaction.
+   */
+  TRANSACTION_DB_MICROS("g.co/jdbc/transaction/db_us"),
+
+  /**
+   * Span annotations labeled with {@link #REPEATED_STATEMENTS} (key {@value #REPEATED_STATEMENTS})
+   * contain the number of times statements of the same fingerprint were executed on a connection,
+   * see {@link RepeatedStatements}.
+   */
+  REPEATED_STATEMENTS("g.co/jdbc/repeated/count"),
+
+  /**
+   * Span annotations labeled with {@link #PREPARE_REPEATED} (key {@value #PREPARE_REPEATED})
+   * contain whether the SQL text was prepared before on the same connection.
+   */
+  PREPARE_REPEATED("g.co/jdbc/prepare/repeated"),
+
+  /**
+   * Span annotations labeled with {@link #PREPARE_COUNT} (key {@value #PREPARE_COUNT}) contain the
+   * number of statements prepared on the connection so far.
+   */
+  PREPARE_COUNT("g.co/jdbc/prepare/count"),
+
+  /**
+   * Span annotations labeled with {@link #PREPARE_DISTINCT_SQL} (key {@value
+   * #PREPARE_DISTINCT_SQL}) contain the number of distinct SQL texts prepared on the connection so
+   * far.
+   */
+  PREPARE_DISTINCT_SQL("g.co/jdbc/prepare/distinct_sql"),
+
+  /**
+   * Span annotations labeled with {@link #PREPARE_DISTINCT_SHAPES} (key {@value
+   * #PREPARE_DISTINCT_SHAPES}) contain the number of distinct SQL fingerprints prepared on the
+   * connection so far.
+   */
+  PREPARE_DISTINCT_SHAPES("g.co/jdbc/prepare/distinct_shapes"),
+
+  /**
+   * Span annotations labeled with {@link #LOB_BYTES} (key {@value #LOB_BYTES}) contain the number
+   * of bytes read or written in a transfer of a large object, see {@link LobTransfer}.
+   */
+  LOB_BYTES("g.co/jdbc/lob/bytes"),
+
+  /**
+   * Span annotations labeled with {@link #LOB_CHARS} (key {@value #LOB_CHARS}) contain the number
+   * of characters read or written in a transfer of a large object.
+   */
+  LOB_CHARS("g.co/jdbc/lob/chars"),
+
+  /**
+   * Span annotations labeled with {@link #LOB_BLOCKED_MICROS} (key {@value #LOB_BLOCKED_MICROS})
+   * contain the time in microseconds spent blocked in reads or writes of a large object, as
+   * opposed to the duration of the span, which includes the time spent by the application
+   * processing the data.
+   */
+  LOB_BLOCKED_MICROS("g.co/jdbc/lob/blocked_us"),
+
+  /**
+   * Span annotations labeled with {@link #ELAPSED_MICROS} (key {@value #ELAPSED_MICROS}) contain
+   * the elapsed time in microseconds of a call which is traced retroactively.
+   */
+  ELAPSED_MICROS("g.co/jdbc/elapsed_us"),
+
+  /**
+   * Span annotations labeled with {@link #SQL_STATE} (key {@value #SQL_STATE}) contain the SQLState
+   * of the exception of a failed call, see {@link SqlErrors}.
+   */
+  SQL_STATE("g.co/jdbc/error/sqlstate"),
+
+  /**
+   * Span annotations labeled with {@link #ERROR_CODE} (key {@value #ERROR_CODE}) contain the
+   * vendor-specific error code of the exception of a failed call, if any.
+   */
+  ERROR_CODE("g.co/jdbc/error/code"),
+
+  /**
+   * Span annotations labeled with {@link #ERROR_CATEGORY} (key {@value #ERROR_CATEGORY}) contain
+   * the category of the exception of a failed call, e.g. "rollback", see {@link SqlErrors}.
+   */
+  ERROR_CATEGORY("g.co/jdbc/error/category"),
+
   /**
    * Span annotations labeled with {@link #ERROR_NAME} (key {@value #ERROR_NAME}) contain the error
    * name.
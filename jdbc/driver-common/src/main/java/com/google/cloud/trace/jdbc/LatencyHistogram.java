@@ -0,0 +1,246 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of the latencies of the calls executing one shape of SQL statements, along
+ * with their error and row counts and the counts and total latency of preparing them.
+ *
+ * <p>Latencies are counted in log-linear buckets of microseconds: four buckets per power of two,
+ * so percentiles are reported with a relative error of at most 25%. Latencies of more than about
+ * 71 minutes are counted in the last bucket.
+ *
+ * <p>To reduce contention between threads recording the same statement, the counters are striped:
+ * each thread increments the counters of one of several stripes of an {@link AtomicLongArray},
+ * chosen by its thread ID, and {@link #snapshot} sums up all stripes.
+ */
+final class LatencyHistogram implements StatementStatisticsMXBean {
+
+  /** Number of buckets, covering latencies up to 2^32 microseconds. */
+  static final int BUCKETS = 124;
+
+  private static final int ERRORS = BUCKETS;
+  private static final int ROWS = BUCKETS + 1;
+  private static final int TOTAL_MICROS = BUCKETS + 2;
+  private static final int MAX_MICROS = BUCKETS + 3;
+  private static final int PREPARES = BUCKETS + 4;
+  private static final int FIRST_PREPARES = BUCKETS + 5;
+  private static final int PREPARE_MICROS = BUCKETS + 6;
+
+  /** Number of counters per stripe. */
+  private static final int STRIPE_SIZE = BUCKETS + 7;
+
+  private static final int STRIPES =
+      Math.min(4, Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+  private final String fingerprint;
+
+  private final String sql;
+
+  private final AtomicLongArray counters = new AtomicLongArray(STRIPES * STRIPE_SIZE);
+
+  LatencyHistogram(String fingerprint, String sql) {
+    this.fingerprint = checkNotNull(fingerprint);
+    this.sql = checkNotNull(sql);
+  }
+
+  /** Returns the index of the bucket counting the specified latency. */
+  static int bucket(long micros) {
+    if (micros < 4) {
+      return (int) Math.max(0, micros);
+    }
+    long clampedMicros = Math.min(micros, 0xffffffffL);
+    int exponent = 63 - Long.numberOfLeadingZeros(clampedMicros);
+    return 4 * (exponent - 1) + (int) ((clampedMicros >>> (exponent - 2)) & 3);
+  }
+
+  /** Returns the highest latency counted by the specified bucket. */
+  static long upperBound(int bucket) {
+    checkArgument(bucket >= 0 && bucket < BUCKETS, "bucket out of range: %s", bucket);
+
+    if (bucket < 4) {
+      return bucket;
+    }
+    int exponent = bucket / 4 + 1;
+    return ((4L + bucket % 4 + 1) << (exponent - 2)) - 1;
+  }
+
+  /** Records a call of the specified latency, which failed or not. */
+  void record(long elapsedNanos, boolean failed) {
+    long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+    int offset = stripeOffset();
+
+    counters.incrementAndGet(offset + bucket(micros));
+    counters.addAndGet(offset + TOTAL_MICROS, micros);
+    if (failed) {
+      counters.incrementAndGet(offset + ERRORS);
+    }
+    long max;
+    while ((max = counters.get(offset + MAX_MICROS)) < micros
+        && !counters.compareAndSet(offset + MAX_MICROS, max, micros)) {}
+  }
+
+  /** Records the specified number of rows, e.g. read from a result set after the call. */
+  void recordRows(long rows) {
+    counters.addAndGet(stripeOffset() + ROWS, rows);
+  }
+
+  /**
+   * Records preparing a statement of the specified latency, for the first time on its connection or
+   * not.
+   */
+  void recordPrepare(long elapsedNanos, boolean repeated) {
+    int offset = stripeOffset();
+
+    counters.incrementAndGet(offset + PREPARES);
+    counters.addAndGet(offset + PREPARE_MICROS, TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    if (!repeated) {
+      counters.incrementAndGet(offset + FIRST_PREPARES);
+    }
+  }
+
+  /** Returns the offset of the current thread's stripe. */
+  private static int stripeOffset() {
+    return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * STRIPE_SIZE;
+  }
+
+  /**
+   * Returns the current counts. Counts recorded concurrently may or may not be included, so the
+   * snapshot is not necessarily consistent across counters.
+   */
+  StatementStatistics.Snapshot snapshot() {
+    long[] buckets = new long[BUCKETS];
+    long count = 0;
+    long errors = 0;
+    long rows = 0;
+    long totalMicros = 0;
+    long maxMicros = 0;
+    long prepares = 0;
+    long firstPrepares = 0;
+    long prepareMicros = 0;
+    for (int offset = 0; offset < counters.length(); offset += STRIPE_SIZE) {
+      for (int i = 0; i < BUCKETS; i++) {
+        long bucketCount = counters.get(offset + i);
+        buckets[i] += bucketCount;
+        count += bucketCount;
+      }
+      errors += counters.get(offset + ERRORS);
+      rows += counters.get(offset + ROWS);
+      totalMicros += counters.get(offset + TOTAL_MICROS);
+      maxMicros = Math.max(maxMicros, counters.get(offset + MAX_MICROS));
+      prepares += counters.get(offset + PREPARES);
+      firstPrepares += counters.get(offset + FIRST_PREPARES);
+      prepareMicros += counters.get(offset + PREPARE_MICROS);
+    }
+    return StatementStatistics.Snapshot.create(
+        fingerprint,
+        sql,
+        count,
+        errors,
+        rows,
+        totalMicros,
+        maxMicros,
+        percentile(buckets, count, 0.5, maxMicros),
+        percentile(buckets, count, 0.9, maxMicros),
+        percentile(buckets, count, 0.99, maxMicros),
+        prepares,
+        firstPrepares,
+        prepareMicros);
+  }
+
+  /** Returns the upper bound of the bucket containing the specified percentile, at most the max. */
+  private static long percentile(long[] buckets, long count, double percentile, long maxMicros) {
+    long rank = (long) Math.ceil(count * percentile);
+    long seen = 0;
+    for (int i = 0; i < buckets.length; i++) {
+      seen += buckets[i];
+      if (seen >= rank && seen > 0) {
+        return Math.min(upperBound(i), maxMicros);
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public String getFingerprint() {
+    return fingerprint;
+  }
+
+  @Override
+  public String getSql() {
+    return sql;
+  }
+
+  @Override
+  public long getCount() {
+    return snapshot().count();
+  }
+
+  @Override
+  public long getErrors() {
+    return snapshot().errors();
+  }
+
+  @Override
+  public long getRows() {
+    return snapshot().rows();
+  }
+
+  @Override
+  public long getTotalMicros() {
+    return snapshot().totalMicros();
+  }
+
+  @Override
+  public long getMaxMicros() {
+    return snapshot().maxMicros();
+  }
+
+  @Override
+  public long getP50Micros() {
+    return snapshot().p50Micros();
+  }
+
+  @Override
+  public long getP90Micros() {
+    return snapshot().p90Micros();
+  }
+
+  @Override
+  public long getP99Micros() {
+    return snapshot().p99Micros();
+  }
+
+  @Override
+  public long getPrepares() {
+    return snapshot().prepares();
+  }
+
+  @Override
+  public long getFirstPrepares() {
+    return snapshot().firstPrepares();
+  }
+
+  @Override
+  public long getPrepareMicros() {
+    return snapshot().prepareMicros();
+  }
+}
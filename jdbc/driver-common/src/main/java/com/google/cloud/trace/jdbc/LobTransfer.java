@@ -0,0 +1,220 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.NClob;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Accumulates the bytes or characters transferred and the time blocked in a transfer of a large
+ * object, e.g. reading the stream of a {@link Blob} or a stream passed to a prepared statement,
+ * and reports them as a single span when the transfer ends, if enabled via {@link
+ * TraceOptions#lobs}.
+ *
+ * <p>Like {@link TracingResultSet}, calls are not traced individually. The span is created
+ * retroactively, from the start of the first call to the end of the last one, once the end of a
+ * stream is reached or the stream is closed, whichever comes first. Streams which are neither read
+ * to their end nor closed are not reported. Transfers which do not involve a stream, e.g. {@link
+ * Blob#getBytes}, are reported right away.
+ *
+ * <p>This class also holds the helpers for wrapping large objects and their streams, and for
+ * unwrapping large objects passed back to the JDBC driver, which may expect its own classes.
+ */
+final class LobTransfer {
+
+  private final TraceService traceService;
+
+  private final String spanName;
+
+  /** Either {@link Label#LOB_BYTES} or {@link Label#LOB_CHARS}. */
+  private final Label unitLabel;
+
+  private long units;
+
+  /** Total time spent in calls reading or writing. */
+  private long blockedNanos;
+
+  /** {@link System#nanoTime} at the start of the first call. */
+  private long firstNanos;
+
+  /** {@link System#nanoTime} at the end of the last call. */
+  private long lastNanos;
+
+  private boolean started;
+
+  private boolean reported;
+
+  LobTransfer(TraceService traceService, String spanName, Label unitLabel) {
+    this.traceService = checkNotNull(traceService);
+    this.spanName = checkNotNull(spanName);
+    this.unitLabel = checkNotNull(unitLabel);
+  }
+
+  /**
+   * Records a call which started at the specified {@link System#nanoTime} and just finished,
+   * transferring the specified number of bytes or characters.
+   */
+  void record(long startNanos, long units) {
+    long endNanos = System.nanoTime();
+    if (!started) {
+      started = true;
+      firstNanos = startNanos;
+    }
+    lastNanos = endNanos;
+    blockedNanos += endNanos - startNanos;
+    if (units > 0) {
+      this.units += units;
+    }
+  }
+
+  /** Reports the transfer as a single span, unless already reported or nothing was recorded. */
+  void report() {
+    if (reported || !started) {
+      reported = true;
+      return;
+    }
+    reported = true;
+
+    try (TraceService.Span span = traceService.open(spanName, firstNanos, lastNanos)) {
+      if (span.isRecording()) {
+        span.annotate(unitLabel, Optional.of(String.valueOf(units)));
+        span.annotate(
+            Label.LOB_BLOCKED_MICROS,
+            Optional.of(String.valueOf(TimeUnit.NANOSECONDS.toMicros(blockedNanos))));
+      }
+    }
+  }
+
+  /** Reports a single call transferring the specified number of bytes or characters right away. */
+  static void report(
+      TraceService traceService, String spanName, Label unitLabel, long startNanos, long units) {
+    LobTransfer transfer = new LobTransfer(traceService, spanName, unitLabel);
+    transfer.record(startNanos, units);
+    transfer.report();
+  }
+
+  /** Wraps the specified stream for tracing reading it, if not null and enabled. */
+  @Nullable
+  static InputStream wrap(
+      @Nullable InputStream in,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      String spanName) {
+    return in != null && traceOptions.lobs()
+        ? new TracingInputStream(in, new LobTransfer(traceService, spanName, Label.LOB_BYTES))
+        : in;
+  }
+
+  /** Wraps the specified reader for tracing reading it, if not null and enabled. */
+  @Nullable
+  static Reader wrap(
+      @Nullable Reader reader,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      String spanName) {
+    return reader != null && traceOptions.lobs()
+        ? new TracingReader(reader, new LobTransfer(traceService, spanName, Label.LOB_CHARS))
+        : reader;
+  }
+
+  /** Wraps the specified stream for tracing writing it, if not null and enabled. */
+  @Nullable
+  static OutputStream wrap(
+      @Nullable OutputStream out,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      String spanName) {
+    return out != null && traceOptions.lobs()
+        ? new TracingOutputStream(out, new LobTransfer(traceService, spanName, Label.LOB_BYTES))
+        : out;
+  }
+
+  /** Wraps the specified writer for tracing writing it, if not null and enabled. */
+  @Nullable
+  static Writer wrap(
+      @Nullable Writer writer,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      String spanName) {
+    return writer != null && traceOptions.lobs()
+        ? new TracingWriter(writer, new LobTransfer(traceService, spanName, Label.LOB_CHARS))
+        : writer;
+  }
+
+  /** Wraps the specified {@link Blob} for tracing its transfers, if not null and enabled. */
+  @Nullable
+  static Blob wrap(@Nullable Blob blob, TraceOptions traceOptions, TraceService traceService) {
+    return blob != null && traceOptions.lobs()
+        ? new TracingBlob(blob, traceOptions, traceService)
+        : blob;
+  }
+
+  /** Wraps the specified {@link Clob} for tracing its transfers, if not null and enabled. */
+  @Nullable
+  static Clob wrap(@Nullable Clob clob, TraceOptions traceOptions, TraceService traceService) {
+    return clob != null && traceOptions.lobs()
+        ? new TracingClob(clob, traceOptions, traceService)
+        : clob;
+  }
+
+  /** Wraps the specified {@link NClob} for tracing its transfers, if not null and enabled. */
+  @Nullable
+  static NClob wrap(@Nullable NClob nClob, TraceOptions traceOptions, TraceService traceService) {
+    return nClob != null && traceOptions.lobs()
+        ? new TracingNClob(nClob, traceOptions, traceService)
+        : nClob;
+  }
+
+  /** Returns the {@link Blob} wrapped by the specified one, if any, else the specified one. */
+  @Nullable
+  static Blob unwrap(@Nullable Blob blob) {
+    return blob instanceof TracingBlob ? ((TracingBlob) blob).blob : blob;
+  }
+
+  /** Returns the {@link Clob} wrapped by the specified one, if any, else the specified one. */
+  @Nullable
+  static Clob unwrap(@Nullable Clob clob) {
+    return clob instanceof TracingClob ? ((TracingClob) clob).clob : clob;
+  }
+
+  /** Returns the {@link NClob} wrapped by the specified one, if any, else the specified one. */
+  @Nullable
+  static NClob unwrap(@Nullable NClob nClob) {
+    return nClob instanceof TracingNClob ? (NClob) ((TracingNClob) nClob).clob : nClob;
+  }
+
+  /**
+   * Returns the large object wrapped by the specified object, if any, else the specified object.
+   */
+  @Nullable
+  static Object unwrap(@Nullable Object x) {
+    if (x instanceof TracingBlob) {
+      return ((TracingBlob) x).blob;
+    } else if (x instanceof TracingClob) {
+      return ((TracingClob) x).clob;
+    }
+    return x;
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.collect.ImmutableMap;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import javax.annotation.Nullable;
+
+/**
+ * Immutable classification of a JDBC {@link Method} as needed by {@link
+ * ConnectionInvocationHandler} and {@link StatementInvocationHandler}.
+ *
+ * <p>The classification is computed once per method and looked up by the method's declaring class
+ * via {@link ClassValue}, so intercepting a call involves neither string comparisons nor copies of
+ * the method's parameter types.
+ */
+@AutoValue
+abstract class MethodInfo {
+
+  /** Value of {@link #sqlArgumentIndex} for methods without an SQL text argument. */
+  static final int NO_SQL_ARGUMENT = -1;
+
+  private static final ClassValue<ImmutableMap<Method, MethodInfo>> DECLARED_METHODS =
+      new ClassValue<ImmutableMap<Method, MethodInfo>>() {
+        @Override
+        protected ImmutableMap<Method, MethodInfo> computeValue(Class<?> type) {
+          ImmutableMap.Builder<Method, MethodInfo> methods = ImmutableMap.builder();
+          for (Method method : type.getDeclaredMethods()) {
+            methods.put(method, create(method));
+          }
+          return methods.build();
+        }
+      };
+
+  /** Whether calls to the method execute SQL statements and are thus traced. */
+  abstract boolean traced();
+
+  /**
+   * Index of the argument holding the SQL text, e.g. for {@code Statement.execute(String)} or
+   * {@code Connection.prepareStatement(String)}, or {@link #NO_SQL_ARGUMENT}.
+   */
+  abstract int sqlArgumentIndex();
+
+  /**
+   * Whether calls to the method end the current transaction, if any, i.e. {@code
+   * Connection.commit()}, {@code Connection.rollback()} and {@code Connection.setAutoCommit}, see
+   * {@link Transaction}.
+   */
+  abstract boolean endsTransaction();
+
+  /** Whether calls to the method close the object, i.e. {@code close()}. */
+  abstract boolean closes();
+
+  /**
+   * Name of the span for traced calls, calls ending transactions and calls preparing statements,
+   * {@code null} for other calls.
+   */
+  @Nullable
+  abstract String spanName();
+
+  /** Returns the classification of the specified method. */
+  static MethodInfo of(Method method) {
+    checkNotNull(method);
+
+    MethodInfo methodInfo = DECLARED_METHODS.get(method.getDeclaringClass()).get(method);
+    return methodInfo != null ? methodInfo : create(method);
+  }
+
+  private static MethodInfo create(Method method) {
+    String name = method.getName();
+    Class<?>[] parameterTypes = method.getParameterTypes();
+    boolean traced = name.startsWith("execute");
+    boolean takesSql = traced || name.equals("prepareCall") || name.equals("prepareStatement");
+    boolean endsTransaction =
+        Connection.class.isAssignableFrom(method.getDeclaringClass())
+            && (((name.equals("commit") || name.equals("rollback")) && parameterTypes.length == 0)
+                || (name.equals("setAutoCommit") && parameterTypes.length == 1));
+    boolean closes = name.equals("close") && parameterTypes.length == 0;
+
+    String spanName = null;
+    if (traced) {
+      spanName = ("JDBC.Statement#" + name).intern();
+    } else if (endsTransaction || takesSql) {
+      spanName = ("JDBC.Connection#" + name).intern();
+    }
+    return new AutoValue_MethodInfo(
+        traced,
+        takesSql && parameterTypes.length > 0 && parameterTypes[0] == String.class
+            ? 0
+            : NO_SQL_ARGUMENT,
+        endsTransaction,
+        closes,
+        spanName);
+  }
+}
@@ -24,6 +24,9 @@ import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
 import java.sql.SQLFeatureNotSupportedException;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 import javax.annotation.Nullable;
 
@@ -34,8 +37,14 @@ import javax.annotation.Nullable;
  *
  * <p>Implementation details: This JDBC driver intercepts {@link #connect} for gathering latency
  * data about the actual method call. The returned {@link Connection} object is wrapped in a dynamic
- * proxy for further instrumentation by means of a custom {@link
- * java.lang.reflect.InvocationHandler}, {@link ConnectionInvocationHandler}.
+ * proxy by means of a custom {@link java.lang.reflect.InvocationHandler}, {@link
+ * ConnectionInvocationHandler}, for further instrumentation, or in a {@link TracingConnection} if
+ * dynamic proxies are disabled via {@link TraceOptions#dynamicProxies}.
+ *
+ * <p>The actual JDBC driver is looked up via {@link DriverManager} once per sub-protocol (e.g.
+ * "mysql" for "jdbc:stackdriver:mysql://...") and connected to directly thereafter, which spares
+ * {@code DriverManager} probing all registered drivers for every connection. Drivers deregistered
+ * from {@code DriverManager} afterwards keep being used by this driver.
  *
  * <p>To facilitate easier testing, this driver does not register itself with {@link
  * java.sql.DriverManager}.
@@ -52,6 +61,9 @@ class NonRegisteringDriver implements Driver {
 
   private final TraceService traceService;
 
+  /** The actual JDBC drivers by sub-protocol. */
+  private final ConcurrentMap<String, Driver> realDrivers = new ConcurrentHashMap<>();
+
   public NonRegisteringDriver() {
     this(TraceService.getInstance());
   }
@@ -85,14 +97,53 @@ class NonRegisteringDriver implements Driver {
 
     if (traceOptions.enabled()) {
       try (TraceService.Span span = traceService.open("JDBC.Driver#connect")) {
-        span.annotate(Label.DATABASE_URL, traceOptions.urlScrubber().apply(realUrl));
-        Connection conn = DriverManager.getConnection(realUrl, info);
-        return Proxies.newProxyInstance(
-            conn, new ConnectionInvocationHandler(conn, traceOptions, traceService));
+        if (span.isRecording()) {
+          span.annotate(Label.DATABASE_URL, traceOptions.urlScrubber().apply(realUrl));
+        }
+        return wrap(connectReal(realUrl, info), traceOptions, traceService, null);
       }
     } else {
-      return DriverManager.getConnection(realUrl, info);
+      return connectReal(realUrl, info);
+    }
+  }
+
+  /**
+   * Connects to the specified URL via the actual JDBC driver for its sub-protocol, or via {@link
+   * DriverManager} if that driver does not accept the URL after all.
+   */
+  private Connection connectReal(String realUrl, @Nullable Properties info) throws SQLException {
+    Connection conn = getRealDriver(realUrl).connect(realUrl, info);
+    return conn != null ? conn : DriverManager.getConnection(realUrl, info);
+  }
+
+  /** Returns the actual JDBC driver for the sub-protocol of the specified URL. */
+  private Driver getRealDriver(String realUrl) throws SQLException {
+    String subProtocol = getSubProtocol(realUrl);
+    Driver realDriver = realDrivers.get(subProtocol);
+    if (realDriver == null) {
+      realDrivers.putIfAbsent(subProtocol, DriverManager.getDriver(realUrl));
+      realDriver = realDrivers.get(subProtocol);
+    }
+    return realDriver;
+  }
+
+  /**
+   * Wraps the specified connection for recording latency data, either in a dynamic proxy or a
+   * {@link TracingConnection} as requested via {@link TraceOptions#dynamicProxies}.
+   *
+   * @param inFlight counter of connections in flight to decrement once the returned connection is
+   *     closed, if any
+   */
+  static Connection wrap(
+      Connection conn,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      @Nullable AtomicInteger inFlight) {
+    if (traceOptions.dynamicProxies()) {
+      return Proxies.newProxyInstance(
+          conn, new ConnectionInvocationHandler(conn, traceOptions, traceService, inFlight));
     }
+    return new TracingConnection(conn, traceOptions, traceService, inFlight);
   }
 
   @Override
@@ -110,7 +161,8 @@ class NonRegisteringDriver implements Driver {
       throws SQLException {
     checkNotNullUrl(url);
 
-    return DriverManager.getDriver(getRealUrl(url)).getPropertyInfo(getRealUrl(url), info);
+    String realUrl = getRealUrl(url);
+    return getRealDriver(realUrl).getPropertyInfo(realUrl, info);
   }
 
   @Override
@@ -129,6 +181,23 @@ class NonRegisteringDriver implements Driver {
     return "jdbc:" + url.substring(URL_PREFIX.length());
   }
 
+  /**
+   * Returns the sub-protocol of the specified "jdbc:" URL, e.g. "mysql" for "jdbc:mysql://...",
+   * that is everything up to the next ':', or any other character that is not part of a name.
+   */
+  private static String getSubProtocol(String realUrl) {
+    int start = "jdbc:".length();
+    int end = start;
+    while (end < realUrl.length() && isSubProtocolChar(realUrl.charAt(end))) {
+      end++;
+    }
+    return realUrl.substring(start, end);
+  }
+
+  private static boolean isSubProtocolChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.';
+  }
+
   private static void checkNotNullUrl(String url) throws SQLException {
     if (url == null) {
       throw new SQLException("url is null");
@@ -0,0 +1,140 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Counts the statements prepared on a connection, if enabled via {@link TraceOptions#prepares}, for
+ * spotting code which defeats client-side statement caches, e.g. by building SQL texts with inlined
+ * literals.
+ *
+ * <p>Each prepare is classified as repeated if the same SQL text was prepared before on the
+ * connection, which a statement cache of the JDBC driver or connection pool may serve, or else as
+ * a first prepare. Many distinct SQL texts of few distinct shapes (see {@link SqlFingerprint})
+ * hint at literals which should be bind parameters. Sampled prepares are traced as spans annotated
+ * with the counts of the connection so far, and all prepares are recorded in the {@link
+ * TraceOptions#statementStatistics}, if enabled. Prepares of SQL statements excluded via {@link
+ * TraceOptions#sqlExclusions} are ignored.
+ *
+ * <p>To bound memory, at most {@value #MAX_DISTINCT} distinct SQL texts and shapes are remembered
+ * per connection. Any further ones are counted as distinct every time they are prepared.
+ *
+ * <p>Like the connection itself, this class is not thread-safe.
+ */
+final class PrepareTracker {
+
+  static final String PREPARE_STATEMENT = "JDBC.Connection#prepareStatement";
+  static final String PREPARE_CALL = "JDBC.Connection#prepareCall";
+
+  /** Maximum number of distinct SQL texts and shapes remembered per connection. */
+  @VisibleForTesting static final int MAX_DISTINCT = 256;
+
+  private final TraceOptions traceOptions;
+
+  private final Set<String> sqls = new HashSet<>();
+
+  /** The fingerprint hashes of the SQL texts. */
+  private final Set<String> shapes = new HashSet<>();
+
+  private int prepares;
+
+  private int distinctSqls;
+
+  private int distinctShapes;
+
+  PrepareTracker(TraceOptions traceOptions) {
+    this.traceOptions = checkNotNull(traceOptions);
+  }
+
+  /** Returns a new tracker if enabled via {@link TraceOptions#prepares}, else null. */
+  @Nullable
+  static PrepareTracker create(TraceOptions traceOptions) {
+    return traceOptions.prepares() ? new PrepareTracker(traceOptions) : null;
+  }
+
+  /**
+   * Records preparing the specified SQL text, which started at the specified {@link
+   * System#nanoTime} and just finished, and traces it retroactively via the specified {@link
+   * TraceService}, if sampled.
+   *
+   * @param traceService the {@link TraceService} of the prepared statement, or null if not sampled
+   */
+  void record(
+      String spanName, String sql, long startNanoTime, @Nullable TraceService traceService) {
+    checkNotNull(spanName);
+    checkNotNull(sql);
+
+    if (traceOptions.sqlExclusions().excludes(sql)) {
+      return;
+    }
+    long endNanoTime = System.nanoTime();
+    prepares++;
+    boolean repeated = sqls.contains(sql);
+    SqlFingerprint fingerprint = null;
+    if (!repeated) {
+      distinctSqls++;
+      remember(sqls, sql);
+      fingerprint = traceOptions.sqlCache().get(sql).fingerprint();
+      if (!shapes.contains(fingerprint.hash())) {
+        distinctShapes++;
+        remember(shapes, fingerprint.hash());
+      }
+    }
+
+    if (traceOptions.statementStatistics().isPresent()) {
+      if (fingerprint == null) {
+        fingerprint = traceOptions.sqlCache().get(sql).fingerprint();
+      }
+      traceOptions
+          .statementStatistics()
+          .get()
+          .recordPrepare(fingerprint, endNanoTime - startNanoTime, repeated);
+    }
+
+    if (traceService != null
+        && endNanoTime - startNanoTime >= traceOptions.slowQueryThresholdNanos()) {
+      try (TraceService.Span span = traceService.open(spanName, startNanoTime, endNanoTime)) {
+        if (span.isRecording()) {
+          annotate(span, sql, repeated);
+        }
+      }
+    }
+  }
+
+  private static void remember(Set<String> set, String value) {
+    if (set.size() < MAX_DISTINCT) {
+      set.add(value);
+    }
+  }
+
+  private void annotate(TraceService.Span span, String sql, boolean repeated) {
+    SqlLabels sqlLabels = traceOptions.sqlCache().get(sql);
+    span.annotate(Label.SQL_TEXT, sqlLabels.sqlText());
+    if (traceOptions.sqlFingerprint()) {
+      span.annotate(Label.SQL_FINGERPRINT, Optional.of(sqlLabels.fingerprint().hash()));
+    }
+    span.annotate(Label.PREPARE_REPEATED, Optional.of(String.valueOf(repeated)));
+    span.annotate(Label.PREPARE_COUNT, Optional.of(String.valueOf(prepares)));
+    span.annotate(Label.PREPARE_DISTINCT_SQL, Optional.of(String.valueOf(distinctSqls)));
+    span.annotate(Label.PREPARE_DISTINCT_SHAPES, Optional.of(String.valueOf(distinctShapes)));
+  }
+}
@@ -17,19 +17,37 @@ package com.google.cloud.trace.jdbc;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.reflect.TypeToken;
+import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Proxy;
 
 /** Methods for creating dynamic proxies. */
 final class Proxies {
 
+  /**
+   * Caches the constructor of the dynamic proxy class per class of proxied objects, as walking the
+   * type hierarchy and resolving the proxy class is expensive compared to creating the proxy.
+   */
+  private static final ClassValue<Constructor<?>> PROXY_CONSTRUCTORS =
+      new ClassValue<Constructor<?>>() {
+        @Override
+        protected Constructor<?> computeValue(Class<?> type) {
+          Class<?> proxyClass = Proxy.getProxyClass(type.getClassLoader(), getInterfaces(type));
+          try {
+            return proxyClass.getConstructor(InvocationHandler.class);
+          } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("Cannot find constructor of " + proxyClass, e);
+          }
+        }
+      };
+
   private Proxies() {}
 
-  /** Returns all interfaces implemented by the given object. */
-  private static Class<?>[] getInterfaces(Object o) {
-    checkNotNull(o);
+  /** Returns all interfaces implemented by the given class. */
+  private static Class<?>[] getInterfaces(Class<?> type) {
+    checkNotNull(type);
 
-    return TypeToken.of(o.getClass()).getTypes().interfaces().rawTypes().toArray(new Class<?>[0]);
+    return TypeToken.of(type).getTypes().interfaces().rawTypes().toArray(new Class<?>[0]);
   }
 
   /**
@@ -43,6 +61,10 @@ final class Proxies {
     checkNotNull(o);
     checkNotNull(h);
 
-    return (T) Proxy.newProxyInstance(o.getClass().getClassLoader(), Proxies.getInterfaces(o), h);
+    try {
+      return (T) PROXY_CONSTRUCTORS.get(o.getClass()).newInstance(h);
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Cannot create dynamic proxy for " + o.getClass(), e);
+    }
   }
 }
@@ -0,0 +1,209 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Counts the executions of SQL statements per fingerprint within a trace, for spotting N+1 query
+ * patterns, i.e. the same shape of statement executed over and over within one unit of work, e.g.
+ * by an ORM lazily loading the associations of each entity of a list.
+ *
+ * <p>Once a fingerprint is executed {@link TraceOptions#repeatedStatementThreshold} times, a span
+ * named {@value #SPAN_NAME} is recorded next to the statement spans, i.e. as a child of the span
+ * of the current request, annotated with the SQL text and fingerprint of the statement and the
+ * threshold crossed. If enabled via {@link TraceOptions#logRepeatedStatements}, a warning is also
+ * logged, once per fingerprint.
+ *
+ * <p>The counts are kept per trace, see {@link TraceService#currentTrace}, and shared by all
+ * connections, so that executions are counted across the connections checked out of a pool within
+ * one request, while long-lived connections do not accumulate counts across requests. Statements
+ * executed outside of any trace are not counted. To bound memory, the traces are held weakly and
+ * at most {@value #MAX_TRACES} of them are counted at a time, evicting the least recently used
+ * ones, and at most {@value #MAX_FINGERPRINTS} distinct fingerprints are counted per trace, in a
+ * compact open-addressing table. Any further ones are not counted.
+ *
+ * <p>This class is thread-safe, as the requests of a trace may execute statements on several
+ * threads.
+ */
+final class RepeatedStatements {
+
+  static final String SPAN_NAME = "JDBC.RepeatedStatements";
+
+  /** Maximum number of distinct fingerprints counted per trace. */
+  @VisibleForTesting static final int MAX_FINGERPRINTS = 128;
+
+  /** Maximum number of traces counted at a time, i.e. of concurrent requests. */
+  @VisibleForTesting static final int MAX_TRACES = 1000;
+
+  /** Maximum number of distinct fingerprints logged per class loader. */
+  @VisibleForTesting static final int MAX_LOGGED = 1000;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final Logger logger = Logger.getLogger(RepeatedStatements.class.getName());
+
+  /** The fingerprint hashes logged so far. */
+  private static final Set<String> logged =
+      Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  /**
+   * The counts by trace, shared by all connections, weakly keyed by identity so as not to outlive
+   * the requests.
+   */
+  private static final ConcurrentMap<Object, Counts> countsByTrace =
+      CacheBuilder.newBuilder().weakKeys().maximumSize(MAX_TRACES).<Object, Counts>build().asMap();
+
+  private final TraceOptions traceOptions;
+
+  private final TraceService traceService;
+
+  private final int threshold;
+
+  @VisibleForTesting
+  RepeatedStatements(TraceOptions traceOptions, TraceService traceService) {
+    this.traceOptions = checkNotNull(traceOptions);
+    this.traceService = checkNotNull(traceService);
+    this.threshold = traceOptions.repeatedStatementThreshold();
+  }
+
+  /**
+   * Returns a new counter if enabled via {@link TraceOptions#repeatedStatementThreshold}, else
+   * null.
+   */
+  @Nullable
+  static RepeatedStatements create(TraceOptions traceOptions, TraceService traceService) {
+    return traceOptions.repeatedStatementThreshold() > 0
+        ? new RepeatedStatements(traceOptions, traceService)
+        : null;
+  }
+
+  /**
+   * Counts an execution of the specified SQL text within the current trace, if any, and reports
+   * crossing the threshold, if so.
+   */
+  void record(String sql) {
+    checkNotNull(sql);
+
+    Object trace = traceService.currentTrace();
+    if (trace == null) {
+      return;
+    }
+    Counts counts = countsByTrace.get(trace);
+    if (counts == null) {
+      Counts newCounts = new Counts();
+      counts = countsByTrace.putIfAbsent(trace, newCounts);
+      if (counts == null) {
+        counts = newCounts;
+      }
+    }
+    SqlLabels sqlLabels = traceOptions.sqlCache().get(sql);
+    if (counts.increment(sqlLabels.fingerprint().hash()) == threshold) {
+      report(sqlLabels);
+    }
+  }
+
+  private void report(SqlLabels sqlLabels) {
+    SqlFingerprint fingerprint = sqlLabels.fingerprint();
+    try (TraceService.Span span = traceService.open(SPAN_NAME)) {
+      if (span.isRecording()) {
+        span.annotate(Label.SQL_TEXT, sqlLabels.sqlText());
+        span.annotate(Label.SQL_FINGERPRINT, Optional.of(fingerprint.hash()));
+        span.annotate(Label.SQL_OPERATION, fingerprint.operation());
+        span.annotate(Label.SQL_TABLE, fingerprint.table());
+        span.annotate(Label.REPEATED_STATEMENTS, Optional.of(String.valueOf(threshold)));
+      }
+    }
+
+    if (traceOptions.logRepeatedStatements()
+        && logged.size() < MAX_LOGGED
+        && logged.add(fingerprint.hash())) {
+      logger.log(
+          Level.WARNING,
+          "SQL statement with fingerprint {0} executed {1} times in one request, "
+              + "consider loading the data in bulk: {2}",
+          new Object[] {fingerprint.hash(), threshold, sqlLabels.sqlText().or("")});
+    }
+  }
+
+  /** Execution counts by fingerprint hash of one trace, in a hash table with linear probing. */
+  private static final class Counts {
+
+    /** The fingerprint hashes counted. */
+    private String[] hashes = new String[INITIAL_CAPACITY];
+
+    /** The execution counts of the {@link #hashes} at the same indices. */
+    private int[] counts = new int[INITIAL_CAPACITY];
+
+    private int size;
+
+    /**
+     * Increments the count of the specified fingerprint hash and returns the new count, or 0 if
+     * there are too many distinct fingerprints to count it.
+     */
+    synchronized int increment(String hash) {
+      int mask = hashes.length - 1;
+      for (int i = hash.hashCode() & mask; ; i = (i + 1) & mask) {
+        if (hashes[i] == null) {
+          if (size == MAX_FINGERPRINTS) {
+            return 0;
+          }
+          // Keep the load factor at most 1/2, up to the maximum size.
+          if (2 * (size + 1) > hashes.length) {
+            grow();
+            return increment(hash);
+          }
+          hashes[i] = hash;
+          counts[i] = 1;
+          size++;
+          return 1;
+        }
+        if (hashes[i].equals(hash)) {
+          // Saturate instead of overflowing back to the threshold.
+          return counts[i] < Integer.MAX_VALUE ? ++counts[i] : counts[i];
+        }
+      }
+    }
+
+    private void grow() {
+      String[] oldHashes = hashes;
+      int[] oldCounts = counts;
+      hashes = new String[2 * oldHashes.length];
+      counts = new int[2 * oldHashes.length];
+      int mask = hashes.length - 1;
+      for (int j = 0; j < oldHashes.length; j++) {
+        if (oldHashes[j] != null) {
+          int i = oldHashes[j].hashCode() & mask;
+          while (hashes[i] != null) {
+            i = (i + 1) & mask;
+          }
+          hashes[i] = oldHashes[j];
+          counts[i] = oldCounts[j];
+        }
+      }
+    }
+  }
+}
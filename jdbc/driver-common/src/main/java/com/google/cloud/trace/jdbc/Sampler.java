@@ -0,0 +1,116 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.auto.value.AutoValue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which connections or statements are traced, based on a sampling probability and an
+ * upper limit of positive sampling decisions per second. Decisions are made when a connection or
+ * statement is created, so the limit applies to {@link java.sql.Statement} objects rather than to
+ * their executions.
+ *
+ * <p>The rate limit is a token bucket holding up to one second worth of tokens, implemented as a
+ * lock-free generic cell rate algorithm: each positive sampling decision advances a theoretical
+ * arrival time by the interval between two decisions, and is rejected if the theoretical arrival
+ * time would be more than the bucket size ahead of the current time.
+ */
+final class Sampler {
+
+  /** Sampler tracing all connections and statements. */
+  static final Sampler ALWAYS = new Sampler(1.0, 0.0);
+
+  private static final ConcurrentMap<Key, Sampler> SHARED_SAMPLERS = new ConcurrentHashMap<>();
+
+  private static final long SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final double probability;
+
+  /** Interval between two positive sampling decisions, or 0 if not rate-limited. */
+  private final long intervalNanos;
+
+  /** Size of the token bucket in nanoseconds, i.e. how far ahead arrivals may be. */
+  private final long bucketNanos;
+
+  /** {@link System#nanoTime} of the theoretical arrival of the next positive decision. */
+  private final AtomicLong arrivalNanos = new AtomicLong(System.nanoTime());
+
+  private Sampler(double probability, double maxPerSecond) {
+    checkArgument(
+        probability >= 0.0 && probability <= 1.0, "probability out of range: %s", probability);
+    checkArgument(maxPerSecond >= 0.0, "maxPerSecond must not be negative: %s", maxPerSecond);
+
+    this.probability = probability;
+    this.intervalNanos = maxPerSecond > 0.0 ? Math.max(1, (long) (SECOND_NANOS / maxPerSecond)) : 0;
+    this.bucketNanos = Math.max(SECOND_NANOS, intervalNanos);
+  }
+
+  /**
+   * Returns the sampler with the specified probability and rate limit, shared by all connections
+   * so that the rate limit applies to the process as a whole.
+   *
+   * @param probability sampling probability between 0 and 1
+   * @param maxPerSecond maximum number of positive decisions per second, or 0 for no limit
+   */
+  static Sampler shared(double probability, double maxPerSecond) {
+    if (probability == 1.0 && maxPerSecond == 0.0) {
+      return ALWAYS;
+    }
+
+    Key key = new AutoValue_Sampler_Key(probability, maxPerSecond);
+    Sampler sampler = SHARED_SAMPLERS.get(key);
+    if (sampler == null) {
+      SHARED_SAMPLERS.putIfAbsent(key, new Sampler(probability, maxPerSecond));
+      sampler = SHARED_SAMPLERS.get(key);
+    }
+    return sampler;
+  }
+
+  /** Returns whether the next connection or statement is traced. */
+  boolean sample() {
+    if (probability < 1.0 && ThreadLocalRandom.current().nextDouble() >= probability) {
+      return false;
+    }
+    if (intervalNanos == 0) {
+      return true;
+    }
+
+    long nowNanos = System.nanoTime();
+    while (true) {
+      long arrival = arrivalNanos.get();
+      long nextArrival = (arrival - nowNanos < 0 ? nowNanos : arrival) + intervalNanos;
+      if (nextArrival - nowNanos > bucketNanos) {
+        return false;
+      }
+      if (arrivalNanos.compareAndSet(arrival, nextArrival)) {
+        return true;
+      }
+    }
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract double probability();
+
+    abstract double maxPerSecond();
+  }
+}
@@ -18,12 +18,8 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.collect.Collections2;
 import com.google.common.collect.ImmutableList;
-import com.google.common.primitives.UnsignedInts;
-import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
+import javax.annotation.Nullable;
 
 /** Collection of methods for scrubbing sensitive data before tracing. */
 final class Scrubbers {
@@ -31,6 +27,18 @@ final class Scrubbers {
   private static final ImmutableList<String> SQL_STATEMENT_KEYWORDS =
       ImmutableList.of("insert", "update", "delete", "select", "call");
 
+  /** Scrubbed SQL texts for each of {@link #SQL_STATEMENT_KEYWORDS}, shared by all calls. */
+  private static final ImmutableList<Optional<String>> SCRUBBED_SQL_STATEMENTS =
+      ImmutableList.of(
+          Optional.of("insert <...>"),
+          Optional.of("update <...>"),
+          Optional.of("delete <...>"),
+          Optional.of("select <...>"),
+          Optional.of("call <...>"));
+
+  /** Scrubbed SQL text of unknown type. */
+  private static final Optional<String> SCRUBBED_SQL = Optional.of("<...>");
+
   interface Scrubber extends Function<String, Optional<String>> {}
 
   /**
@@ -66,8 +74,9 @@ final class Scrubbers {
    * Scrubs potentially sensitive data from a given SQL text.
    *
    * <p>Implementation note: As a safe default, only the type of the SQL statement ("insert",
-   * "update", "delete", "select", "call") is returned, if it can be determined. The currently
-   * implemented algorithm is pretty dumb and errs on the safe side.
+   * "update", "delete", "select", "call") is returned, if it can be determined. The SQL text is
+   * scanned once, skipping comments, string literals and quoted identifiers, and the first of these
+   * keywords appearing as a whole word (case-insensitively) determines the type of the statement.
    */
   static final Scrubber SQL_SCRUBBER =
       new Scrubber() {
@@ -75,37 +84,56 @@ final class Scrubbers {
         public Optional<String> apply(String sql) {
           checkNotNull(sql);
 
-          final String lowerCasedSql = sql.toLowerCase();
-
-          Collection<Pair<String, Integer>> keywordPositions =
-              Collections2.transform(
-                  SQL_STATEMENT_KEYWORDS,
-                  new Function<String, Pair<String, Integer>>() {
-                    @Override
-                    public Pair<String, Integer> apply(String input) {
-                      checkNotNull(input);
-                      return new Pair(input, lowerCasedSql.indexOf(input));
-                    }
-                  });
-
-          Pair<String, Integer> firstKeyword =
-              Collections.min(
-                  keywordPositions,
-                  new Comparator<Pair<String, Integer>>() {
-                    @Override
-                    public int compare(Pair<String, Integer> o1, Pair<String, Integer> o2) {
-                      return UnsignedInts.compare(o1.second, o2.second);
-                    }
-                  });
-
-          if (firstKeyword.second >= 0) {
-            return Optional.of(firstKeyword.first + " <...>");
-          } else {
-            return Optional.of("<...>");
+          int length = sql.length();
+          int i = 0;
+          while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+              // Skip the line comment.
+              int end = sql.indexOf('\n', i + 2);
+              i = end < 0 ? length : end + 1;
+            } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+              // Skip the block comment.
+              int end = sql.indexOf("*/", i + 2);
+              i = end < 0 ? length : end + 2;
+            } else if (c == '\'' || c == '"' || c == '`') {
+              // Skip the string literal or quoted identifier. Escaped quotes ('') are skipped as
+              // two adjacent literals.
+              int end = sql.indexOf(c, i + 1);
+              i = end < 0 ? length : end + 1;
+            } else if (isWordPart(c)) {
+              int start = i;
+              do {
+                i++;
+              } while (i < length && isWordPart(sql.charAt(i)));
+              Optional<String> scrubbed = scrubKeyword(sql, start, i - start);
+              if (scrubbed != null) {
+                return scrubbed;
+              }
+            } else {
+              i++;
+            }
           }
+          return SCRUBBED_SQL;
         }
       };
 
+  /** Returns the scrubbed SQL text for the given word if it is a statement keyword, else null. */
+  @Nullable
+  private static Optional<String> scrubKeyword(String sql, int start, int length) {
+    for (int k = 0; k < SQL_STATEMENT_KEYWORDS.size(); k++) {
+      String keyword = SQL_STATEMENT_KEYWORDS.get(k);
+      if (keyword.length() == length && sql.regionMatches(true, start, keyword, 0, length)) {
+        return SCRUBBED_SQL_STATEMENTS.get(k);
+      }
+    }
+    return null;
+  }
+
+  private static boolean isWordPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
   /** Keeps everything, scrubs nothing. */
   static final Scrubber KEEP =
       new Scrubber() {
@@ -125,15 +153,4 @@ final class Scrubbers {
           return Optional.absent();
         }
       };
-
-  private static class Pair<A, B> {
-
-    public final A first;
-    public final B second;
-
-    public Pair(A first, B second) {
-      this.first = first;
-      this.second = second;
-    }
-  }
 }
@@ -0,0 +1,122 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Utf8;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Metadata of the current batch of a statement, accumulated on {@code addBatch} and attached to the
+ * span executing the batch. Like the statement itself, {@link SqlBatch} is not thread-safe.
+ *
+ * <p>Adding an SQL text to the batch only compares it with the first one. The batched SQL texts
+ * are fingerprinted only when needed, i.e. if they differ and a representative SQL text is asked
+ * for, or if the span executing the batch is recorded, and bypass the {@link SqlCache}, so that
+ * bulk loads with inlined literals do not evict frequently executed SQL texts from it.
+ */
+final class SqlBatch {
+
+  /** Number of statements (or sets of parameters) in the batch. */
+  private int size;
+
+  /** Total length of the SQL texts in the batch, in UTF-8 bytes. */
+  private long sqlBytes;
+
+  /** The SQL text first added to the batch, if any. */
+  @Nullable private String firstSql;
+
+  /** Distinct SQL texts other than {@link #firstSql}, only allocated for a second distinct one. */
+  @Nullable private Set<String> otherSqls;
+
+  /** Distinct fingerprint hashes of the SQL texts, once computed. */
+  @Nullable private Set<String> fingerprints;
+
+  /** Records the specified SQL text added to the batch of a statement. */
+  void add(String sql) {
+    checkNotNull(sql);
+
+    if (firstSql == null) {
+      firstSql = sql;
+    } else if (!sql.equals(firstSql)) {
+      if (otherSqls == null) {
+        otherSqls = new HashSet<>();
+      }
+      otherSqls.add(sql);
+    }
+    fingerprints = null;
+    size++;
+    sqlBytes += Utf8.encodedLength(sql);
+  }
+
+  /** Records a set of parameters added to the batch of a prepared statement. */
+  void add() {
+    size++;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /** Resets the batch to empty. */
+  void clear() {
+    size = 0;
+    sqlBytes = 0;
+    firstSql = null;
+    otherSqls = null;
+    fingerprints = null;
+  }
+
+  /**
+   * Returns an SQL text representative of all SQL texts in the batch, i.e. the first one, if all of
+   * them share the same fingerprint.
+   */
+  @Nullable
+  String sql() {
+    return otherSqls == null || fingerprints().size() == 1 ? firstSql : null;
+  }
+
+  /** Annotates the specified span with the metadata of the batch, if recorded. */
+  void annotate(TraceService.Span span) {
+    if (!span.isRecording()) {
+      return;
+    }
+    span.annotate(Label.BATCH_SIZE, Optional.of(String.valueOf(size)));
+    span.annotate(
+        Label.BATCH_FINGERPRINTS,
+        Optional.of(String.valueOf(firstSql != null ? fingerprints().size() : size > 0 ? 1 : 0)));
+    if (sqlBytes > 0) {
+      span.annotate(Label.BATCH_SQL_BYTES, Optional.of(String.valueOf(sqlBytes)));
+    }
+  }
+
+  /** Returns the distinct fingerprint hashes of the SQL texts in the batch, computed once. */
+  private Set<String> fingerprints() {
+    if (fingerprints == null) {
+      fingerprints = new HashSet<>();
+      fingerprints.add(SqlFingerprint.of(firstSql).hash());
+      if (otherSqls != null) {
+        for (String sql : otherSqls) {
+          fingerprints.add(SqlFingerprint.of(sql).hash());
+        }
+      }
+    }
+    return fingerprints;
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.math.IntMath;
+import java.math.RoundingMode;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Bounded, concurrent cache of the {@link SqlLabels} derived from SQL texts, so that SQL texts
+ * which are executed over and over again are scrubbed and fingerprinted only once.
+ *
+ * <p>Caches are shared by all connections using the same SQL scrubber and cache size (see {@link
+ * #shared}). The cache is bounded by the length of the SQL texts it holds: each SQL text counts
+ * as one per started {@value #CHARS_PER_WEIGHT} characters against the maximum size, so that a
+ * few long, generated SQL texts cannot pin much more memory than the configured number of typical
+ * ones. Entries are evicted in approximately least-recently-used order once the maximum size is
+ * reached. Hit and miss counts are recorded for sizing the cache, and exported via JMX as {@link
+ * SqlCacheMXBean}s if the platform MBean server is available.
+ */
+final class SqlCache implements SqlCacheMXBean {
+
+  private static final Logger logger = Logger.getLogger(SqlCache.class.getName());
+
+  /** Number of characters of an SQL text which count as one against the maximum size. */
+  static final int CHARS_PER_WEIGHT = 256;
+
+  private static final ConcurrentMap<Key, SqlCache> SHARED_CACHES = new ConcurrentHashMap<>();
+
+  /** Source of the IDs of the shared caches in their JMX object names. */
+  private static final AtomicInteger SHARED_CACHE_IDS = new AtomicInteger();
+
+  private static final Weigher<String, SqlLabels> SQL_LENGTH_WEIGHER =
+      new Weigher<String, SqlLabels>() {
+        @Override
+        public int weigh(String sql, SqlLabels sqlLabels) {
+          return Math.max(1, IntMath.divide(sql.length(), CHARS_PER_WEIGHT, RoundingMode.CEILING));
+        }
+      };
+
+  private final Scrubbers.Scrubber sqlScrubber;
+
+  private final int maximumSize;
+
+  private final Cache<String, SqlLabels> cache;
+
+  private SqlCache(Scrubbers.Scrubber sqlScrubber, int maximumSize) {
+    checkArgument(maximumSize >= 0, "maximumSize must not be negative: %s", maximumSize);
+
+    this.sqlScrubber = checkNotNull(sqlScrubber);
+    this.maximumSize = maximumSize;
+    this.cache =
+        CacheBuilder.newBuilder()
+            .maximumWeight(maximumSize)
+            .weigher(SQL_LENGTH_WEIGHER)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Returns the cache for the specified SQL scrubber holding at most the specified number of SQL
+   * texts of up to {@value #CHARS_PER_WEIGHT} characters, shared by all connections. A maximum size
+   * of zero disables caching.
+   */
+  static SqlCache shared(Scrubbers.Scrubber sqlScrubber, int maximumSize) {
+    Key key = new AutoValue_SqlCache_Key(sqlScrubber, maximumSize);
+    SqlCache sqlCache = SHARED_CACHES.get(key);
+    if (sqlCache == null) {
+      SqlCache newCache = new SqlCache(sqlScrubber, maximumSize);
+      sqlCache = SHARED_CACHES.putIfAbsent(key, newCache);
+      if (sqlCache == null) {
+        sqlCache = newCache;
+        register(newCache, StatementStatistics.getPlatformMBeanServer());
+      }
+    }
+    return sqlCache;
+  }
+
+  @VisibleForTesting
+  static void register(SqlCache sqlCache, @Nullable MBeanServer mBeanServer) {
+    if (mBeanServer == null) {
+      return;
+    }
+    try {
+      mBeanServer.registerMBean(
+          sqlCache,
+          new ObjectName(
+              "com.google.cloud.trace.jdbc:type=SqlCache,id="
+                  + SHARED_CACHE_IDS.incrementAndGet()));
+    } catch (JMException | RuntimeException e) {
+      // E.g. not permitted.
+      logger.log(Level.FINE, "Could not register MBean for SQL cache", e);
+    }
+  }
+
+  /**
+   * Returns the labels derived from the specified SQL text. The SQL text is scrubbed right away,
+   * but only fingerprinted when the fingerprint is first needed.
+   */
+  SqlLabels get(String sql) {
+    checkNotNull(sql);
+
+    SqlLabels sqlLabels = cache.getIfPresent(sql);
+    if (sqlLabels == null) {
+      sqlLabels = SqlLabels.of(sql, sqlScrubber.apply(sql));
+      cache.put(sql, sqlLabels);
+    }
+    return sqlLabels;
+  }
+
+  @Override
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  @Override
+  public long getSize() {
+    return cache.size();
+  }
+
+  @Override
+  public long getHitCount() {
+    return cache.stats().hitCount();
+  }
+
+  @Override
+  public long getMissCount() {
+    return cache.stats().missCount();
+  }
+
+  @Override
+  public double getHitRate() {
+    return cache.stats().hitRate();
+  }
+
+  @Override
+  public long getEvictionCount() {
+    return cache.stats().evictionCount();
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract Scrubbers.Scrubber sqlScrubber();
+
+    abstract int maximumSize();
+  }
+}
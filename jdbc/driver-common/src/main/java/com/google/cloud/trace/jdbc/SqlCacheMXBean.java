@@ -0,0 +1,45 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+/**
+ * Management interface of a cache of scrubbed SQL texts, registered as {@code
+ * com.google.cloud.trace.jdbc:type=SqlCache,id=...} in the platform MBean server, for sizing the
+ * cache via {@code stackdriver.trace.sql.cacheSize}. A low hit rate along with evictions suggests
+ * that the cache is too small.
+ */
+public interface SqlCacheMXBean {
+
+  /**
+   * Returns the maximum size of the cache, where SQL texts count as one per started {@value
+   * SqlCache#CHARS_PER_WEIGHT} characters.
+   */
+  long getMaximumSize();
+
+  /** Returns the approximate number of SQL texts in the cache. */
+  long getSize();
+
+  /** Returns the number of lookups of SQL texts which were cached. */
+  long getHitCount();
+
+  /** Returns the number of lookups of SQL texts which were not cached. */
+  long getMissCount();
+
+  /** Returns the ratio of lookups which were cached, or 1 if there were none. */
+  double getHitRate();
+
+  /** Returns the number of SQL texts evicted to make room for others. */
+  long getEvictionCount();
+}
@@ -0,0 +1,81 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Helpers for prefixing SQL texts with a comment carrying the trace context of the span of the
+ * call executing them, so that entries of database logs, e.g. slow query logs, can be correlated
+ * with spans. The comment contains e.g. {@code
+ * traceparent='00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01'}, in the format of the W3C
+ * Trace Context {@code traceparent} header: version, trace ID, span ID and sampled flag.
+ *
+ * <p>Only the SQL texts of plain statements are commented, as the SQL texts of prepared
+ * statements are fixed when preparing them, and commenting them would defeat statement caches.
+ */
+final class SqlComments {
+
+  private static final String PREFIX = "/*traceparent='";
+  private static final String SUFFIX = "'*/ ";
+
+  /** Length of a {@code traceparent} value. */
+  private static final int TRACE_PARENT_LENGTH = 55;
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private SqlComments() {}
+
+  /**
+   * Returns the {@code traceparent} value of the specified 128-bit trace ID, given as its high and
+   * low 64 bits, the specified span ID and whether the trace is sampled.
+   */
+  static String traceParent(long traceIdHigh, long traceIdLow, long spanId, boolean sampled) {
+    char[] chars = new char[TRACE_PARENT_LENGTH];
+    chars[0] = '0';
+    chars[1] = '0';
+    chars[2] = '-';
+    writeHex(traceIdHigh, chars, 3);
+    writeHex(traceIdLow, chars, 19);
+    chars[35] = '-';
+    writeHex(spanId, chars, 36);
+    chars[52] = '-';
+    chars[53] = '0';
+    chars[54] = sampled ? '1' : '0';
+    return new String(chars);
+  }
+
+  /** Writes the 16 hex digits of the specified value into the specified array. */
+  private static void writeHex(long value, char[] chars, int offset) {
+    for (int i = 15; i >= 0; i--) {
+      chars[offset + i] = HEX_DIGITS[(int) value & 0xf];
+      value >>>= 4;
+    }
+  }
+
+  /** Returns the specified SQL text prefixed with a comment of the specified trace context. */
+  static String prefix(String traceParent, String sql) {
+    checkNotNull(traceParent);
+    checkNotNull(sql);
+
+    int length = PREFIX.length() + traceParent.length() + SUFFIX.length() + sql.length();
+    return new StringBuilder(length)
+        .append(PREFIX)
+        .append(traceParent)
+        .append(SUFFIX)
+        .append(sql)
+        .toString();
+  }
+}
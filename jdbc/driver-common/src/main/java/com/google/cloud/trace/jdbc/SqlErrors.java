@@ -0,0 +1,130 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLInvalidAuthorizationSpecException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLRecoverableException;
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransactionRollbackException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.SQLTransientException;
+
+/**
+ * Classifies the exceptions of failed calls to the JDBC driver and annotates their spans with the
+ * exception class, the SQLState, the vendor error code and a coarse category, see {@link
+ * #category}.
+ *
+ * <p>The category is derived from the subclass of {@link SQLException} if the JDBC driver throws
+ * specific ones, else from the class of the SQLState (its first two characters) as defined by SQL
+ * and X/Open, so that e.g. deadlocks ("rollback") can be told from constraint violations
+ * ("constraint") across JDBC drivers.
+ */
+final class SqlErrors {
+
+  static final String TIMEOUT = "timeout";
+  static final String ROLLBACK = "rollback";
+  static final String CONNECTION = "connection";
+  static final String CONSTRAINT = "constraint";
+  static final String SYNTAX = "syntax";
+  static final String DATA = "data";
+  static final String AUTHORIZATION = "authorization";
+  static final String UNSUPPORTED = "unsupported";
+  static final String TRANSIENT = "transient";
+  static final String OTHER = "other";
+
+  private SqlErrors() {}
+
+  /**
+   * Annotates the specified span with the classification of the specified exception, and with its
+   * message if specified. Messages are only annotated if SQL texts are traced in full, as they may
+   * contain values of the SQL statement.
+   */
+  static void annotate(TraceService.Span span, Throwable t, boolean message) {
+    checkNotNull(span);
+    checkNotNull(t);
+
+    span.annotate(Label.ERROR_NAME, Optional.of(t.getClass().getName()));
+    span.annotate(Label.ERROR_CATEGORY, Optional.of(category(t)));
+    if (t instanceof SQLException) {
+      SQLException e = (SQLException) t;
+      span.annotate(Label.SQL_STATE, Optional.fromNullable(e.getSQLState()));
+      if (e.getErrorCode() != 0) {
+        span.annotate(Label.ERROR_CODE, Optional.of(String.valueOf(e.getErrorCode())));
+      }
+    }
+    if (message) {
+      span.annotate(Label.ERROR_MESSAGE, Optional.fromNullable(t.getMessage()));
+    }
+  }
+
+  /** Returns the category of the specified exception, e.g. {@value #ROLLBACK}. */
+  static String category(Throwable t) {
+    checkNotNull(t);
+
+    if (!(t instanceof SQLException)) {
+      return OTHER;
+    }
+    if (t instanceof SQLTimeoutException) {
+      return TIMEOUT;
+    } else if (t instanceof SQLTransactionRollbackException) {
+      return ROLLBACK;
+    } else if (t instanceof SQLTransientConnectionException
+        || t instanceof SQLNonTransientConnectionException
+        || t instanceof SQLRecoverableException) {
+      return CONNECTION;
+    } else if (t instanceof SQLIntegrityConstraintViolationException) {
+      return CONSTRAINT;
+    } else if (t instanceof SQLSyntaxErrorException) {
+      return SYNTAX;
+    } else if (t instanceof SQLDataException) {
+      return DATA;
+    } else if (t instanceof SQLInvalidAuthorizationSpecException) {
+      return AUTHORIZATION;
+    } else if (t instanceof SQLFeatureNotSupportedException) {
+      return UNSUPPORTED;
+    }
+
+    String sqlState = ((SQLException) t).getSQLState();
+    String sqlStateClass =
+        sqlState != null && sqlState.length() >= 2 ? sqlState.substring(0, 2) : "";
+    switch (sqlStateClass) {
+      case "08":
+        return CONNECTION;
+      case "40":
+        return ROLLBACK;
+      case "23":
+        return CONSTRAINT;
+      case "42":
+        return SYNTAX;
+      case "22":
+        return DATA;
+      case "28":
+        return AUTHORIZATION;
+      case "0A":
+        return UNSUPPORTED;
+      default:
+        return t instanceof SQLTransientException ? TRANSIENT : OTHER;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.annotation.Nullable;
+
+/**
+ * Set of SQL statements which are excluded from tracing, e.g. the validation and keepalive queries
+ * of connection pools, matched by exact SQL text or by fingerprint hash (see {@link
+ * SqlFingerprint}).
+ *
+ * <p>Exact SQL texts are matched by a hash set lookup. Fingerprints are only computed for SQL texts
+ * if any fingerprints are excluded, once per distinct SQL text, and the decision is cached, so
+ * matching is a hash lookup as well. SQL texts are never scrubbed for matching. Like {@link
+ * SqlCache}, instances are shared by all connections using the same exclusions (see {@link
+ * #shared}).
+ */
+final class SqlExclusions {
+
+  /** Maximum number of SQL texts for which the decision is cached. */
+  private static final int MAX_DECISIONS = TraceOptions.DEFAULT_SQL_CACHE_SIZE;
+
+  /** Excludes no SQL statements. */
+  static final SqlExclusions NONE =
+      new SqlExclusions(ImmutableSet.<String>of(), ImmutableSet.<String>of());
+
+  private static final ConcurrentMap<Key, SqlExclusions> SHARED_EXCLUSIONS =
+      new ConcurrentHashMap<>();
+
+  private final ImmutableSet<String> sqlTexts;
+
+  private final ImmutableSet<String> fingerprints;
+
+  /** Whether SQL texts are excluded by their fingerprint, or null if no fingerprints are. */
+  @Nullable private final Cache<String, Boolean> decisions;
+
+  private SqlExclusions(ImmutableSet<String> sqlTexts, ImmutableSet<String> fingerprints) {
+    this.sqlTexts = checkNotNull(sqlTexts);
+    this.fingerprints = checkNotNull(fingerprints);
+    this.decisions =
+        fingerprints.isEmpty()
+            ? null
+            : CacheBuilder.newBuilder().maximumSize(MAX_DECISIONS).<String, Boolean>build();
+  }
+
+  /**
+   * Returns the exclusions of the specified exact SQL texts and fingerprint hashes, shared by all
+   * connections.
+   */
+  static SqlExclusions shared(ImmutableSet<String> sqlTexts, ImmutableSet<String> fingerprints) {
+    if (sqlTexts.isEmpty() && fingerprints.isEmpty()) {
+      return NONE;
+    }
+    Key key = new AutoValue_SqlExclusions_Key(sqlTexts, fingerprints);
+    SqlExclusions exclusions = SHARED_EXCLUSIONS.get(key);
+    if (exclusions == null) {
+      SHARED_EXCLUSIONS.putIfAbsent(key, new SqlExclusions(sqlTexts, fingerprints));
+      exclusions = SHARED_EXCLUSIONS.get(key);
+    }
+    return exclusions;
+  }
+
+  /** Returns whether the specified SQL text, if any, is excluded from tracing. */
+  boolean excludes(@Nullable String sql) {
+    if (sql == null || this == NONE) {
+      return false;
+    }
+    if (sqlTexts.contains(sql)) {
+      return true;
+    }
+    if (decisions == null) {
+      return false;
+    }
+
+    Boolean excluded = decisions.getIfPresent(sql);
+    if (excluded == null) {
+      excluded = fingerprints.contains(SqlFingerprint.of(sql).hash());
+      decisions.put(sql, excluded);
+    }
+    return excluded;
+  }
+
+  @AutoValue
+  abstract static class Key {
+    abstract ImmutableSet<String> sqlTexts();
+
+    abstract ImmutableSet<String> fingerprints();
+  }
+}
@@ -0,0 +1,425 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Ascii;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fingerprint of an SQL text, identifying the shape of an SQL statement independent of the values
+ * it operates on, so that latency data can be aggregated per query shape.
+ *
+ * <p>The SQL text is normalized in a single pass:
+ *
+ * <ul>
+ *   <li>comments are dropped and tokens are separated by single spaces,
+ *   <li>unquoted words are lower-cased,
+ *   <li>string literals, numeric literals, double-quoted strings and parameter placeholders ({@code
+ *       ?}, {@code $1}, {@code :name}) are replaced with {@code ?},
+ *   <li>lists of placeholders following {@code IN} are collapsed into a single {@code (?)}.
+ * </ul>
+ *
+ * The normalized SQL text thus contains no literal values. The fingerprint hash is a stable 64-bit
+ * hash of the normalized SQL text, which is the same across processes and driver restarts.
+ */
+@AutoValue
+abstract class SqlFingerprint {
+
+  /** Keywords introducing the primary table, see {@link #TABLE_KEYWORD_OPERATIONS}. */
+  private static final ImmutableSet<String> TABLE_KEYWORDS = ImmutableSet.of("from", "into");
+
+  /** Operations for which the primary table follows the {@code FROM} or {@code INTO} keyword. */
+  private static final ImmutableSet<String> TABLE_KEYWORD_OPERATIONS =
+      ImmutableSet.of("SELECT", "DELETE", "INSERT", "REPLACE", "MERGE");
+
+  /** Operations for which the primary table (or procedure) follows the operation keyword. */
+  private static final ImmutableSet<String> DIRECT_TABLE_OPERATIONS =
+      ImmutableSet.of("UPDATE", "CALL", "EXEC", "EXECUTE", "DELETE");
+
+  /** Modifiers which may precede the primary table and are skipped. */
+  private static final ImmutableSet<String> TABLE_MODIFIERS =
+      ImmutableSet.of("from", "into", "only", "ignore", "low_priority", "quick");
+
+  /** Operations which may be the main statement following a {@code WITH} clause. */
+  private static final ImmutableSet<String> WITH_OPERATIONS =
+      ImmutableSet.of("SELECT", "INSERT", "UPDATE", "DELETE", "MERGE");
+
+  /** The normalized SQL text, see {@link SqlFingerprint}. */
+  abstract String normalizedSql();
+
+  /** The fingerprint hash of the normalized SQL text, as 16 hexadecimal digits. */
+  abstract String hash();
+
+  /** The upper-case operation of the statement, e.g. {@code SELECT}, if any. */
+  abstract Optional<String> operation();
+
+  /** The primary table of the statement as written in the SQL text, e.g. {@code users}, if any. */
+  abstract Optional<String> table();
+
+  /** The span name describing the statement, e.g. {@code SELECT users}, if any. */
+  abstract Optional<String> spanName();
+
+  /** Returns the fingerprint of the specified SQL text. */
+  static SqlFingerprint of(String sql) {
+    checkNotNull(sql);
+
+    return new Lexer(sql).fingerprint();
+  }
+
+  private static SqlFingerprint create(
+      String normalizedSql, Optional<String> operation, Optional<String> table) {
+    String hash =
+        Hashing.farmHashFingerprint64()
+            .hashString(normalizedSql, StandardCharsets.UTF_8)
+            .toString();
+    Optional<String> spanName =
+        operation.isPresent() && table.isPresent()
+            ? Optional.of(operation.get() + " " + table.get())
+            : operation;
+    return new AutoValue_SqlFingerprint(normalizedSql, hash, operation, table, spanName);
+  }
+
+  /** Streaming lexer normalizing an SQL text, see {@link SqlFingerprint}. */
+  private static final class Lexer {
+
+    private final String sql;
+
+    private final StringBuilder normalizedSql;
+
+    private int i;
+
+    /** Nesting level of parentheses at the current position. */
+    private int depth;
+
+    /** Position of the "(" following "in" in {@link #normalizedSql}, or -1. */
+    private int inListStart = -1;
+
+    /** Nesting level inside the parentheses following "in". */
+    private int inListDepth;
+
+    /** The last word, lower-cased, if the previous token was a word, else null. */
+    private String previousWord;
+
+    private String operation;
+
+    /** Nesting level of the operation keyword. */
+    private int operationDepth;
+
+    /** Whether the operation is the main statement of a WITH clause still to be found. */
+    private boolean withClause;
+
+    /** Whether the next identifier is (part of the qualified name of) the primary table. */
+    private boolean tableExpected;
+
+    /** Whether a "." continues the qualified name of the primary table. */
+    private boolean tableContinued;
+
+    private StringBuilder table;
+
+    Lexer(String sql) {
+      this.sql = sql;
+      this.normalizedSql = new StringBuilder(sql.length());
+    }
+
+    SqlFingerprint fingerprint() {
+      int length = sql.length();
+      while (i < length) {
+        char c = sql.charAt(i);
+        if (Character.isWhitespace(c)) {
+          i++;
+        } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+          int end = sql.indexOf('\n', i + 2);
+          i = end < 0 ? length : end + 1;
+        } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+          int end = sql.indexOf("*/", i + 2);
+          i = end < 0 ? length : end + 2;
+        } else if (c == '\'') {
+          skipQuoted('\'');
+          placeholder();
+        } else if (c == '"' || c == '`') {
+          // Double quotes denote a quoted identifier in standard SQL but a string literal in some
+          // dialects, so only a primary table and backquoted identifiers are kept verbatim.
+          int start = i;
+          skipQuoted(c);
+          if (c == '`' || tableExpected) {
+            identifier(start, true);
+          } else {
+            placeholder();
+          }
+        } else if (Character.isLetter(c) || c == '_') {
+          int start = i;
+          do {
+            i++;
+          } while (i < length && isWordPart(sql.charAt(i)));
+          if (i - start == 1 && i < length && sql.charAt(i) == '\'' && isLiteralPrefix(c)) {
+            // Skip the prefix of a national, binary or hexadecimal string literal.
+            continue;
+          }
+          word(start);
+        } else if (Character.isDigit(c)
+            || (c == '.' && i + 1 < length && Character.isDigit(sql.charAt(i + 1)))) {
+          skipNumber();
+          placeholder();
+        } else if (c == '$' && i + 1 < length && Character.isDigit(sql.charAt(i + 1))) {
+          i++;
+          skipNumber();
+          placeholder();
+        } else if (c == ':'
+            && i + 1 < length
+            && Character.isLetter(sql.charAt(i + 1))
+            && (i == 0 || sql.charAt(i - 1) != ':')) {
+          i++;
+          while (i < length && isWordPart(sql.charAt(i))) {
+            i++;
+          }
+          placeholder();
+        } else if (c == '?') {
+          i++;
+          placeholder();
+        } else if (c == '(') {
+          i++;
+          openParenthesis();
+        } else if (c == ')') {
+          i++;
+          closeParenthesis();
+        } else if (c == ',' || c == '.' || c == ';') {
+          i++;
+          punctuation(c);
+        } else if (isOperatorPart(c)) {
+          int start = i;
+          do {
+            i++;
+          } while (i < length && isOperatorPart(sql.charAt(i)) && !isCommentStart(i));
+          token(start, i);
+        } else {
+          i++;
+          token(i - 1, i);
+        }
+      }
+
+      Optional<String> table =
+          this.table != null ? Optional.of(this.table.toString()) : Optional.<String>absent();
+      return create(normalizedSql.toString(), Optional.fromNullable(operation), table);
+    }
+
+    private void word(int start) {
+      String word = Ascii.toLowerCase(sql.substring(start, i));
+      if (tableExpected && !TABLE_MODIFIERS.contains(word)) {
+        identifier(start, false);
+        return;
+      }
+
+      space();
+      normalizedSql.append(word);
+      tableContinued = false;
+
+      if (operation == null) {
+        operation = Ascii.toUpperCase(word);
+        operationDepth = depth;
+        withClause = "WITH".equals(operation);
+        tableExpected = DIRECT_TABLE_OPERATIONS.contains(operation);
+      } else if (withClause && depth == operationDepth) {
+        String mainOperation = Ascii.toUpperCase(word);
+        if (WITH_OPERATIONS.contains(mainOperation)) {
+          operation = mainOperation;
+          withClause = false;
+          tableExpected = DIRECT_TABLE_OPERATIONS.contains(operation);
+        }
+      } else if (table == null
+          && depth == operationDepth
+          && TABLE_KEYWORDS.contains(word)
+          && TABLE_KEYWORD_OPERATIONS.contains(operation)) {
+        tableExpected = true;
+      }
+      previousWord = word;
+    }
+
+    /** Appends the identifier ending at the current position, possibly as the primary table. */
+    private void identifier(int start, boolean quoted) {
+      String identifier =
+          quoted ? sql.substring(start, i) : Ascii.toLowerCase(sql.substring(start, i));
+      space();
+      normalizedSql.append(identifier);
+      previousWord = null;
+
+      if (tableExpected) {
+        if (table == null) {
+          table = new StringBuilder();
+        }
+        if (quoted) {
+          table.append(identifier, 1, Math.max(1, identifier.length() - 1));
+        } else {
+          table.append(identifier);
+        }
+        tableExpected = false;
+        tableContinued = true;
+      } else {
+        tableContinued = false;
+      }
+    }
+
+    private void placeholder() {
+      space();
+      normalizedSql.append('?');
+      tableExpected = false;
+      tableContinued = false;
+      previousWord = null;
+    }
+
+    private void openParenthesis() {
+      space();
+      if ("in".equals(previousWord)) {
+        inListStart = normalizedSql.length();
+        inListDepth = depth + 1;
+      } else if (inListStart >= 0 && depth >= inListDepth) {
+        // Not a list of placeholders, e.g. a subquery.
+        inListStart = -1;
+      }
+      normalizedSql.append('(');
+      depth++;
+      tableExpected = false;
+      tableContinued = false;
+      previousWord = null;
+    }
+
+    private void closeParenthesis() {
+      if (inListStart >= 0 && depth == inListDepth) {
+        if (isPlaceholderList(inListStart + 1)) {
+          normalizedSql.setLength(inListStart + 1);
+          normalizedSql.append('?');
+        }
+        inListStart = -1;
+      }
+      normalizedSql.append(')');
+      depth--;
+      tableExpected = false;
+      tableContinued = false;
+      previousWord = null;
+    }
+
+    private void punctuation(char c) {
+      if (c == ';') {
+        space();
+      }
+      normalizedSql.append(c);
+      tableExpected = c == '.' && tableContinued;
+      if (tableExpected) {
+        table.append('.');
+      }
+      tableContinued = false;
+      previousWord = null;
+    }
+
+    private void token(int start, int end) {
+      space();
+      normalizedSql.append(sql, start, end);
+      tableExpected = false;
+      tableContinued = false;
+      previousWord = null;
+    }
+
+    /** Appends a space unless at the start, after an opening parenthesis or after a period. */
+    private void space() {
+      int length = normalizedSql.length();
+      if (length > 0) {
+        char last = normalizedSql.charAt(length - 1);
+        if (last != '(' && last != '.') {
+          normalizedSql.append(' ');
+        }
+      }
+    }
+
+    /** Returns whether the normalized SQL text from the specified position only lists "?". */
+    private boolean isPlaceholderList(int start) {
+      boolean placeholder = false;
+      for (int j = start; j < normalizedSql.length(); j++) {
+        char c = normalizedSql.charAt(j);
+        if (c == '?') {
+          placeholder = true;
+        } else if (c != ',' && c != ' ') {
+          return false;
+        }
+      }
+      return placeholder;
+    }
+
+    /**
+     * Skips the quoted text starting at the current position, including doubled quotes. Backslash
+     * escapes are honored as well, so that an escaped quote never ends a string literal early and
+     * leaks its remainder into the normalized SQL text.
+     */
+    private void skipQuoted(char quote) {
+      int length = sql.length();
+      i++;
+      while (i < length) {
+        char c = sql.charAt(i++);
+        if (c == '\\' && quote == '\'') {
+          i++;
+        } else if (c == quote) {
+          if (i < length && sql.charAt(i) == quote) {
+            i++;
+          } else {
+            return;
+          }
+        }
+      }
+      i = length;
+    }
+
+    private void skipNumber() {
+      int length = sql.length();
+      while (i < length) {
+        char c = sql.charAt(i);
+        if (Character.isLetterOrDigit(c) || c == '.' || c == '_') {
+          i++;
+          if ((c == 'e' || c == 'E')
+              && i < length
+              && (sql.charAt(i) == '+' || sql.charAt(i) == '-')) {
+            i++;
+          }
+        } else {
+          return;
+        }
+      }
+    }
+
+    private boolean isCommentStart(int j) {
+      if (j + 1 >= sql.length()) {
+        return false;
+      }
+      char c = sql.charAt(j);
+      char next = sql.charAt(j + 1);
+      return (c == '-' && next == '-') || (c == '/' && next == '*');
+    }
+  }
+
+  private static boolean isWordPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  private static boolean isOperatorPart(char c) {
+    return "<>=!|&+-*/%^~:@#".indexOf(c) >= 0;
+  }
+
+  private static boolean isLiteralPrefix(char c) {
+    return "nNxXbBeE".indexOf(c) >= 0;
+  }
+}
@@ -0,0 +1,62 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * Values of the span labels which are derived from an SQL text, see {@link SqlCache}.
+ *
+ * <p>The fingerprint is only computed when first needed, e.g. if neither fingerprint labels nor
+ * SQL span names nor statistics are enabled, it is never computed.
+ */
+final class SqlLabels {
+
+  private final String sql;
+
+  private final Optional<String> sqlText;
+
+  /** The fingerprint of the SQL text, once computed. */
+  @Nullable private volatile SqlFingerprint fingerprint;
+
+  private SqlLabels(String sql, Optional<String> sqlText) {
+    this.sql = sql;
+    this.sqlText = sqlText;
+  }
+
+  /** The scrubbed SQL text for {@link Label#SQL_TEXT}, if any. */
+  Optional<String> sqlText() {
+    return sqlText;
+  }
+
+  /** The fingerprint of the SQL text. */
+  SqlFingerprint fingerprint() {
+    // Racy single-check: SqlFingerprint is immutable, so computing it twice is harmless.
+    SqlFingerprint fingerprint = this.fingerprint;
+    if (fingerprint == null) {
+      fingerprint = SqlFingerprint.of(sql);
+      this.fingerprint = fingerprint;
+    }
+    return fingerprint;
+  }
+
+  /** Returns the labels of the specified SQL text, with the specified scrubbed SQL text. */
+  static SqlLabels of(String sql, Optional<String> sqlText) {
+    return new SqlLabels(checkNotNull(sql), checkNotNull(sqlText));
+  }
+}
@@ -21,6 +21,7 @@ import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.Statement;
+import javax.annotation.Nullable;
 
 /**
  * {@link InvocationHandler} for intercepting calls to the given {@link Statement} and recording
@@ -37,22 +38,46 @@ final class StatementInvocationHandler implements InvocationHandler {
 
   private final Optional<String> sql;
 
+  /** The transaction tracker of the connection, if any. */
+  @Nullable private final Transaction transaction;
+
+  /** The counter of repeated statements of the connection, if enabled. */
+  @Nullable private final RepeatedStatements repeatedStatements;
+
+  /** The labels of the connection, if enabled. */
+  @Nullable private final ConnectionLabels connectionLabels;
+
   StatementInvocationHandler(
       Statement statement,
       TraceOptions traceOptions,
       TraceService traceService,
       Optional<String> sql) {
+    this(statement, traceOptions, traceService, sql, null, null, null);
+  }
+
+  StatementInvocationHandler(
+      Statement statement,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      Optional<String> sql,
+      @Nullable Transaction transaction,
+      @Nullable RepeatedStatements repeatedStatements,
+      @Nullable ConnectionLabels connectionLabels) {
     this.statement = checkNotNull(statement);
     this.traceOptions = checkNotNull(traceOptions);
     this.traceService = checkNotNull(traceService);
     this.sql = checkNotNull(sql);
+    this.transaction = transaction;
+    this.repeatedStatements = repeatedStatements;
+    this.connectionLabels = connectionLabels;
   }
 
   @Override
   public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
     checkNotNull(method);
 
-    if (!method.getName().startsWith("execute")) {
+    MethodInfo methodInfo = MethodInfo.of(method);
+    if (!methodInfo.traced()) {
       // Intentionally not tracing this call as no statement is executed.
       try {
         return method.invoke(statement, args);
@@ -62,26 +87,36 @@ final class StatementInvocationHandler implements InvocationHandler {
       }
     }
 
-    Optional<String> sql;
-    if (method.getParameterTypes().length > 0 && method.getParameterTypes()[0] == String.class) {
-      sql = Optional.fromNullable((String) args[0]);
-    } else if (this.sql.isPresent()) {
-      sql = this.sql;
-    } else {
-      sql = Optional.absent();
-    }
+    String sql =
+        methodInfo.sqlArgumentIndex() != MethodInfo.NO_SQL_ARGUMENT
+            ? (String) args[methodInfo.sqlArgumentIndex()]
+            : this.sql.orNull();
 
-    try (TraceService.Span span = traceService.open("JDBC.Statement#" + method.getName())) {
-      if (sql.isPresent()) {
-        span.annotate(Label.SQL_TEXT, traceOptions.sqlScrubber().apply(sql.get()));
-      }
-
-      try {
-        return method.invoke(statement, args);
-      } catch (InvocationTargetException e) {
-        // Rethrow the exception from the underlying method.
-        throw e.getCause();
+    StatementSpan span =
+        StatementSpan.open(
+            traceService,
+            traceOptions,
+            methodInfo.spanName(),
+            sql,
+            transaction,
+            repeatedStatements,
+            connectionLabels);
+    if (methodInfo.sqlArgumentIndex() != MethodInfo.NO_SQL_ARGUMENT) {
+      // Only copies the arguments if the SQL text was actually commented.
+      String commentedSql = span.comment(sql);
+      if (commentedSql != sql) {
+        args = args.clone();
+        args[methodInfo.sqlArgumentIndex()] = commentedSql;
       }
     }
+    try {
+      return method.invoke(statement, args);
+    } catch (InvocationTargetException e) {
+      // Rethrow the exception from the underlying method.
+      span.failed(e.getCause());
+      throw e.getCause();
+    } finally {
+      span.close();
+    }
   }
 }
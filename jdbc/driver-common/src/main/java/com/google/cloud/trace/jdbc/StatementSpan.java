@@ -0,0 +1,360 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * {@link TraceService.Span} of a call executing SQL statements, annotated with the labels derived
+ * from the SQL text, if any.
+ *
+ * <p>By default, the underlying span is started right away. In slow-query-only mode (see {@link
+ * TraceOptions#slowQueryThresholdNanos}), only the start time is taken when the call starts, and
+ * the underlying span is created retroactively when closed, with the original start and end times,
+ * if the call exceeded the threshold or failed. Labels are buffered until then. Trace APIs which do
+ * not support retroactive spans, see {@link TraceService#supportsRetroactiveSpans}, trace all calls
+ * instead.
+ *
+ * <p>If enabled, the latency of the call is recorded in the {@link
+ * TraceOptions#statementStatistics} when closed, whether the span is recorded or not. Likewise,
+ * the call is added to the {@link Transaction} of the connection, if any, and counted by the
+ * {@link RepeatedStatements} of the connection, if any.
+ *
+ * <p>Failed calls are annotated with the classification of their exception, see {@link SqlErrors}.
+ *
+ * <p>Calls executing SQL statements excluded via {@link TraceOptions#sqlExclusions} are neither
+ * traced, nor recorded, nor counted.
+ */
+final class StatementSpan implements TraceService.Span {
+
+  private final TraceService traceService;
+
+  private final TraceOptions traceOptions;
+
+  private final String spanName;
+
+  @Nullable private final String sql;
+
+  /** Statistics to record the call in, if enabled and the SQL text is known. */
+  @Nullable private final StatementStatistics statistics;
+
+  /** The transaction tracker of the connection, if any. */
+  @Nullable private final Transaction transaction;
+
+  /** The counter of repeated statements of the connection, if enabled. */
+  @Nullable private final RepeatedStatements repeatedStatements;
+
+  /** The labels of the connection, if enabled. */
+  @Nullable private final ConnectionLabels connectionLabels;
+
+  /**
+   * {@link System#nanoTime} at the start of the call, in slow-query-only mode, if recording
+   * statistics or if tracking transactions.
+   */
+  private final long startNanoTime;
+
+  /** The underlying span, once started. */
+  @Nullable private TraceService.Span span;
+
+  /** Labels annotated before the underlying span is started, if any. */
+  @Nullable private Map<Label, Optional<String>> labels;
+
+  /** The exception of the call, if failed. */
+  @Nullable private Throwable failure;
+
+  private StatementSpan(
+      TraceService traceService,
+      TraceOptions traceOptions,
+      String spanName,
+      @Nullable String sql,
+      @Nullable StatementStatistics statistics,
+      @Nullable Transaction transaction,
+      @Nullable RepeatedStatements repeatedStatements,
+      @Nullable ConnectionLabels connectionLabels,
+      long startNanoTime) {
+    this.traceService = traceService;
+    this.traceOptions = traceOptions;
+    this.spanName = spanName;
+    this.sql = sql;
+    this.statistics = statistics;
+    this.transaction = transaction;
+    this.repeatedStatements = repeatedStatements;
+    this.connectionLabels = connectionLabels;
+    this.startNanoTime = startNanoTime;
+  }
+
+  /**
+   * Starts a new span for executing the specified SQL text, if any, or takes the start time in
+   * slow-query-only mode.
+   *
+   * <p>The span is named after the SQL statement, e.g. "SELECT users", if enabled via {@link
+   * TraceOptions#sqlSpanNames} and the operation of the SQL statement is known, else the specified
+   * span name is used.
+   */
+  static StatementSpan open(
+      TraceService traceService,
+      TraceOptions traceOptions,
+      String spanName,
+      @Nullable String sql) {
+    return open(traceService, traceOptions, spanName, sql, null, null, null);
+  }
+
+  /**
+   * Starts a new span as above, within the active transaction tracked by the specified {@link
+   * Transaction}, if any, which begins a new transaction if needed, and counted by the specified
+   * {@link RepeatedStatements}, if any, and annotated with the specified {@link ConnectionLabels},
+   * if any.
+   */
+  static StatementSpan open(
+      TraceService traceService,
+      TraceOptions traceOptions,
+      String spanName,
+      @Nullable String sql,
+      @Nullable Transaction transaction,
+      @Nullable RepeatedStatements repeatedStatements,
+      @Nullable ConnectionLabels connectionLabels) {
+    checkNotNull(traceService);
+    checkNotNull(traceOptions);
+    checkNotNull(spanName);
+
+    if (traceService == TraceService.NOOP
+        && transaction == null
+        && repeatedStatements == null
+        && !traceOptions.statementStatistics().isPresent()) {
+      // Statements which are not sampled, wrapped only for passing calls through.
+      return excluded(traceOptions, spanName);
+    }
+    if (traceOptions.sqlExclusions().excludes(sql)) {
+      return excluded(traceOptions, spanName);
+    }
+    if (transaction != null) {
+      transaction.beforeStatement();
+    }
+    StatementStatistics statistics =
+        sql != null ? traceOptions.statementStatistics().orNull() : null;
+    // Trace APIs which do not support retroactive spans would start them only once the call ended.
+    boolean deferred =
+        traceOptions.slowQueryThresholdNanos() > 0 && traceService.supportsRetroactiveSpans();
+    StatementSpan statementSpan =
+        new StatementSpan(
+            traceService,
+            traceOptions,
+            spanName,
+            sql,
+            statistics,
+            transaction,
+            sql != null ? repeatedStatements : null,
+            connectionLabels,
+            deferred || statistics != null || transaction != null ? System.nanoTime() : 0);
+    if (!deferred) {
+      statementSpan.span = statementSpan.start(traceService.open(statementSpan.getName()));
+    }
+    return statementSpan;
+  }
+
+  /**
+   * Returns a span for executing an SQL statement which is not sampled or excluded via {@link
+   * TraceOptions#sqlExclusions}, which records nothing.
+   */
+  private static StatementSpan excluded(TraceOptions traceOptions, String spanName) {
+    StatementSpan statementSpan =
+        new StatementSpan(
+            TraceService.NOOP, traceOptions, spanName, null, null, null, null, null, 0);
+    statementSpan.span = TraceService.NOOP_SPAN;
+    return statementSpan;
+  }
+
+  private String getName() {
+    if (sql != null && traceOptions.sqlSpanNames()) {
+      return traceOptions.sqlCache().get(sql).fingerprint().spanName().or(spanName);
+    }
+    return spanName;
+  }
+
+  /**
+   * Annotates the specified span with the labels derived from the SQL text, if any, and with the
+   * labels of the connection, if any, if the span is recorded.
+   */
+  private TraceService.Span start(TraceService.Span span) {
+    if (!span.isRecording()) {
+      return span;
+    }
+    if (sql != null) {
+      SqlLabels sqlLabels = traceOptions.sqlCache().get(sql);
+      span.annotate(Label.SQL_TEXT, sqlLabels.sqlText());
+      if (traceOptions.sqlFingerprint()) {
+        SqlFingerprint fingerprint = sqlLabels.fingerprint();
+        span.annotate(Label.SQL_FINGERPRINT, Optional.of(fingerprint.hash()));
+        span.annotate(Label.SQL_OPERATION, fingerprint.operation());
+        span.annotate(Label.SQL_TABLE, fingerprint.table());
+      }
+    }
+    if (connectionLabels != null) {
+      connectionLabels.annotate(span);
+    }
+    return span;
+  }
+
+  /**
+   * Returns whether the underlying span is recorded, or true in slow-query-only mode before the
+   * underlying span is created.
+   */
+  @Override
+  public boolean isRecording() {
+    return span == null || span.isRecording();
+  }
+
+  @Override
+  public void annotate(Label label, Optional<String> value) {
+    checkNotNull(label);
+    checkNotNull(value);
+
+    if (span != null) {
+      span.annotate(label, value);
+    } else {
+      if (labels == null) {
+        labels = new EnumMap<>(Label.class);
+      }
+      labels.put(label, value);
+    }
+  }
+
+  /** Returns the trace context of the underlying span, or null if not started yet. */
+  @Override
+  @Nullable
+  public String traceParent() {
+    return span != null ? span.traceParent() : null;
+  }
+
+  /**
+   * Returns the specified SQL text to execute, prefixed with a comment of the trace context of the
+   * underlying span if enabled via {@link TraceOptions#sqlComments}, see {@link SqlComments}. In
+   * slow-query-only mode, the SQL text is never commented, as the underlying span is only created
+   * after the call.
+   */
+  String comment(String sql) {
+    if (!traceOptions.sqlComments() || sql == null) {
+      return sql;
+    }
+    String traceParent = traceParent();
+    return traceParent != null ? SqlComments.prefix(traceParent, sql) : sql;
+  }
+
+  /**
+   * Sets the stack trace of the specified exception on the underlying span, if started. Failed
+   * calls are rather marked via {@link #failed}, which also works in slow-query-only mode.
+   */
+  @Override
+  public void setStackTrace(Throwable t) {
+    checkNotNull(t);
+
+    if (span != null) {
+      span.setStackTrace(t);
+    }
+  }
+
+  /**
+   * Marks the call as failed with the specified exception, which is classified on the span when
+   * closed, see {@link SqlErrors}.
+   */
+  void failed(Throwable t) {
+    checkNotNull(t);
+
+    failure = t;
+  }
+
+  /**
+   * Ends the span. In slow-query-only mode, the span is created retroactively if the call exceeded
+   * the threshold or failed.
+   */
+  @Override
+  public void close() {
+    long endNanoTime =
+        statistics != null || transaction != null || span == null ? System.nanoTime() : 0;
+    if (statistics != null) {
+      statistics.record(
+          traceOptions.sqlCache().get(sql).fingerprint(),
+          endNanoTime - startNanoTime,
+          failure != null);
+    }
+    if (transaction != null) {
+      transaction.afterStatement(endNanoTime - startNanoTime);
+    }
+
+    if (span != null) {
+      if (failure != null) {
+        annotateFailure(span);
+      }
+      span.close();
+    } else {
+      closeDeferred(endNanoTime);
+    }
+
+    // Counted once the span ended, so that any span reporting repeated statements is its sibling.
+    if (repeatedStatements != null) {
+      repeatedStatements.record(sql);
+    }
+  }
+
+  /**
+   * Creates the underlying span retroactively in slow-query-only mode, if the call exceeded the
+   * threshold or failed.
+   */
+  private void closeDeferred(long endNanoTime) {
+    long elapsedNanos = endNanoTime - startNanoTime;
+    if (failure == null && elapsedNanos < traceOptions.slowQueryThresholdNanos()) {
+      return;
+    }
+
+    try (TraceService.Span span =
+        start(traceService.open(getName(), startNanoTime, endNanoTime))) {
+      if (!span.isRecording()) {
+        return;
+      }
+      span.annotate(
+          Label.ELAPSED_MICROS,
+          Optional.of(String.valueOf(TimeUnit.NANOSECONDS.toMicros(elapsedNanos))));
+      if (labels != null) {
+        for (Map.Entry<Label, Optional<String>> entry : labels.entrySet()) {
+          span.annotate(entry.getKey(), entry.getValue());
+        }
+      }
+      if (failure != null) {
+        annotateFailure(span);
+      }
+    }
+  }
+
+  /**
+   * Annotates the specified span with the classification of the exception of the failed call and,
+   * if enabled via {@link TraceOptions#errorStackTraces}, its stack trace. The message of the
+   * exception is only annotated if SQL texts are traced in full.
+   */
+  private void annotateFailure(TraceService.Span span) {
+    if (!span.isRecording()) {
+      return;
+    }
+    SqlErrors.annotate(span, failure, traceOptions.sqlScrubber() == Scrubbers.KEEP);
+    if (traceOptions.errorStackTraces()) {
+      span.setStackTrace(failure);
+    }
+  }
+}
@@ -0,0 +1,236 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.annotations.VisibleForTesting;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * In-process latency, error and row statistics of SQL statements, keyed by their fingerprints (see
+ * {@link SqlFingerprint}), if enabled via {@code stackdriver.trace.sql.statistics}.
+ *
+ * <p>The statistics are recorded for all calls executing SQL statements, whether traced or not,
+ * so they remain complete when only a sample of the statements is traced. They are kept for a
+ * bounded number of distinct statements; the calls of any further statements are counted under
+ * the fingerprint {@value #OTHER}.
+ *
+ * <p>The statistics can be read via {@link #snapshot}, and are exported via JMX as {@link
+ * StatementStatisticsMXBean}s if the platform MBean server is available.
+ */
+public final class StatementStatistics {
+
+  private static final Logger logger = Logger.getLogger(StatementStatistics.class.getName());
+
+  /** Default maximum number of distinct statements. */
+  static final int DEFAULT_MAX_STATEMENTS = 500;
+
+  /** Fingerprint under which the calls of statements beyond the maximum number are counted. */
+  public static final String OTHER = "other";
+
+  private final int maxStatements;
+
+  @Nullable private final MBeanServer mBeanServer;
+
+  private final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+  private final LatencyHistogram other = new LatencyHistogram(OTHER, "");
+
+  @VisibleForTesting
+  StatementStatistics(int maxStatements, @Nullable MBeanServer mBeanServer) {
+    checkArgument(maxStatements >= 0, "maxStatements must not be negative: %s", maxStatements);
+
+    this.maxStatements = maxStatements;
+    this.mBeanServer = mBeanServer;
+    register(other);
+  }
+
+  /** Returns the statistics shared by all connections, exported via JMX. */
+  public static StatementStatistics getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  /** Holder for lazily creating the instance on first use. */
+  private static final class Holder {
+    static final StatementStatistics INSTANCE =
+        new StatementStatistics(DEFAULT_MAX_STATEMENTS, getPlatformMBeanServer());
+  }
+
+  /**
+   * Returns the platform MBean server, or null if not available. JMX is not available on all
+   * platforms, e.g. the Java 7 runtime of Google App Engine standard environment.
+   */
+  @Nullable
+  static MBeanServer getPlatformMBeanServer() {
+    try {
+      return ManagementFactory.getPlatformMBeanServer();
+    } catch (RuntimeException | LinkageError e) {
+      logger.log(Level.INFO, "JMX not available, not exporting SQL statistics", e);
+      return null;
+    }
+  }
+
+  /** Records a call executing an SQL statement of the specified latency, which failed or not. */
+  void record(SqlFingerprint fingerprint, long elapsedNanos, boolean failed) {
+    histogram(fingerprint).record(elapsedNanos, failed);
+  }
+
+  /**
+   * Records preparing an SQL statement of the specified latency, for the first time on its
+   * connection or not.
+   */
+  void recordPrepare(SqlFingerprint fingerprint, long elapsedNanos, boolean repeated) {
+    histogram(fingerprint).recordPrepare(elapsedNanos, repeated);
+  }
+
+  /** Records the specified number of rows read from the result set of an SQL statement. */
+  void recordRows(SqlFingerprint fingerprint, long rows) {
+    histogram(fingerprint).recordRows(rows);
+  }
+
+  private LatencyHistogram histogram(SqlFingerprint fingerprint) {
+    checkNotNull(fingerprint);
+
+    LatencyHistogram histogram = histograms.get(fingerprint.hash());
+    if (histogram == null) {
+      // The bound may be exceeded by a few statements added concurrently.
+      if (histograms.size() >= maxStatements) {
+        return other;
+      }
+      histogram = new LatencyHistogram(fingerprint.hash(), fingerprint.normalizedSql());
+      LatencyHistogram existing = histograms.putIfAbsent(fingerprint.hash(), histogram);
+      if (existing != null) {
+        return existing;
+      }
+      register(histogram);
+    }
+    return histogram;
+  }
+
+  private void register(LatencyHistogram histogram) {
+    if (mBeanServer == null) {
+      return;
+    }
+    try {
+      mBeanServer.registerMBean(histogram, objectName(histogram.getFingerprint()));
+    } catch (JMException | RuntimeException e) {
+      // E.g. already registered by another class loader, or not permitted.
+      logger.log(Level.FINE, "Could not register MBean for SQL statement statistics", e);
+    }
+  }
+
+  @VisibleForTesting
+  static ObjectName objectName(String fingerprint) throws JMException {
+    return new ObjectName(
+        "com.google.cloud.trace.jdbc:type=StatementStatistics,fingerprint="
+            + ObjectName.quote(fingerprint));
+  }
+
+  /** Returns the current statistics of all statements, including {@value #OTHER} if called. */
+  public List<Snapshot> snapshot() {
+    List<Snapshot> snapshots = new ArrayList<>(histograms.size() + 1);
+    for (LatencyHistogram histogram : histograms.values()) {
+      snapshots.add(histogram.snapshot());
+    }
+    Snapshot otherSnapshot = other.snapshot();
+    if (otherSnapshot.count() > 0) {
+      snapshots.add(otherSnapshot);
+    }
+    return snapshots;
+  }
+
+  /**
+   * Statistics of one shape of SQL statements at one point in time. Latencies are in microseconds;
+   * percentiles are the upper bounds of histogram buckets, with a relative error of at most 25%.
+   */
+  @AutoValue
+  public abstract static class Snapshot {
+    Snapshot() {}
+
+    static Snapshot create(
+        String fingerprint,
+        String sql,
+        long count,
+        long errors,
+        long rows,
+        long totalMicros,
+        long maxMicros,
+        long p50Micros,
+        long p90Micros,
+        long p99Micros,
+        long prepares,
+        long firstPrepares,
+        long prepareMicros) {
+      return new AutoValue_StatementStatistics_Snapshot(
+          fingerprint,
+          sql,
+          count,
+          errors,
+          rows,
+          totalMicros,
+          maxMicros,
+          p50Micros,
+          p90Micros,
+          p99Micros,
+          prepares,
+          firstPrepares,
+          prepareMicros);
+    }
+
+    /** Returns the fingerprint of the SQL statements, or {@value StatementStatistics#OTHER}. */
+    public abstract String fingerprint();
+
+    /** Returns the normalized SQL text, with all literals replaced by "?". */
+    public abstract String sql();
+
+    public abstract long count();
+
+    public abstract long errors();
+
+    /** Returns the number of rows read from result sets. */
+    public abstract long rows();
+
+    public abstract long totalMicros();
+
+    public abstract long maxMicros();
+
+    public abstract long p50Micros();
+
+    public abstract long p90Micros();
+
+    public abstract long p99Micros();
+
+    /** Returns the number of statements prepared. */
+    public abstract long prepares();
+
+    /** Returns the number of statements prepared for the first time on their connections. */
+    public abstract long firstPrepares();
+
+    public abstract long prepareMicros();
+  }
+}
@@ -0,0 +1,72 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+/**
+ * Management interface of the latency, error, row and prepare statistics of one shape of SQL
+ * statements, registered as {@code
+ * com.google.cloud.trace.jdbc:type=StatementStatistics,fingerprint=...} in the platform MBean
+ * server if enabled via {@code stackdriver.trace.sql.statistics}.
+ *
+ * <p>Latencies are in microseconds. Percentiles are approximate, see {@link
+ * StatementStatistics.Snapshot}.
+ */
+public interface StatementStatisticsMXBean {
+
+  /** Returns the fingerprint of the SQL statements. */
+  String getFingerprint();
+
+  /** Returns the normalized SQL text, with all literals replaced by "?". */
+  String getSql();
+
+  /** Returns the number of calls. */
+  long getCount();
+
+  /** Returns the number of failed calls. */
+  long getErrors();
+
+  /** Returns the number of rows read from result sets. */
+  long getRows();
+
+  /** Returns the sum of the latencies of all calls. */
+  long getTotalMicros();
+
+  /** Returns the highest latency of all calls. */
+  long getMaxMicros();
+
+  /** Returns the median latency. */
+  long getP50Micros();
+
+  /** Returns the 90th percentile latency. */
+  long getP90Micros();
+
+  /** Returns the 99th percentile latency. */
+  long getP99Micros();
+
+  /**
+   * Returns the number of statements prepared, if counted via {@code
+   * stackdriver.trace.sql.prepares}.
+   */
+  long getPrepares();
+
+  /**
+   * Returns the number of statements prepared for the first time on their connections, which no
+   * client-side statement cache can serve. Close to {@link #getPrepares} if caching is defeated.
+   */
+  long getFirstPrepares();
+
+  /** Returns the sum of the latencies of preparing statements. */
+  long getPrepareMicros();
+}
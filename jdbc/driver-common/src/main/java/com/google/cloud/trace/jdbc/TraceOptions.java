@@ -18,7 +18,13 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Doubles;
+import com.google.common.primitives.Ints;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link TraceOptions} holds all client-configurable settings for <i>Stackdriver Trace for
@@ -42,12 +48,92 @@ import java.util.Properties;
 @AutoValue
 abstract class TraceOptions {
 
+  /** Default maximum number of SQL texts in the {@link SqlCache}. */
+  static final int DEFAULT_SQL_CACHE_SIZE = 1000;
+
   abstract boolean enabled();
 
   abstract Scrubbers.Scrubber urlScrubber();
 
   abstract Scrubbers.Scrubber sqlScrubber();
 
+  abstract boolean dynamicProxies();
+
+  /** Whether spans are annotated with the fingerprint, operation and table of SQL statements. */
+  abstract boolean sqlFingerprint();
+
+  /** Whether spans are named after the SQL statement, e.g. "SELECT users". */
+  abstract boolean sqlSpanNames();
+
+  /**
+   * Whether statement spans are annotated with the database URL, product name and version of the
+   * connection, see {@link ConnectionLabels}.
+   */
+  abstract boolean connectionLabels();
+
+  /** Whether iterating the rows of result sets is traced, see {@link TracingResultSet}. */
+  abstract boolean resultSets();
+
+  /**
+   * Whether transfers of large objects are traced, see {@link LobTransfer}. Only applies to result
+   * sets which are wrapped, see {@link #resultSets}, and to prepared statements.
+   */
+  abstract boolean lobs();
+
+  /**
+   * Minimum duration of calls executing SQL statements which are traced, or 0 for tracing all of
+   * them. Ignored with trace APIs which do not support retroactive spans. See {@link
+   * StatementSpan}.
+   */
+  abstract long slowQueryThresholdNanos();
+
+  /**
+   * SQL statements which are excluded from tracing, e.g. the validation queries of connection
+   * pools. Excluded statements are neither traced, nor scrubbed, nor counted.
+   */
+  abstract SqlExclusions sqlExclusions();
+
+  /** Decides which connections or statements are traced. */
+  abstract Sampler sampler();
+
+  /**
+   * Whether the sampling decision is made once per connection, else once per statement (i.e. on
+   * creating or preparing a statement, covering all its executions).
+   */
+  abstract boolean samplePerConnection();
+
+  /** Cache of the labels derived from SQL texts using {@link #sqlScrubber}. */
+  abstract SqlCache sqlCache();
+
+  /** Statistics recorded for all calls executing SQL statements, traced or not, if enabled. */
+  abstract Optional<StatementStatistics> statementStatistics();
+
+  /**
+   * Whether preparing statements is traced and counted per connection, see {@link PrepareTracker}.
+   */
+  abstract boolean prepares();
+
+  /**
+   * Whether the SQL texts of plain statements are prefixed with a comment of the trace context of
+   * the span executing them, see {@link SqlComments}.
+   */
+  abstract boolean sqlComments();
+
+  /**
+   * Number of executions of statements of the same fingerprint within one trace at which they are
+   * reported as repeated, or 0 for not counting them. See {@link RepeatedStatements}.
+   */
+  abstract int repeatedStatementThreshold();
+
+  /** Whether repeated statements are logged as well, once per fingerprint. */
+  abstract boolean logRepeatedStatements();
+
+  /**
+   * Whether the spans of failed calls are annotated with the stack trace of the exception, if
+   * supported by the trace API. See {@link TraceService.Span#setStackTrace}.
+   */
+  abstract boolean errorStackTraces();
+
   /**
    * Reads trace options from the specified JDBC connection properties.
    *
@@ -59,6 +145,81 @@ abstract class TraceOptions {
    *       JDBC</i> driver is actually triggered.
    *   <li>{@code stackdriver.trace.sql}: Level of detail for tracing SQL statements.
    *   <li>{@code stackdriver.trace.url}: Level of detail for tracing JDBC database URLs.
+   *   <li>{@code stackdriver.trace.dynamicProxies}: Whether JDBC objects are wrapped in dynamic
+   *       proxies implementing all interfaces of the wrapped objects, which allows for downcasting
+   *       to vendor-specific interfaces. Defaults to "true". With "false", JDBC objects are
+   *       wrapped in faster delegating wrappers, which are required for tracing batches, result
+   *       sets and large objects, but only implement the JDBC 4.1 interfaces of Java 7, and
+   *       vendor-specific interfaces are only accessible via {@link java.sql.Wrapper#unwrap}.
+   *   <li>{@code stackdriver.trace.sql.cacheSize}: Maximum number of distinct SQL texts for which
+   *       the scrubbed SQL text is cached, where longer SQL texts count as one per started {@value
+   *       SqlCache#CHARS_PER_WEIGHT} characters. Defaults to {@value #DEFAULT_SQL_CACHE_SIZE}, "0"
+   *       disables the cache. Its hit rate is exported via JMX, see {@link SqlCacheMXBean}.
+   *   <li>{@code stackdriver.trace.sql.fingerprint}: Whether spans are annotated with the
+   *       fingerprint hash, operation and primary table of the SQL statement (see {@link
+   *       SqlFingerprint}). The table names are recorded unscrubbed. Defaults to "false".
+   *   <li>{@code stackdriver.trace.sql.spanNames}: Whether spans are named after the operation and
+   *       primary table of the SQL statement, e.g. "SELECT users", instead of the JDBC method, e.g.
+   *       "JDBC.Statement#executeQuery". Defaults to "false".
+   *   <li>{@code stackdriver.trace.connectionLabels}: Whether statement spans are annotated with
+   *       the scrubbed JDBC database URL and the product name and version of the database of the
+   *       connection, derived once per driver connection (see {@link ConnectionLabels}).
+   *       Defaults to "true".
+   *   <li>{@code stackdriver.trace.resultSets}: Whether iterating the rows of result sets is traced
+   *       as a single span per result set (see {@link TracingResultSet}). Defaults to "false", as
+   *       result sets are wrapped, which hides any vendor-specific classes of theirs. Has no effect
+   *       with {@code stackdriver.trace.dynamicProxies}.
+   *   <li>{@code stackdriver.trace.lobs}: Whether transfers of large objects are traced as a
+   *       single span per transfer, i.e. reading or writing the streams of result sets, prepared
+   *       statements and {@link java.sql.Blob} or {@link java.sql.Clob} objects (see {@link
+   *       LobTransfer}). Defaults to "false", as {@code Blob} and {@code Clob} objects are wrapped,
+   *       which hides any vendor-specific classes of theirs. Has no effect with {@code
+   *       stackdriver.trace.dynamicProxies}.
+   *   <li>{@code stackdriver.trace.sql.thresholdMs}: Minimum duration in milliseconds of calls
+   *       executing SQL statements which are traced. Faster calls are not traced unless they fail.
+   *       Requires the Cloud Trace SDK variant, i.e. has no effect on App Engine, whose Trace API
+   *       cannot create spans retroactively. Defaults to "0", i.e. all calls are traced.
+   *   <li>{@code stackdriver.trace.sql.exclude}: SQL texts which are excluded from tracing,
+   *       separated by semicolons, e.g. "SELECT 1" for the validation queries of connection pools.
+   *       Statements are excluded if their SQL text matches one of them exactly. Excluded
+   *       statements are neither traced, nor scrubbed, nor counted in statistics. Note that {@link
+   *       java.sql.Connection#isValid} is never traced. Defaults to none.
+   *   <li>{@code stackdriver.trace.sql.excludeFingerprints}: Fingerprint hashes of SQL statements
+   *       which are excluded from tracing like the above, separated by commas (see {@link
+   *       SqlFingerprint}). Defaults to none.
+   *   <li>{@code stackdriver.trace.sampling.probability}: Probability between 0 and 1 with which
+   *       statements are traced. Defaults to "1".
+   *   <li>{@code stackdriver.trace.sampling.maxPerSecond}: Maximum number of sampled statements per
+   *       second across all connections, counting {@link java.sql.Statement} objects as created or
+   *       prepared, not their executions, which are all traced. With the "connection" scope, the
+   *       maximum number of sampled connections per second. Defaults to "0", i.e. no limit.
+   *   <li>{@code stackdriver.trace.sampling.scope}: Whether the sampling decision is made once per
+   *       "statement" (the default) or once per "connection". Statements which are not sampled
+   *       are neither scrubbed nor traced, unless statement statistics are enabled, and only
+   *       wrapped for returning the traced connection from {@code getConnection}.
+   *   <li>{@code stackdriver.trace.sql.statistics}: Whether latency, error and row statistics of
+   *       all SQL statements are recorded in-process by fingerprint, see {@link
+   *       StatementStatistics}. Defaults to "false".
+   *   <li>{@code stackdriver.trace.sql.prepares}: Whether preparing statements is traced and
+   *       counted per connection, telling SQL texts prepared for the first time on a connection
+   *       from repeated ones, which a client-side statement cache may serve (see {@link
+   *       PrepareTracker}). Defaults to "false".
+   *   <li>{@code stackdriver.trace.sql.comments}: Whether the SQL texts of plain statements are
+   *       prefixed with a comment of the trace context of the span executing them, e.g. {@code
+   *       traceparent='00-...-01'}, for correlating database logs with spans (see {@link
+   *       SqlComments}). SQL texts of prepared statements are never commented, so as not to defeat
+   *       statement caches. Has no effect with {@code stackdriver.trace.sql.thresholdMs}. Defaults
+   *       to "false".
+   *   <li>{@code stackdriver.trace.sql.repeatedThreshold}: Number of executions of statements of
+   *       the same fingerprint within one trace, across all connections, e.g. the N+1 queries of
+   *       an ORM, at which a {@value RepeatedStatements#SPAN_NAME} span is recorded (see {@link
+   *       RepeatedStatements}). Defaults to "0", i.e. repeated statements are not counted.
+   *   <li>{@code stackdriver.trace.sql.repeatedLog}: Whether repeated statements are also logged
+   *       as warnings, once per fingerprint. Defaults to "false".
+   *   <li>{@code stackdriver.trace.errors.stackTraces}: Whether the spans of failed calls are
+   *       annotated with the stack trace of the exception, in addition to its class, SQLState and
+   *       vendor error code (see {@link SqlErrors}). Identical stack traces are converted only
+   *       once. Requires the Cloud Trace SDK variant. Defaults to "false".
    * </ul>
    *
    * By default, SQL statements and JDBC database URLs are scrubbed of potentially sensitive
@@ -73,13 +234,90 @@ abstract class TraceOptions {
   static TraceOptions of(Properties info) {
     checkNotNull(info);
 
+    Scrubbers.Scrubber sqlScrubber =
+        getScrubber(info, "stackdriver.trace.sql", Scrubbers.SQL_SCRUBBER);
     return builder()
         .setEnabled(Boolean.valueOf(info.getProperty("stackdriver.trace.enabled", "true")))
-        .setSqlScrubber(getScrubber(info, "stackdriver.trace.sql", Scrubbers.SQL_SCRUBBER))
+        .setSqlScrubber(sqlScrubber)
         .setUrlScrubber(getScrubber(info, "stackdriver.trace.url", Scrubbers.URL_SCRUBBER))
+        .setDynamicProxies(
+            Boolean.valueOf(info.getProperty("stackdriver.trace.dynamicProxies", "true")))
+        .setSqlFingerprint(
+            Boolean.valueOf(info.getProperty("stackdriver.trace.sql.fingerprint", "false")))
+        .setSqlSpanNames(
+            Boolean.valueOf(info.getProperty("stackdriver.trace.sql.spanNames", "false")))
+        .setConnectionLabels(
+            Boolean.valueOf(info.getProperty("stackdriver.trace.connectionLabels", "true")))
+        .setResultSets(Boolean.valueOf(info.getProperty("stackdriver.trace.resultSets", "false")))
+        .setLobs(Boolean.valueOf(info.getProperty("stackdriver.trace.lobs", "false")))
+        .setSlowQueryThresholdNanos(
+            (long)
+                (TimeUnit.MILLISECONDS.toNanos(1)
+                    * getDouble(
+                        info, "stackdriver.trace.sql.thresholdMs", 0.0, 0.0, Long.MAX_VALUE / 1e6)))
+        .setSqlExclusions(
+            SqlExclusions.shared(
+                getSet(info, "stackdriver.trace.sql.exclude", ';'),
+                getSet(info, "stackdriver.trace.sql.excludeFingerprints", ',')))
+        .setSampler(
+            Sampler.shared(
+                getDouble(info, "stackdriver.trace.sampling.probability", 1.0, 0.0, 1.0),
+                getDouble(
+                    info, "stackdriver.trace.sampling.maxPerSecond", 0.0, 0.0, Double.MAX_VALUE)))
+        .setSamplePerConnection(
+            "connection".equals(info.getProperty("stackdriver.trace.sampling.scope")))
+        .setSqlCache(
+            SqlCache.shared(
+                sqlScrubber,
+                getNonNegativeInt(info, "stackdriver.trace.sql.cacheSize", DEFAULT_SQL_CACHE_SIZE)))
+        .setStatementStatistics(
+            Boolean.valueOf(info.getProperty("stackdriver.trace.sql.statistics", "false"))
+                ? Optional.of(StatementStatistics.getInstance())
+                : Optional.<StatementStatistics>absent())
+        .setPrepares(Boolean.valueOf(info.getProperty("stackdriver.trace.sql.prepares", "false")))
+        .setSqlComments(
+            Boolean.valueOf(info.getProperty("stackdriver.trace.sql.comments", "false")))
+        .setRepeatedStatementThreshold(
+            getNonNegativeInt(info, "stackdriver.trace.sql.repeatedThreshold", 0))
+        .setLogRepeatedStatements(
+            Boolean.valueOf(info.getProperty("stackdriver.trace.sql.repeatedLog", "false")))
+        .setErrorStackTraces(
+            Boolean.valueOf(info.getProperty("stackdriver.trace.errors.stackTraces", "false")))
         .build();
   }
 
+  /** Returns the trimmed, non-empty values of the specified property, split by the separator. */
+  private static ImmutableSet<String> getSet(Properties info, String propertyName, char separator) {
+    checkNotNull(info);
+    checkNotNull(propertyName);
+
+    String value = info.getProperty(propertyName);
+    return value != null
+        ? ImmutableSet.copyOf(Splitter.on(separator).trimResults().omitEmptyStrings().split(value))
+        : ImmutableSet.<String>of();
+  }
+
+  private static int getNonNegativeInt(Properties info, String propertyName, int defaultValue) {
+    checkNotNull(info);
+    checkNotNull(propertyName);
+
+    String value = info.getProperty(propertyName);
+    Integer parsedValue = value != null ? Ints.tryParse(value.trim()) : null;
+    return parsedValue != null && parsedValue >= 0 ? parsedValue : defaultValue;
+  }
+
+  private static double getDouble(
+      Properties info, String propertyName, double defaultValue, double minValue, double maxValue) {
+    checkNotNull(info);
+    checkNotNull(propertyName);
+
+    String value = info.getProperty(propertyName);
+    Double parsedValue = value != null ? Doubles.tryParse(value.trim()) : null;
+    return parsedValue != null && parsedValue >= minValue && parsedValue <= maxValue
+        ? parsedValue
+        : defaultValue;
+  }
+
   private static Scrubbers.Scrubber getScrubber(
       Properties info, String propertyName, Scrubbers.Scrubber defaultScrubber) {
     checkNotNull(info);
@@ -98,7 +336,23 @@ abstract class TraceOptions {
 
   @VisibleForTesting
   static Builder builder() {
-    return new AutoValue_TraceOptions.Builder();
+    return new AutoValue_TraceOptions.Builder()
+        .setDynamicProxies(false)
+        .setSqlFingerprint(false)
+        .setSqlSpanNames(false)
+        .setConnectionLabels(false)
+        .setResultSets(false)
+        .setLobs(false)
+        .setSlowQueryThresholdNanos(0)
+        .setSqlExclusions(SqlExclusions.NONE)
+        .setSampler(Sampler.ALWAYS)
+        .setSamplePerConnection(false)
+        .setStatementStatistics(Optional.<StatementStatistics>absent())
+        .setPrepares(false)
+        .setSqlComments(false)
+        .setRepeatedStatementThreshold(0)
+        .setLogRepeatedStatements(false)
+        .setErrorStackTraces(false);
   }
 
   @AutoValue.Builder
@@ -109,6 +363,51 @@ abstract class TraceOptions {
 
     abstract Builder setUrlScrubber(Scrubbers.Scrubber scrubber);
 
-    abstract TraceOptions build();
+    abstract Builder setDynamicProxies(boolean dynamicProxies);
+
+    abstract Builder setSqlFingerprint(boolean sqlFingerprint);
+
+    abstract Builder setSqlSpanNames(boolean sqlSpanNames);
+
+    abstract Builder setConnectionLabels(boolean connectionLabels);
+
+    abstract Builder setResultSets(boolean resultSets);
+
+    abstract Builder setLobs(boolean lobs);
+
+    abstract Builder setSlowQueryThresholdNanos(long slowQueryThresholdNanos);
+
+    abstract Builder setSqlExclusions(SqlExclusions sqlExclusions);
+
+    abstract Builder setSampler(Sampler sampler);
+
+    abstract Builder setSamplePerConnection(boolean samplePerConnection);
+
+    abstract Builder setSqlCache(SqlCache sqlCache);
+
+    abstract Builder setStatementStatistics(Optional<StatementStatistics> statementStatistics);
+
+    abstract Builder setPrepares(boolean prepares);
+
+    abstract Builder setSqlComments(boolean sqlComments);
+
+    abstract Builder setRepeatedStatementThreshold(int repeatedStatementThreshold);
+
+    abstract Builder setLogRepeatedStatements(boolean logRepeatedStatements);
+
+    abstract Builder setErrorStackTraces(boolean errorStackTraces);
+
+    abstract Scrubbers.Scrubber sqlScrubber();
+
+    abstract Optional<SqlCache> sqlCache();
+
+    abstract TraceOptions autoBuild();
+
+    TraceOptions build() {
+      if (!sqlCache().isPresent()) {
+        setSqlCache(SqlCache.shared(sqlScrubber(), DEFAULT_SQL_CACHE_SIZE));
+      }
+      return autoBuild();
+    }
   }
 }
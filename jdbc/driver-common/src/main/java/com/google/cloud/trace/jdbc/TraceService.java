@@ -19,6 +19,7 @@ import java.util.Iterator;
 import java.util.ServiceLoader;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import javax.annotation.Nullable;
 
 /**
  * {@link TraceService} provides a minimal interface for starting trace spans, abstracting away the
@@ -28,6 +29,32 @@ abstract class TraceService {
 
   private static final TraceService INSTANCE = createInstance();
 
+  /**
+   * {@link Span} which is not recorded, returned by implementations when the current request is not
+   * traced.
+   */
+  static final Span NOOP_SPAN =
+      new Span() {
+        @Override
+        public boolean isRecording() {
+          return false;
+        }
+
+        @Override
+        public void annotate(Label label, Optional<String> value) {}
+
+        @Override
+        public String traceParent() {
+          return null;
+        }
+
+        @Override
+        public void setStackTrace(Throwable t) {}
+
+        @Override
+        public void close() {}
+      };
+
   /**
    * Creates and returns the platform-specific implementation of {@link TraceService}, located at
    * runtime via {@link ServiceLoader}.
@@ -47,6 +74,15 @@ abstract class TraceService {
     return it.next();
   }
 
+  /** {@link TraceService} which records nothing, opening {@link #NOOP_SPAN}s only. */
+  static final TraceService NOOP =
+      new TraceService() {
+        @Override
+        Span open(String name) {
+          return NOOP_SPAN;
+        }
+      };
+
   /** Returns the platform-specific implementation of {@link TraceService}. */
   static TraceService getInstance() {
     return INSTANCE;
@@ -55,12 +91,81 @@ abstract class TraceService {
   /** Starts a new span with the specified name. */
   abstract Span open(String name);
 
+  /**
+   * Starts a new span with the specified name retroactively, for an operation which started and
+   * ended at the specified times as returned by {@link System#nanoTime}. The span ends at the
+   * specified end time when closed.
+   *
+   * <p>The default implementation is for trace APIs which do not support explicit timestamps: it
+   * ignores the specified times and starts the span now.
+   */
+  Span open(String name, long startNanoTime, long endNanoTime) {
+    return open(name);
+  }
+
+  /**
+   * Starts a new span retroactively like {@link #open(String, long, long)}, but in the specified
+   * trace as returned by {@link #currentTrace} when the operation started, for operations reported
+   * later, possibly on another thread. Returns {@link #NOOP_SPAN} if the trace is null.
+   *
+   * <p>The default implementation is for trace APIs which cannot start spans in another trace: it
+   * opens the span only if the specified trace is still the current one.
+   */
+  Span open(@Nullable Object trace, String name, long startNanoTime, long endNanoTime) {
+    return trace != null && trace == currentTrace()
+        ? open(name, startNanoTime, endNanoTime)
+        : NOOP_SPAN;
+  }
+
+  /**
+   * Returns whether {@link #open(String, long, long)} honors the specified times. Otherwise callers
+   * skip the spans which would be misleading if started at the time they are reported.
+   *
+   * <p>The default implementation returns false, matching the default implementation of {@link
+   * #open(String, long, long)}.
+   */
+  boolean supportsRetroactiveSpans() {
+    return false;
+  }
+
+  /**
+   * Returns an object identifying the current trace, i.e. the request being traced, for scoping
+   * state kept per request, e.g. by {@link RepeatedStatements}, or null if there is none.
+   *
+   * <p>The default implementation is for trace APIs which do not expose the current trace: it
+   * returns null.
+   */
+  @Nullable
+  Object currentTrace() {
+    return null;
+  }
+
   /** {@link Span} allows clients to manage details of a span: set a label or end the span. */
   interface Span extends AutoCloseable {
 
+    /**
+     * Returns whether this span is recorded. Annotations of spans which are not recorded are
+     * discarded, so callers skip computing their labels.
+     */
+    boolean isRecording();
+
     /** Annotates this span using the specified label and value, if present. */
     void annotate(Label label, Optional<String> value);
 
+    /**
+     * Returns the trace context of this span in the format of the W3C Trace Context {@code
+     * traceparent} header (see {@link SqlComments#traceParent}), or null if not recorded or not
+     * supported by the trace API.
+     */
+    @Nullable
+    String traceParent();
+
+    /**
+     * Sets the stack trace of the specified exception on this span, if recorded and supported by
+     * the trace API.
+     */
+    void setStackTrace(Throwable t);
+
     /** Ends the current span. */
     @Override
     void close();
@@ -0,0 +1,115 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Blob;
+import java.sql.SQLException;
+
+/**
+ * {@link Blob} which delegates all calls to the given {@link Blob} and traces its transfers, see
+ * {@link LobTransfer}: each call to {@link #getBytes} or {@link #setBytes}, and each stream
+ * returned by {@link #getBinaryStream} or {@link #setBinaryStream}, is reported as a single span.
+ */
+final class TracingBlob implements Blob {
+
+  static final String GET_BYTES = "JDBC.Blob#getBytes";
+  static final String GET_BINARY_STREAM = "JDBC.Blob#getBinaryStream";
+  static final String SET_BYTES = "JDBC.Blob#setBytes";
+  static final String SET_BINARY_STREAM = "JDBC.Blob#setBinaryStream";
+
+  /** The wrapped JDBC {@link Blob}. */
+  final Blob blob;
+
+  private final TraceOptions traceOptions;
+
+  private final TraceService traceService;
+
+  TracingBlob(Blob blob, TraceOptions traceOptions, TraceService traceService) {
+    this.blob = checkNotNull(blob);
+    this.traceOptions = checkNotNull(traceOptions);
+    this.traceService = checkNotNull(traceService);
+  }
+
+  @Override
+  public long length() throws SQLException {
+    return blob.length();
+  }
+
+  @Override
+  public byte[] getBytes(long pos, int length) throws SQLException {
+    long startNanos = System.nanoTime();
+    byte[] bytes = blob.getBytes(pos, length);
+    LobTransfer.report(
+        traceService, GET_BYTES, Label.LOB_BYTES, startNanos, bytes != null ? bytes.length : 0);
+    return bytes;
+  }
+
+  @Override
+  public InputStream getBinaryStream() throws SQLException {
+    return LobTransfer.wrap(blob.getBinaryStream(), traceOptions, traceService, GET_BINARY_STREAM);
+  }
+
+  @Override
+  public long position(byte[] pattern, long start) throws SQLException {
+    return blob.position(pattern, start);
+  }
+
+  @Override
+  public long position(Blob pattern, long start) throws SQLException {
+    return blob.position(LobTransfer.unwrap(pattern), start);
+  }
+
+  @Override
+  public int setBytes(long pos, byte[] bytes) throws SQLException {
+    long startNanos = System.nanoTime();
+    int written = blob.setBytes(pos, bytes);
+    LobTransfer.report(traceService, SET_BYTES, Label.LOB_BYTES, startNanos, written);
+    return written;
+  }
+
+  @Override
+  public int setBytes(long pos, byte[] bytes, int offset, int len) throws SQLException {
+    long startNanos = System.nanoTime();
+    int written = blob.setBytes(pos, bytes, offset, len);
+    LobTransfer.report(traceService, SET_BYTES, Label.LOB_BYTES, startNanos, written);
+    return written;
+  }
+
+  @Override
+  public OutputStream setBinaryStream(long pos) throws SQLException {
+    return LobTransfer.wrap(
+        blob.setBinaryStream(pos), traceOptions, traceService, SET_BINARY_STREAM);
+  }
+
+  @Override
+  public void truncate(long len) throws SQLException {
+    blob.truncate(len);
+  }
+
+  @Override
+  public void free() throws SQLException {
+    blob.free();
+  }
+
+  @Override
+  public InputStream getBinaryStream(long pos, long length) throws SQLException {
+    return LobTransfer.wrap(
+        blob.getBinaryStream(pos, length), traceOptions, traceService, GET_BINARY_STREAM);
+  }
+}
@@ -0,0 +1,131 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.sql.Clob;
+import java.sql.SQLException;
+
+/**
+ * {@link Clob} which delegates all calls to the given {@link Clob} and traces its transfers, see
+ * {@link LobTransfer}: each call to {@link #getSubString} or {@link #setString}, and each stream
+ * returned by {@link #getCharacterStream}, {@link #getAsciiStream}, {@link #setCharacterStream} or
+ * {@link #setAsciiStream}, is reported as a single span.
+ */
+class TracingClob implements Clob {
+
+  static final String GET_SUB_STRING = "JDBC.Clob#getSubString";
+  static final String GET_CHARACTER_STREAM = "JDBC.Clob#getCharacterStream";
+  static final String GET_ASCII_STREAM = "JDBC.Clob#getAsciiStream";
+  static final String SET_STRING = "JDBC.Clob#setString";
+  static final String SET_CHARACTER_STREAM = "JDBC.Clob#setCharacterStream";
+  static final String SET_ASCII_STREAM = "JDBC.Clob#setAsciiStream";
+
+  /** The wrapped JDBC {@link Clob}. */
+  final Clob clob;
+
+  private final TraceOptions traceOptions;
+
+  private final TraceService traceService;
+
+  TracingClob(Clob clob, TraceOptions traceOptions, TraceService traceService) {
+    this.clob = checkNotNull(clob);
+    this.traceOptions = checkNotNull(traceOptions);
+    this.traceService = checkNotNull(traceService);
+  }
+
+  @Override
+  public long length() throws SQLException {
+    return clob.length();
+  }
+
+  @Override
+  public String getSubString(long pos, int length) throws SQLException {
+    long startNanos = System.nanoTime();
+    String s = clob.getSubString(pos, length);
+    LobTransfer.report(
+        traceService, GET_SUB_STRING, Label.LOB_CHARS, startNanos, s != null ? s.length() : 0);
+    return s;
+  }
+
+  @Override
+  public Reader getCharacterStream() throws SQLException {
+    return LobTransfer.wrap(
+        clob.getCharacterStream(), traceOptions, traceService, GET_CHARACTER_STREAM);
+  }
+
+  @Override
+  public InputStream getAsciiStream() throws SQLException {
+    return LobTransfer.wrap(clob.getAsciiStream(), traceOptions, traceService, GET_ASCII_STREAM);
+  }
+
+  @Override
+  public long position(String searchstr, long start) throws SQLException {
+    return clob.position(searchstr, start);
+  }
+
+  @Override
+  public long position(Clob searchstr, long start) throws SQLException {
+    return clob.position(LobTransfer.unwrap(searchstr), start);
+  }
+
+  @Override
+  public int setString(long pos, String str) throws SQLException {
+    long startNanos = System.nanoTime();
+    int written = clob.setString(pos, str);
+    LobTransfer.report(traceService, SET_STRING, Label.LOB_CHARS, startNanos, written);
+    return written;
+  }
+
+  @Override
+  public int setString(long pos, String str, int offset, int len) throws SQLException {
+    long startNanos = System.nanoTime();
+    int written = clob.setString(pos, str, offset, len);
+    LobTransfer.report(traceService, SET_STRING, Label.LOB_CHARS, startNanos, written);
+    return written;
+  }
+
+  @Override
+  public OutputStream setAsciiStream(long pos) throws SQLException {
+    return LobTransfer.wrap(clob.setAsciiStream(pos), traceOptions, traceService, SET_ASCII_STREAM);
+  }
+
+  @Override
+  public Writer setCharacterStream(long pos) throws SQLException {
+    return LobTransfer.wrap(
+        clob.setCharacterStream(pos), traceOptions, traceService, SET_CHARACTER_STREAM);
+  }
+
+  @Override
+  public void truncate(long len) throws SQLException {
+    clob.truncate(len);
+  }
+
+  @Override
+  public void free() throws SQLException {
+    clob.free();
+  }
+
+  @Override
+  public Reader getCharacterStream(long pos, long length) throws SQLException {
+    return LobTransfer.wrap(
+        clob.getCharacterStream(pos, length), traceOptions, traceService, GET_CHARACTER_STREAM);
+  }
+}
@@ -0,0 +1,539 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+
+/**
+ * {@link Connection} which delegates all calls to the given {@link Connection} and wraps the
+ * created statements for recording latency data for Stackdriver Trace.
+ *
+ * <p>In contrast to {@link ConnectionInvocationHandler}, calls are plain virtual calls to the
+ * wrapped connection without any reflection or boxing of arguments. The flip side is that
+ * vendor-specific interfaces of the wrapped connection are only accessible via {@link #unwrap},
+ * which never returns the wrapped connection for the JDBC interfaces implemented by this class, and
+ * that the wrappers only implement the JDBC 4.1 interfaces of Java 7. The JDBC 4.2 methods added
+ * in Java 8, e.g. {@code Statement#executeLargeUpdate}, are left to the default implementations of
+ * the interfaces, which do not support them.
+ *
+ * <p>Statements which are not sampled by {@link TraceOptions#sampler} are wrapped for recording
+ * {@link TraceOptions#statementStatistics} only, if enabled, else for passing all calls through, so
+ * that their {@code getConnection} still returns this connection. Sampled statements take part in
+ * the {@link Transaction} tracking of this connection. Statements recording statistics or traces
+ * are counted by the {@link RepeatedStatements} of this connection, if enabled.
+ */
+final class TracingConnection implements Connection {
+
+  /** The wrapped JDBC {@link Connection}. */
+  private final Connection conn;
+
+  private final TraceOptions traceOptions;
+
+  private final TraceService traceService;
+
+  /** Counter of connections in flight, decremented once this connection is closed, if any. */
+  @Nullable private final AtomicInteger inFlight;
+
+  private boolean closed;
+
+  /** The sampling decision for this connection, if made once per connection. */
+  private final boolean sampled;
+
+  private final Transaction transaction;
+
+  /** Counter of the statements prepared on this connection, if enabled. */
+  @Nullable private final PrepareTracker prepares;
+
+  /** Counter of the statements executed per trace by fingerprint, if enabled. */
+  @Nullable private final RepeatedStatements repeatedStatements;
+
+  /** The labels of the connection attached to statement spans, if enabled. */
+  @Nullable private final ConnectionLabels connectionLabels;
+
+  TracingConnection(Connection conn, TraceOptions traceOptions, TraceService traceService) {
+    this(conn, traceOptions, traceService, null);
+  }
+
+  TracingConnection(
+      Connection conn,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      @Nullable AtomicInteger inFlight) {
+    this.conn = checkNotNull(conn);
+    this.traceOptions = checkNotNull(traceOptions);
+    this.traceService = checkNotNull(traceService);
+    this.inFlight = inFlight;
+    this.sampled = !traceOptions.samplePerConnection() || traceOptions.sampler().sample();
+    this.transaction = new Transaction(conn, traceOptions, traceService);
+    this.prepares = PrepareTracker.create(traceOptions);
+    this.repeatedStatements = RepeatedStatements.create(traceOptions, traceService);
+    this.connectionLabels = ConnectionLabels.create(conn, traceOptions);
+  }
+
+  /**
+   * Returns the {@link TraceService} for the next statement with the specified SQL text, if known:
+   * the actual one if sampled, else a no-op one if statement statistics are recorded nevertheless,
+   * else null for passing calls through. Statements excluded via {@link
+   * TraceOptions#sqlExclusions} record nothing, so they take no sampling decision, which would
+   * consume the rate limit of the sampler.
+   */
+  @Nullable
+  private TraceService statementTraceService(@Nullable String sql) {
+    if (traceOptions.sqlExclusions().excludes(sql)) {
+      return null;
+    }
+    if (traceOptions.samplePerConnection() ? sampled : traceOptions.sampler().sample()) {
+      return traceService;
+    }
+    return traceOptions.statementStatistics().isPresent() ? TraceService.NOOP : null;
+  }
+
+  /**
+   * Returns the transaction tracker for statements traced via the specified {@link TraceService},
+   * or null for statements which are not sampled.
+   */
+  @Nullable
+  private Transaction transaction(TraceService statementTraceService) {
+    return statementTraceService == traceService ? transaction : null;
+  }
+
+  /** Wraps the specified statement for recording latency data, if sampled. */
+  private Statement wrap(Statement statement) {
+    TraceService traceService = statementTraceService(null);
+    if (traceService == null) {
+      return new TracingStatement(statement, this, traceOptions, TraceService.NOOP);
+    }
+    return new TracingStatement(
+        statement,
+        this,
+        traceOptions,
+        traceService,
+        null,
+        transaction(traceService),
+        repeatedStatements,
+        connectionLabels);
+  }
+
+  /** Returns the start time of preparing a statement, if counted. */
+  private long prepareStartNanoTime() {
+    return prepares != null ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Wraps the specified prepared statement for recording latency data, if sampled, and records
+   * preparing it, if counted.
+   */
+  private PreparedStatement wrap(PreparedStatement statement, String sql, long startNanoTime) {
+    TraceService traceService = statementTraceService(sql);
+    if (prepares != null && sql != null) {
+      prepares.record(PrepareTracker.PREPARE_STATEMENT, sql, startNanoTime, traceService);
+    }
+    if (traceService == null) {
+      return new TracingPreparedStatement(statement, this, traceOptions, TraceService.NOOP, sql);
+    }
+    return new TracingPreparedStatement(
+        statement,
+        this,
+        traceOptions,
+        traceService,
+        sql,
+        transaction(traceService),
+        repeatedStatements,
+        connectionLabels);
+  }
+
+  /**
+   * Wraps the specified callable statement for recording latency data, if sampled, and records
+   * preparing it, if counted.
+   */
+  private CallableStatement wrap(CallableStatement statement, String sql, long startNanoTime) {
+    TraceService traceService = statementTraceService(sql);
+    if (prepares != null && sql != null) {
+      prepares.record(PrepareTracker.PREPARE_CALL, sql, startNanoTime, traceService);
+    }
+    if (traceService == null) {
+      return new TracingCallableStatement(statement, this, traceOptions, TraceService.NOOP, sql);
+    }
+    return new TracingCallableStatement(
+        statement,
+        this,
+        traceOptions,
+        traceService,
+        sql,
+        transaction(traceService),
+        repeatedStatements,
+        connectionLabels);
+  }
+
+  @Override
+  public Statement createStatement() throws SQLException {
+    return wrap(conn.createStatement());
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql) throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(conn.prepareStatement(sql), sql, startNanoTime);
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql) throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(conn.prepareCall(sql), sql, startNanoTime);
+  }
+
+  @Override
+  public String nativeSQL(String sql) throws SQLException {
+    return conn.nativeSQL(sql);
+  }
+
+  @Override
+  public void setAutoCommit(boolean autoCommit) throws SQLException {
+    if (!autoCommit) {
+      conn.setAutoCommit(false);
+      transaction.setAutoCommit(false);
+      return;
+    }
+
+    // Enabling auto-commit mode commits the active transaction, if any.
+    StatementSpan span = transaction.openEnd(Transaction.SET_AUTO_COMMIT);
+    try {
+      conn.setAutoCommit(true);
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      transaction.closeEnd(span);
+    }
+    transaction.setAutoCommit(true);
+  }
+
+  @Override
+  public boolean getAutoCommit() throws SQLException {
+    return conn.getAutoCommit();
+  }
+
+  @Override
+  public void commit() throws SQLException {
+    StatementSpan span = transaction.openEnd(Transaction.COMMIT);
+    try {
+      conn.commit();
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      transaction.closeEnd(span);
+    }
+  }
+
+  @Override
+  public void rollback() throws SQLException {
+    StatementSpan span = transaction.openEnd(Transaction.ROLLBACK);
+    try {
+      conn.rollback();
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      transaction.closeEnd(span);
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    try {
+      conn.close();
+    } finally {
+      // Ended even if closing failed, as the connection is unusable either way.
+      transaction.end();
+      if (inFlight != null && !closed) {
+        closed = true;
+        inFlight.decrementAndGet();
+      }
+    }
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return conn.isClosed();
+  }
+
+  @Override
+  public DatabaseMetaData getMetaData() throws SQLException {
+    return conn.getMetaData();
+  }
+
+  @Override
+  public void setReadOnly(boolean readOnly) throws SQLException {
+    conn.setReadOnly(readOnly);
+  }
+
+  @Override
+  public boolean isReadOnly() throws SQLException {
+    return conn.isReadOnly();
+  }
+
+  @Override
+  public void setCatalog(String catalog) throws SQLException {
+    conn.setCatalog(catalog);
+  }
+
+  @Override
+  public String getCatalog() throws SQLException {
+    return conn.getCatalog();
+  }
+
+  @Override
+  public void setTransactionIsolation(int level) throws SQLException {
+    conn.setTransactionIsolation(level);
+  }
+
+  @Override
+  public int getTransactionIsolation() throws SQLException {
+    return conn.getTransactionIsolation();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return conn.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    conn.clearWarnings();
+  }
+
+  @Override
+  public Statement createStatement(int resultSetType, int resultSetConcurrency)
+      throws SQLException {
+    return wrap(conn.createStatement(resultSetType, resultSetConcurrency));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency)
+      throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(
+        conn.prepareStatement(sql, resultSetType, resultSetConcurrency), sql, startNanoTime);
+  }
+
+  @Override
+  public CallableStatement prepareCall(String sql, int resultSetType, int resultSetConcurrency)
+      throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(conn.prepareCall(sql, resultSetType, resultSetConcurrency), sql, startNanoTime);
+  }
+
+  @Override
+  public Map<String, Class<?>> getTypeMap() throws SQLException {
+    return conn.getTypeMap();
+  }
+
+  @Override
+  public void setTypeMap(Map<String, Class<?>> map) throws SQLException {
+    conn.setTypeMap(map);
+  }
+
+  @Override
+  public void setHoldability(int holdability) throws SQLException {
+    conn.setHoldability(holdability);
+  }
+
+  @Override
+  public int getHoldability() throws SQLException {
+    return conn.getHoldability();
+  }
+
+  @Override
+  public Savepoint setSavepoint() throws SQLException {
+    return conn.setSavepoint();
+  }
+
+  @Override
+  public Savepoint setSavepoint(String name) throws SQLException {
+    return conn.setSavepoint(name);
+  }
+
+  @Override
+  public void rollback(Savepoint savepoint) throws SQLException {
+    conn.rollback(savepoint);
+  }
+
+  @Override
+  public void releaseSavepoint(Savepoint savepoint) throws SQLException {
+    conn.releaseSavepoint(savepoint);
+  }
+
+  @Override
+  public Statement createStatement(
+      int resultSetType, int resultSetConcurrency, int resultSetHoldability) throws SQLException {
+    return wrap(conn.createStatement(resultSetType, resultSetConcurrency, resultSetHoldability));
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(
+      String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+      throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(
+        conn.prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
+        sql,
+        startNanoTime);
+  }
+
+  @Override
+  public CallableStatement prepareCall(
+      String sql, int resultSetType, int resultSetConcurrency, int resultSetHoldability)
+      throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(
+        conn.prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability),
+        sql,
+        startNanoTime);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(conn.prepareStatement(sql, autoGeneratedKeys), sql, startNanoTime);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(conn.prepareStatement(sql, columnIndexes), sql, startNanoTime);
+  }
+
+  @Override
+  public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+    long startNanoTime = prepareStartNanoTime();
+    return wrap(conn.prepareStatement(sql, columnNames), sql, startNanoTime);
+  }
+
+  @Override
+  public Clob createClob() throws SQLException {
+    return conn.createClob();
+  }
+
+  @Override
+  public Blob createBlob() throws SQLException {
+    return conn.createBlob();
+  }
+
+  @Override
+  public NClob createNClob() throws SQLException {
+    return conn.createNClob();
+  }
+
+  @Override
+  public SQLXML createSQLXML() throws SQLException {
+    return conn.createSQLXML();
+  }
+
+  // Not traced, as connection pools call this over and over again for validating connections.
+  @Override
+  public boolean isValid(int timeout) throws SQLException {
+    return conn.isValid(timeout);
+  }
+
+  @Override
+  public void setClientInfo(String name, String value) throws SQLClientInfoException {
+    conn.setClientInfo(name, value);
+  }
+
+  @Override
+  public void setClientInfo(Properties properties) throws SQLClientInfoException {
+    conn.setClientInfo(properties);
+  }
+
+  @Override
+  public String getClientInfo(String name) throws SQLException {
+    return conn.getClientInfo(name);
+  }
+
+  @Override
+  public Properties getClientInfo() throws SQLException {
+    return conn.getClientInfo();
+  }
+
+  @Override
+  public Array createArrayOf(String typeName, Object[] elements) throws SQLException {
+    return conn.createArrayOf(typeName, elements);
+  }
+
+  @Override
+  public Struct createStruct(String typeName, Object[] attributes) throws SQLException {
+    return conn.createStruct(typeName, attributes);
+  }
+
+  @Override
+  public void setSchema(String schema) throws SQLException {
+    conn.setSchema(schema);
+  }
+
+  @Override
+  public String getSchema() throws SQLException {
+    return conn.getSchema();
+  }
+
+  @Override
+  public void abort(Executor executor) throws SQLException {
+    conn.abort(executor);
+  }
+
+  @Override
+  public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
+    conn.setNetworkTimeout(executor, milliseconds);
+  }
+
+  @Override
+  public int getNetworkTimeout() throws SQLException {
+    return conn.getNetworkTimeout();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this); // Else the wrapped connection would escape tracing.
+    }
+    return iface.isInstance(conn) ? iface.cast(conn) : conn.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(conn) || conn.isWrapperFor(iface);
+  }
+}
@@ -0,0 +1,198 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+/**
+ * {@link DataSource} which delegates all calls to the given {@link DataSource}, typically a
+ * connection pool, and records latency data for Stackdriver Trace about obtaining connections.
+ *
+ * <p>Each call to {@link #getConnection} is traced as a span lasting as long as the caller waits
+ * for a connection, e.g. for a pooled connection to become available, and is annotated with the
+ * number of threads waiting and the number of connections in flight. Both counters are also
+ * available via {@link #getWaitingCount} and {@link #getInFlightCount}. The obtained connections
+ * are wrapped for further instrumentation just like the connections of {@link Driver}.
+ *
+ * <p>The following example shows how to trace a connection pool, configured with the same trace
+ * options as the JDBC connection properties supported by {@link Driver}:
+ *
+ * <pre>
+ * Properties info = new Properties();
+ * info.setProperty("stackdriver.trace.sql", "full");
+ *
+ * DataSource dataSource = new TracingDataSource(pool, info);
+ * </pre>
+ */
+public final class TracingDataSource implements DataSource {
+
+  static final String GET_CONNECTION = "JDBC.DataSource#getConnection";
+
+  /** The wrapped {@link DataSource}. */
+  private final DataSource dataSource;
+
+  private final TraceOptions traceOptions;
+
+  private final TraceService traceService;
+
+  /** Number of threads waiting in {@link #getConnection}. */
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /** Number of connections obtained and not yet closed. */
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+  /**
+   * Creates a new data source wrapping the specified data source with default trace options.
+   *
+   * @param dataSource the data source to wrap, e.g. a connection pool
+   */
+  public TracingDataSource(DataSource dataSource) {
+    this(dataSource, new Properties());
+  }
+
+  /**
+   * Creates a new data source wrapping the specified data source with the trace options read from
+   * the specified properties, see {@link TraceOptions#of}.
+   *
+   * @param dataSource the data source to wrap, e.g. a connection pool
+   * @param info the trace options, as supported by the JDBC connection properties of {@link
+   *     Driver}
+   */
+  public TracingDataSource(DataSource dataSource, Properties info) {
+    this(dataSource, TraceOptions.of(checkNotNull(info)), TraceService.getInstance());
+  }
+
+  @VisibleForTesting
+  TracingDataSource(DataSource dataSource, TraceOptions traceOptions, TraceService traceService) {
+    this.dataSource = checkNotNull(dataSource);
+    this.traceOptions = checkNotNull(traceOptions);
+    this.traceService = checkNotNull(traceService);
+  }
+
+  /**
+   * Returns the number of threads currently waiting for a connection.
+   *
+   * @return the number of threads currently waiting in {@link #getConnection}
+   */
+  public int getWaitingCount() {
+    return waiting.get();
+  }
+
+  /**
+   * Returns the number of connections currently obtained and not yet closed.
+   *
+   * @return the number of connections currently obtained and not yet closed
+   */
+  public int getInFlightCount() {
+    return inFlight.get();
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return getConnection(null, null, false);
+  }
+
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    return getConnection(username, password, true);
+  }
+
+  private Connection getConnection(String username, String password, boolean withCredentials)
+      throws SQLException {
+    if (!traceOptions.enabled()) {
+      return withCredentials
+          ? dataSource.getConnection(username, password)
+          : dataSource.getConnection();
+    }
+
+    Connection conn;
+    int waitingCount = waiting.incrementAndGet();
+    try (TraceService.Span span = traceService.open(GET_CONNECTION)) {
+      if (span.isRecording()) {
+        span.annotate(Label.POOL_WAITING, Optional.of(String.valueOf(waitingCount)));
+        span.annotate(Label.POOL_IN_FLIGHT, Optional.of(String.valueOf(inFlight.get())));
+      }
+      conn =
+          withCredentials
+              ? dataSource.getConnection(username, password)
+              : dataSource.getConnection();
+    } finally {
+      waiting.decrementAndGet();
+    }
+    Connection tracingConn;
+    try {
+      tracingConn = NonRegisteringDriver.wrap(conn, traceOptions, traceService, inFlight);
+    } catch (RuntimeException | Error e) {
+      // Not counted as in flight, since the caller cannot close what was never returned.
+      try {
+        conn.close();
+      } catch (SQLException | RuntimeException closeException) {
+        e.addSuppressed(closeException);
+      }
+      throw e;
+    }
+    inFlight.incrementAndGet();
+    return tracingConn;
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return dataSource.getLogWriter();
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    dataSource.setLogWriter(out);
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    dataSource.setLoginTimeout(seconds);
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return dataSource.getLoginTimeout();
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    return dataSource.getParentLogger();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this); // Else the wrapped data source would escape tracing.
+    }
+    return iface.isInstance(dataSource) ? iface.cast(dataSource) : dataSource.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(dataSource) || dataSource.isWrapperFor(iface);
+  }
+}
@@ -0,0 +1,70 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link OutputStream} which delegates all calls to the given {@link OutputStream} and records the
+ * bytes written and the time blocked in writes in a {@link LobTransfer}, reported once the stream
+ * is closed.
+ */
+final class TracingOutputStream extends FilterOutputStream {
+
+  private final LobTransfer transfer;
+
+  TracingOutputStream(OutputStream out, LobTransfer transfer) {
+    super(checkNotNull(out));
+    this.transfer = checkNotNull(transfer);
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    long startNanos = System.nanoTime();
+    out.write(b);
+    transfer.record(startNanos, 1);
+  }
+
+  // write(byte[]) is inherited, calling write(byte[], int, int), which is overridden for writing
+  // all bytes at once instead of one by one.
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    long startNanos = System.nanoTime();
+    out.write(b, off, len);
+    transfer.record(startNanos, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    long startNanos = System.nanoTime();
+    out.flush();
+    transfer.record(startNanos, 0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    long startNanos = System.nanoTime();
+    try {
+      out.close();
+      transfer.record(startNanos, 0);
+    } finally {
+      transfer.report();
+    }
+  }
+}
@@ -0,0 +1,404 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.NClob;
+import java.sql.ParameterMetaData;
+import java.sql.PreparedStatement;
+import java.sql.Ref;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.RowId;
+import java.sql.SQLException;
+import java.sql.SQLXML;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.Calendar;
+import javax.annotation.Nullable;
+
+/**
+ * {@link PreparedStatement} which delegates all calls to the given {@link PreparedStatement} and
+ * records latency data for Stackdriver Trace about the calls executing SQL statements.
+ *
+ * <p>If enabled via {@link TraceOptions#lobs}, the streams passed as parameters are wrapped for
+ * tracing the JDBC driver reading them, see {@link LobTransfer}.
+ */
+class TracingPreparedStatement extends TracingStatement implements PreparedStatement {
+
+  static final String SET_ASCII_STREAM = "JDBC.PreparedStatement#setAsciiStream";
+  static final String SET_BINARY_STREAM = "JDBC.PreparedStatement#setBinaryStream";
+  static final String SET_CHARACTER_STREAM = "JDBC.PreparedStatement#setCharacterStream";
+  static final String SET_N_CHARACTER_STREAM = "JDBC.PreparedStatement#setNCharacterStream";
+  static final String SET_BLOB = "JDBC.PreparedStatement#setBlob";
+  static final String SET_CLOB = "JDBC.PreparedStatement#setClob";
+  static final String SET_N_CLOB = "JDBC.PreparedStatement#setNClob";
+
+  /** The wrapped JDBC {@link PreparedStatement}. */
+  private final PreparedStatement preparedStatement;
+
+  TracingPreparedStatement(
+      PreparedStatement preparedStatement,
+      Connection connection,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      @Nullable String sql) {
+    this(preparedStatement, connection, traceOptions, traceService, sql, null, null, null);
+  }
+
+  TracingPreparedStatement(
+      PreparedStatement preparedStatement,
+      Connection connection,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      @Nullable String sql,
+      @Nullable Transaction transaction,
+      @Nullable RepeatedStatements repeatedStatements,
+      @Nullable ConnectionLabels connectionLabels) {
+    super(
+        preparedStatement,
+        connection,
+        traceOptions,
+        traceService,
+        sql,
+        transaction,
+        repeatedStatements,
+        connectionLabels);
+    this.preparedStatement = preparedStatement;
+  }
+
+  @Override
+  public ResultSet executeQuery() throws SQLException {
+    long executionNanos = System.nanoTime();
+    ResultSet resultSet;
+    StatementSpan span = open(EXECUTE_QUERY, sql);
+    try {
+      resultSet = preparedStatement.executeQuery();
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+    return wrap(resultSet, sql, executionNanos);
+  }
+
+  @Override
+  public int executeUpdate() throws SQLException {
+    StatementSpan span = open(EXECUTE_UPDATE, sql);
+    try {
+      return preparedStatement.executeUpdate();
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType) throws SQLException {
+    preparedStatement.setNull(parameterIndex, sqlType);
+  }
+
+  @Override
+  public void setBoolean(int parameterIndex, boolean x) throws SQLException {
+    preparedStatement.setBoolean(parameterIndex, x);
+  }
+
+  @Override
+  public void setByte(int parameterIndex, byte x) throws SQLException {
+    preparedStatement.setByte(parameterIndex, x);
+  }
+
+  @Override
+  public void setShort(int parameterIndex, short x) throws SQLException {
+    preparedStatement.setShort(parameterIndex, x);
+  }
+
+  @Override
+  public void setInt(int parameterIndex, int x) throws SQLException {
+    preparedStatement.setInt(parameterIndex, x);
+  }
+
+  @Override
+  public void setLong(int parameterIndex, long x) throws SQLException {
+    preparedStatement.setLong(parameterIndex, x);
+  }
+
+  @Override
+  public void setFloat(int parameterIndex, float x) throws SQLException {
+    preparedStatement.setFloat(parameterIndex, x);
+  }
+
+  @Override
+  public void setDouble(int parameterIndex, double x) throws SQLException {
+    preparedStatement.setDouble(parameterIndex, x);
+  }
+
+  @Override
+  public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
+    preparedStatement.setBigDecimal(parameterIndex, x);
+  }
+
+  @Override
+  public void setString(int parameterIndex, String x) throws SQLException {
+    preparedStatement.setString(parameterIndex, x);
+  }
+
+  @Override
+  public void setBytes(int parameterIndex, byte[] x) throws SQLException {
+    preparedStatement.setBytes(parameterIndex, x);
+  }
+
+  @Override
+  public void setDate(int parameterIndex, Date x) throws SQLException {
+    preparedStatement.setDate(parameterIndex, x);
+  }
+
+  @Override
+  public void setTime(int parameterIndex, Time x) throws SQLException {
+    preparedStatement.setTime(parameterIndex, x);
+  }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
+    preparedStatement.setTimestamp(parameterIndex, x);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    preparedStatement.setAsciiStream(parameterIndex, wrapParameter(x, SET_ASCII_STREAM), length);
+  }
+
+  @Override
+  public void setUnicodeStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    preparedStatement.setUnicodeStream(parameterIndex, x, length);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, int length) throws SQLException {
+    preparedStatement.setBinaryStream(parameterIndex, wrapParameter(x, SET_BINARY_STREAM), length);
+  }
+
+  @Override
+  public void clearParameters() throws SQLException {
+    preparedStatement.clearParameters();
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
+    preparedStatement.setObject(parameterIndex, LobTransfer.unwrap(x), targetSqlType);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x) throws SQLException {
+    preparedStatement.setObject(parameterIndex, LobTransfer.unwrap(x));
+  }
+
+  @Override
+  public boolean execute() throws SQLException {
+    StatementSpan span = open(EXECUTE, sql);
+    try {
+      return preparedStatement.execute();
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public void addBatch() throws SQLException {
+    preparedStatement.addBatch();
+    batch().add();
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader, int length)
+      throws SQLException {
+    preparedStatement.setCharacterStream(
+        parameterIndex, wrapParameter(reader, SET_CHARACTER_STREAM), length);
+  }
+
+  @Override
+  public void setRef(int parameterIndex, Ref x) throws SQLException {
+    preparedStatement.setRef(parameterIndex, x);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, Blob x) throws SQLException {
+    preparedStatement.setBlob(parameterIndex, LobTransfer.unwrap(x));
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Clob x) throws SQLException {
+    preparedStatement.setClob(parameterIndex, LobTransfer.unwrap(x));
+  }
+
+  @Override
+  public void setArray(int parameterIndex, Array x) throws SQLException {
+    preparedStatement.setArray(parameterIndex, x);
+  }
+
+  @Override
+  public ResultSetMetaData getMetaData() throws SQLException {
+    return preparedStatement.getMetaData();
+  }
+
+  @Override
+  public void setDate(int parameterIndex, Date x, Calendar cal) throws SQLException {
+    preparedStatement.setDate(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setTime(int parameterIndex, Time x, Calendar cal) throws SQLException {
+    preparedStatement.setTime(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setTimestamp(int parameterIndex, Timestamp x, Calendar cal) throws SQLException {
+    preparedStatement.setTimestamp(parameterIndex, x, cal);
+  }
+
+  @Override
+  public void setNull(int parameterIndex, int sqlType, String typeName) throws SQLException {
+    preparedStatement.setNull(parameterIndex, sqlType, typeName);
+  }
+
+  @Override
+  public void setURL(int parameterIndex, URL x) throws SQLException {
+    preparedStatement.setURL(parameterIndex, x);
+  }
+
+  @Override
+  public ParameterMetaData getParameterMetaData() throws SQLException {
+    return preparedStatement.getParameterMetaData();
+  }
+
+  @Override
+  public void setRowId(int parameterIndex, RowId x) throws SQLException {
+    preparedStatement.setRowId(parameterIndex, x);
+  }
+
+  @Override
+  public void setNString(int parameterIndex, String value) throws SQLException {
+    preparedStatement.setNString(parameterIndex, value);
+  }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader value, long length)
+      throws SQLException {
+    preparedStatement.setNCharacterStream(
+        parameterIndex, wrapParameter(value, SET_N_CHARACTER_STREAM), length);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, NClob value) throws SQLException {
+    preparedStatement.setNClob(parameterIndex, LobTransfer.unwrap(value));
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Reader reader, long length) throws SQLException {
+    preparedStatement.setClob(parameterIndex, wrapParameter(reader, SET_CLOB), length);
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream inputStream, long length)
+      throws SQLException {
+    preparedStatement.setBlob(parameterIndex, wrapParameter(inputStream, SET_BLOB), length);
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader reader, long length) throws SQLException {
+    preparedStatement.setNClob(parameterIndex, wrapParameter(reader, SET_N_CLOB), length);
+  }
+
+  @Override
+  public void setSQLXML(int parameterIndex, SQLXML xmlObject) throws SQLException {
+    preparedStatement.setSQLXML(parameterIndex, xmlObject);
+  }
+
+  @Override
+  public void setObject(int parameterIndex, Object x, int targetSqlType, int scaleOrLength)
+      throws SQLException {
+    preparedStatement.setObject(
+        parameterIndex, LobTransfer.unwrap(x), targetSqlType, scaleOrLength);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    preparedStatement.setAsciiStream(parameterIndex, wrapParameter(x, SET_ASCII_STREAM), length);
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x, long length) throws SQLException {
+    preparedStatement.setBinaryStream(parameterIndex, wrapParameter(x, SET_BINARY_STREAM), length);
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader, long length)
+      throws SQLException {
+    preparedStatement.setCharacterStream(
+        parameterIndex, wrapParameter(reader, SET_CHARACTER_STREAM), length);
+  }
+
+  @Override
+  public void setAsciiStream(int parameterIndex, InputStream x) throws SQLException {
+    preparedStatement.setAsciiStream(parameterIndex, wrapParameter(x, SET_ASCII_STREAM));
+  }
+
+  @Override
+  public void setBinaryStream(int parameterIndex, InputStream x) throws SQLException {
+    preparedStatement.setBinaryStream(parameterIndex, wrapParameter(x, SET_BINARY_STREAM));
+  }
+
+  @Override
+  public void setCharacterStream(int parameterIndex, Reader reader) throws SQLException {
+    preparedStatement.setCharacterStream(
+        parameterIndex, wrapParameter(reader, SET_CHARACTER_STREAM));
+  }
+
+  @Override
+  public void setNCharacterStream(int parameterIndex, Reader value) throws SQLException {
+    preparedStatement.setNCharacterStream(
+        parameterIndex, wrapParameter(value, SET_N_CHARACTER_STREAM));
+  }
+
+  @Override
+  public void setClob(int parameterIndex, Reader reader) throws SQLException {
+    preparedStatement.setClob(parameterIndex, wrapParameter(reader, SET_CLOB));
+  }
+
+  @Override
+  public void setBlob(int parameterIndex, InputStream inputStream) throws SQLException {
+    preparedStatement.setBlob(parameterIndex, wrapParameter(inputStream, SET_BLOB));
+  }
+
+  @Override
+  public void setNClob(int parameterIndex, Reader reader) throws SQLException {
+    preparedStatement.setNClob(parameterIndex, wrapParameter(reader, SET_N_CLOB));
+  }
+
+}
@@ -0,0 +1,68 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * {@link Reader} which delegates all calls to the given {@link Reader} and records the characters
+ * read and the time blocked in reads in a {@link LobTransfer}, reported once the end of the stream
+ * is reached or the reader is closed.
+ */
+final class TracingReader extends FilterReader {
+
+  private final LobTransfer transfer;
+
+  TracingReader(Reader in, LobTransfer transfer) {
+    super(checkNotNull(in));
+    this.transfer = checkNotNull(transfer);
+  }
+
+  @Override
+  public int read() throws IOException {
+    long startNanos = System.nanoTime();
+    int c = in.read();
+    transfer.record(startNanos, c >= 0 ? 1 : 0);
+    if (c < 0) {
+      transfer.report();
+    }
+    return c;
+  }
+
+  // read(char[]) and read(CharBuffer) are inherited, calling read(char[], int, int).
+  @Override
+  public int read(char[] cbuf, int off, int len) throws IOException {
+    long startNanos = System.nanoTime();
+    int n = in.read(cbuf, off, len);
+    transfer.record(startNanos, n);
+    if (n < 0) {
+      transfer.report();
+    }
+    return n;
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      in.close();
+    } finally {
+      transfer.report();
+    }
+  }
+}
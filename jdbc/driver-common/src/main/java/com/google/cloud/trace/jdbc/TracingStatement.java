@@ -0,0 +1,509 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.Statement;
+import javax.annotation.Nullable;
+
+/**
+ * {@link Statement} which delegates all calls to the given {@link Statement} and records latency
+ * data for Stackdriver Trace about the calls executing SQL statements.
+ *
+ * <p>In contrast to {@link StatementInvocationHandler}, calls which are not traced are plain
+ * virtual calls to the wrapped statement without any reflection or boxing of arguments. The flip
+ * side is that vendor-specific interfaces of the wrapped statement are only accessible via {@link
+ * #unwrap}.
+ */
+class TracingStatement implements Statement {
+
+  static final String EXECUTE = "JDBC.Statement#execute";
+  static final String EXECUTE_QUERY = "JDBC.Statement#executeQuery";
+  static final String EXECUTE_UPDATE = "JDBC.Statement#executeUpdate";
+  static final String EXECUTE_BATCH = "JDBC.Statement#executeBatch";
+
+  /** The wrapped JDBC {@link Statement}. */
+  private final Statement statement;
+
+  /** The {@link Connection} which created this statement, as seen by the client. */
+  private final Connection connection;
+
+  private final TraceOptions traceOptions;
+
+  private final TraceService traceService;
+
+  /** The SQL text passed when preparing the statement, if any. */
+  @Nullable final String sql;
+
+  /** The transaction tracker of the connection, if any. */
+  @Nullable private final Transaction transaction;
+
+  /** The counter of repeated statements of the connection, if enabled. */
+  @Nullable private final RepeatedStatements repeatedStatements;
+
+  /** The labels of the connection, if enabled. */
+  @Nullable private final ConnectionLabels connectionLabels;
+
+  /** The current batch, allocated on the first call to {@code addBatch}. */
+  @Nullable private SqlBatch batch;
+
+  /** The current result set, if traced. */
+  @Nullable private TracingResultSet resultSet;
+
+  /** The SQL text of the last execution, if known, see {@link #getResultSet}. */
+  @Nullable private String executedSql;
+
+  TracingStatement(
+      Statement statement,
+      Connection connection,
+      TraceOptions traceOptions,
+      TraceService traceService) {
+    this(statement, connection, traceOptions, traceService, null);
+  }
+
+  TracingStatement(
+      Statement statement,
+      Connection connection,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      @Nullable String sql) {
+    this(statement, connection, traceOptions, traceService, sql, null, null, null);
+  }
+
+  TracingStatement(
+      Statement statement,
+      Connection connection,
+      TraceOptions traceOptions,
+      TraceService traceService,
+      @Nullable String sql,
+      @Nullable Transaction transaction,
+      @Nullable RepeatedStatements repeatedStatements,
+      @Nullable ConnectionLabels connectionLabels) {
+    this.statement = checkNotNull(statement);
+    this.connection = checkNotNull(connection);
+    this.traceOptions = checkNotNull(traceOptions);
+    this.traceService = checkNotNull(traceService);
+    this.sql = sql;
+    this.transaction = transaction;
+    this.repeatedStatements = repeatedStatements;
+    this.connectionLabels = connectionLabels;
+  }
+
+  /**
+   * Starts a new span for executing the specified SQL text, see {@link StatementSpan#open}, and
+   * remembers the SQL text for the result set of the execution.
+   */
+  StatementSpan open(String spanName, @Nullable String sql) {
+    executedSql = sql;
+    return StatementSpan.open(
+        traceService,
+        traceOptions,
+        spanName,
+        sql,
+        transaction,
+        repeatedStatements,
+        connectionLabels);
+  }
+
+  /**
+   * Starts a new span for executing the current batch and annotates it with the metadata of the
+   * batch, if not empty. Plain statements are annotated with the batched SQL text if all batched
+   * SQL texts share the same fingerprint.
+   */
+  private StatementSpan openBatch(String spanName) {
+    if (batch == null || batch.isEmpty()) {
+      return open(spanName, sql);
+    }
+    StatementSpan span = open(spanName, sql != null ? sql : batch.sql());
+    batch.annotate(span);
+    return span;
+  }
+
+  /**
+   * Wraps the specified result set of this statement for tracing iterating its rows, if enabled.
+   * The previous result set, if any, is implicitly closed and thus reported.
+   */
+  @Nullable
+  ResultSet wrap(@Nullable ResultSet resultSet, @Nullable String sql, long executionNanos) {
+    if (resultSet == null || !traceOptions.resultSets()) {
+      return resultSet;
+    }
+    if (this.resultSet != null) {
+      if (this.resultSet.wraps(resultSet)) {
+        return this.resultSet;
+      }
+      this.resultSet.report();
+    }
+    this.resultSet =
+        new TracingResultSet(resultSet, this, traceOptions, traceService, sql, executionNanos);
+    return this.resultSet;
+  }
+
+  /**
+   * Wraps the specified stream passed as a parameter for tracing the JDBC driver reading it, if
+   * enabled, see {@link LobTransfer}.
+   */
+  @Nullable
+  InputStream wrapParameter(@Nullable InputStream in, String spanName) {
+    return LobTransfer.wrap(in, traceOptions, traceService, spanName);
+  }
+
+  /**
+   * Wraps the specified reader passed as a parameter for tracing the JDBC driver reading it, if
+   * enabled, see {@link LobTransfer}.
+   */
+  @Nullable
+  Reader wrapParameter(@Nullable Reader reader, String spanName) {
+    return LobTransfer.wrap(reader, traceOptions, traceService, spanName);
+  }
+
+  /** Returns the current batch. */
+  SqlBatch batch() {
+    if (batch == null) {
+      batch = new SqlBatch();
+    }
+    return batch;
+  }
+
+  private void clearBatchMetadata() {
+    if (batch != null) {
+      batch.clear();
+    }
+  }
+
+  @Override
+  public ResultSet executeQuery(String sql) throws SQLException {
+    long executionNanos = System.nanoTime();
+    ResultSet resultSet;
+    StatementSpan span = open(EXECUTE_QUERY, sql);
+    try {
+      resultSet = statement.executeQuery(span.comment(sql));
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+    return wrap(resultSet, sql, executionNanos);
+  }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException {
+    StatementSpan span = open(EXECUTE_UPDATE, sql);
+    try {
+      return statement.executeUpdate(span.comment(sql));
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public void close() throws SQLException {
+    try {
+      statement.close();
+    } finally {
+      // Closing a statement closes its current result set.
+      if (resultSet != null) {
+        resultSet.report();
+      }
+    }
+  }
+
+  @Override
+  public int getMaxFieldSize() throws SQLException {
+    return statement.getMaxFieldSize();
+  }
+
+  @Override
+  public void setMaxFieldSize(int max) throws SQLException {
+    statement.setMaxFieldSize(max);
+  }
+
+  @Override
+  public int getMaxRows() throws SQLException {
+    return statement.getMaxRows();
+  }
+
+  @Override
+  public void setMaxRows(int max) throws SQLException {
+    statement.setMaxRows(max);
+  }
+
+  @Override
+  public void setEscapeProcessing(boolean enable) throws SQLException {
+    statement.setEscapeProcessing(enable);
+  }
+
+  @Override
+  public int getQueryTimeout() throws SQLException {
+    return statement.getQueryTimeout();
+  }
+
+  @Override
+  public void setQueryTimeout(int seconds) throws SQLException {
+    statement.setQueryTimeout(seconds);
+  }
+
+  @Override
+  public void cancel() throws SQLException {
+    statement.cancel();
+  }
+
+  @Override
+  public SQLWarning getWarnings() throws SQLException {
+    return statement.getWarnings();
+  }
+
+  @Override
+  public void clearWarnings() throws SQLException {
+    statement.clearWarnings();
+  }
+
+  @Override
+  public void setCursorName(String name) throws SQLException {
+    statement.setCursorName(name);
+  }
+
+  @Override
+  public boolean execute(String sql) throws SQLException {
+    StatementSpan span = open(EXECUTE, sql);
+    try {
+      return statement.execute(span.comment(sql));
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public ResultSet getResultSet() throws SQLException {
+    return wrap(statement.getResultSet(), executedSql, System.nanoTime());
+  }
+
+  @Override
+  public int getUpdateCount() throws SQLException {
+    return statement.getUpdateCount();
+  }
+
+  @Override
+  public boolean getMoreResults() throws SQLException {
+    return statement.getMoreResults();
+  }
+
+  @Override
+  public void setFetchDirection(int direction) throws SQLException {
+    statement.setFetchDirection(direction);
+  }
+
+  @Override
+  public int getFetchDirection() throws SQLException {
+    return statement.getFetchDirection();
+  }
+
+  @Override
+  public void setFetchSize(int rows) throws SQLException {
+    statement.setFetchSize(rows);
+  }
+
+  @Override
+  public int getFetchSize() throws SQLException {
+    return statement.getFetchSize();
+  }
+
+  @Override
+  public int getResultSetConcurrency() throws SQLException {
+    return statement.getResultSetConcurrency();
+  }
+
+  @Override
+  public int getResultSetType() throws SQLException {
+    return statement.getResultSetType();
+  }
+
+  @Override
+  public void addBatch(String sql) throws SQLException {
+    statement.addBatch(sql);
+    batch().add(sql);
+  }
+
+  @Override
+  public void clearBatch() throws SQLException {
+    statement.clearBatch();
+    clearBatchMetadata();
+  }
+
+  @Override
+  public int[] executeBatch() throws SQLException {
+    StatementSpan span = openBatch(EXECUTE_BATCH);
+    try {
+      return statement.executeBatch();
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+      // The batch is reset to empty once executed, even if the execution failed.
+      clearBatchMetadata();
+    }
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return connection;
+  }
+
+  @Override
+  public boolean getMoreResults(int current) throws SQLException {
+    return statement.getMoreResults(current);
+  }
+
+  @Override
+  public ResultSet getGeneratedKeys() throws SQLException {
+    return statement.getGeneratedKeys();
+  }
+
+  @Override
+  public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
+    StatementSpan span = open(EXECUTE_UPDATE, sql);
+    try {
+      return statement.executeUpdate(span.comment(sql), autoGeneratedKeys);
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public int executeUpdate(String sql, int[] columnIndexes) throws SQLException {
+    StatementSpan span = open(EXECUTE_UPDATE, sql);
+    try {
+      return statement.executeUpdate(span.comment(sql), columnIndexes);
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public int executeUpdate(String sql, String[] columnNames) throws SQLException {
+    StatementSpan span = open(EXECUTE_UPDATE, sql);
+    try {
+      return statement.executeUpdate(span.comment(sql), columnNames);
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public boolean execute(String sql, int autoGeneratedKeys) throws SQLException {
+    StatementSpan span = open(EXECUTE, sql);
+    try {
+      return statement.execute(span.comment(sql), autoGeneratedKeys);
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public boolean execute(String sql, int[] columnIndexes) throws SQLException {
+    StatementSpan span = open(EXECUTE, sql);
+    try {
+      return statement.execute(span.comment(sql), columnIndexes);
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public boolean execute(String sql, String[] columnNames) throws SQLException {
+    StatementSpan span = open(EXECUTE, sql);
+    try {
+      return statement.execute(span.comment(sql), columnNames);
+    } catch (Throwable t) {
+      span.failed(t);
+      throw t;
+    } finally {
+      span.close();
+    }
+  }
+
+  @Override
+  public int getResultSetHoldability() throws SQLException {
+    return statement.getResultSetHoldability();
+  }
+
+  @Override
+  public boolean isClosed() throws SQLException {
+    return statement.isClosed();
+  }
+
+  @Override
+  public void setPoolable(boolean poolable) throws SQLException {
+    statement.setPoolable(poolable);
+  }
+
+  @Override
+  public boolean isPoolable() throws SQLException {
+    return statement.isPoolable();
+  }
+
+  @Override
+  public void closeOnCompletion() throws SQLException {
+    statement.closeOnCompletion();
+  }
+
+  @Override
+  public boolean isCloseOnCompletion() throws SQLException {
+    return statement.isCloseOnCompletion();
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this); // Else the wrapped statement would escape tracing.
+    }
+    return iface.isInstance(statement) ? iface.cast(statement) : statement.unwrap(iface);
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(statement) || statement.isWrapperFor(iface);
+  }
+}
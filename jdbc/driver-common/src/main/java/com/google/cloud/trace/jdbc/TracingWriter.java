@@ -0,0 +1,76 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * {@link Writer} which delegates all calls to the given {@link Writer} and records the characters
+ * written and the time blocked in writes in a {@link LobTransfer}, reported once the writer is
+ * closed.
+ */
+final class TracingWriter extends FilterWriter {
+
+  private final LobTransfer transfer;
+
+  TracingWriter(Writer out, LobTransfer transfer) {
+    super(checkNotNull(out));
+    this.transfer = checkNotNull(transfer);
+  }
+
+  @Override
+  public void write(int c) throws IOException {
+    long startNanos = System.nanoTime();
+    out.write(c);
+    transfer.record(startNanos, 1);
+  }
+
+  // write(char[]) and write(String) are inherited, calling the methods below.
+  @Override
+  public void write(char[] cbuf, int off, int len) throws IOException {
+    long startNanos = System.nanoTime();
+    out.write(cbuf, off, len);
+    transfer.record(startNanos, len);
+  }
+
+  @Override
+  public void write(String str, int off, int len) throws IOException {
+    long startNanos = System.nanoTime();
+    out.write(str, off, len);
+    transfer.record(startNanos, len);
+  }
+
+  @Override
+  public void flush() throws IOException {
+    long startNanos = System.nanoTime();
+    out.flush();
+    transfer.record(startNanos, 0);
+  }
+
+  @Override
+  public void close() throws IOException {
+    long startNanos = System.nanoTime();
+    try {
+      out.close();
+      transfer.record(startNanos, 0);
+    } finally {
+      transfer.report();
+    }
+  }
+}
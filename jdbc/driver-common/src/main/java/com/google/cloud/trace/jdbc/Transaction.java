@@ -0,0 +1,175 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.common.base.Optional;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the transactions of a connection which is not in auto-commit mode, for recording their
+ * latency data for Stackdriver Trace.
+ *
+ * <p>A transaction begins with the first traced statement executed while not in auto-commit mode.
+ * It ends with a call to {@code commit}, {@code rollback} or {@code setAutoCommit(true)}, each
+ * traced as its own span annotated with the number of statements executed and the total time spent
+ * executing them. Calls ending no transaction, e.g. the rollback issued by a connection pool for an
+ * idle connection, are not traced.
+ *
+ * <p>The transaction itself is recorded as a span with the same labels when it ends, created
+ * retroactively from the start of its first statement, in the trace which executed it (see {@link
+ * TraceService#open(Object, String, long, long)}). Thus, it does not parent the spans of its
+ * statements, which would end after it if held open, but covers them. No transaction span is
+ * created in slow-query-only mode (see {@link TraceOptions#slowQueryThresholdNanos}), where the
+ * transaction's statistics are recorded on the span of the call ending it, if slow, nor with trace
+ * APIs which do not support retroactive spans.
+ *
+ * <p>Like the connection itself, this class is not thread-safe.
+ */
+final class Transaction {
+
+  static final String SPAN_NAME = "JDBC.Transaction";
+  static final String COMMIT = "JDBC.Connection#commit";
+  static final String ROLLBACK = "JDBC.Connection#rollback";
+  static final String SET_AUTO_COMMIT = "JDBC.Connection#setAutoCommit";
+
+  /** The wrapped JDBC {@link Connection}. */
+  private final Connection conn;
+
+  private final TraceOptions traceOptions;
+
+  private final TraceService traceService;
+
+  /** The auto-commit mode of the connection, once known. */
+  @Nullable private Boolean autoCommit;
+
+  private boolean active;
+
+  /** {@link System#nanoTime} at the beginning of the active transaction. */
+  private long beginNanos;
+
+  /** The trace which began the active transaction, see {@link TraceService#currentTrace}. */
+  @Nullable private Object trace;
+
+  private int statements;
+
+  private long statementNanos;
+
+  Transaction(Connection conn, TraceOptions traceOptions, TraceService traceService) {
+    this.conn = checkNotNull(conn);
+    this.traceOptions = checkNotNull(traceOptions);
+    this.traceService = checkNotNull(traceService);
+  }
+
+  /** Records the auto-commit mode set on the connection. */
+  void setAutoCommit(boolean autoCommit) {
+    this.autoCommit = autoCommit;
+  }
+
+  /**
+   * Returns whether the connection is in auto-commit mode, asking the connection the first time
+   * unless set before.
+   */
+  private boolean isAutoCommit() {
+    if (autoCommit == null) {
+      try {
+        autoCommit = conn.getAutoCommit();
+      } catch (SQLException e) {
+        // Assume the JDBC default.
+        autoCommit = true;
+      }
+    }
+    return autoCommit;
+  }
+
+  /** Returns whether a transaction is active. */
+  boolean isActive() {
+    return active;
+  }
+
+  /** Begins a transaction, unless active or in auto-commit mode, before executing a statement. */
+  void beforeStatement() {
+    if (active || isAutoCommit()) {
+      return;
+    }
+    active = true;
+    beginNanos = System.nanoTime();
+    trace = traceService.currentTrace();
+  }
+
+  /** Adds the execution of a statement which took the specified time to the active transaction. */
+  void afterStatement(long elapsedNanos) {
+    if (active) {
+      statements++;
+      statementNanos += elapsedNanos;
+    }
+  }
+
+  /**
+   * Starts a new span for the specified call ending the active transaction, e.g. {@code commit}, or
+   * a span which is not recorded if there is no active transaction.
+   */
+  StatementSpan openEnd(String spanName) {
+    return StatementSpan.open(
+        active ? traceService : TraceService.NOOP, traceOptions, spanName, null);
+  }
+
+  /**
+   * Ends the specified span opened by {@link #openEnd} and the active transaction, if any, whether
+   * the call ending it succeeded or not.
+   */
+  void closeEnd(StatementSpan endSpan) {
+    checkNotNull(endSpan);
+
+    try {
+      if (active) {
+        annotate(endSpan);
+      }
+      endSpan.close();
+    } finally {
+      end();
+    }
+  }
+
+  /** Ends the active transaction, if any, e.g. when the connection is closed. */
+  void end() {
+    if (!active) {
+      return;
+    }
+    active = false;
+    if (traceOptions.slowQueryThresholdNanos() <= 0 && traceService.supportsRetroactiveSpans()) {
+      try (TraceService.Span span =
+          traceService.open(trace, SPAN_NAME, beginNanos, System.nanoTime())) {
+        annotate(span);
+      }
+    }
+    trace = null;
+    statements = 0;
+    statementNanos = 0;
+  }
+
+  private void annotate(TraceService.Span span) {
+    if (span.isRecording()) {
+      span.annotate(Label.TRANSACTION_STATEMENTS, Optional.of(String.valueOf(statements)));
+      span.annotate(
+          Label.TRANSACTION_DB_MICROS,
+          Optional.of(String.valueOf(TimeUnit.NANOSECONDS.toMicros(statementNanos))));
+    }
+  }
+}
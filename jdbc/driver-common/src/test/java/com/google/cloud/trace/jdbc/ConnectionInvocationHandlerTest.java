@@ -17,10 +17,14 @@ package com.google.cloud.trace.jdbc;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.google.common.base.Optional;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -30,6 +34,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
 import static org.mockito.Mockito.doThrow;
 
 /** Unit tests for {@link ConnectionInvocationHandler}. */
@@ -47,6 +52,10 @@ public class ConnectionInvocationHandlerTest {
   @Before
   public void before() {
     when(mockTraceService.open(any(String.class))).thenReturn(mockTraceSpan);
+    when(mockTraceService.open(any(), any(String.class), anyLong(), anyLong()))
+        .thenReturn(mockTraceSpan);
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(true);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
     connectionInvocationHandler =
         new ConnectionInvocationHandler(
             mockRealConnection, TraceOptions.of(new Properties()), mockTraceService);
@@ -60,6 +69,38 @@ public class ConnectionInvocationHandlerTest {
     verify(mockRealConnection).close();
   }
 
+  @Test
+  public void invoke_close_fails_transaction() throws Throwable {
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+    Exception expectedException = new SQLException();
+    doThrow(expectedException).when(mockRealConnection).close();
+
+    connectionInvocationHandler.invoke(
+        mockProxy,
+        Connection.class.getDeclaredMethod("setAutoCommit", boolean.class),
+        new Object[] {false});
+    Statement statement =
+        (Statement)
+            connectionInvocationHandler.invoke(
+                mockProxy, Connection.class.getDeclaredMethod("createStatement"), new Object[0]);
+    statement.execute("some sql text");
+    try {
+      connectionInvocationHandler.invoke(
+          mockProxy, Connection.class.getDeclaredMethod("close"), new Object[0]);
+      fail("expected SQLException");
+    } catch (Exception actualException) {
+      assertThat(actualException).isSameAs(expectedException);
+    }
+
+    // The transaction span is created nevertheless.
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealConnection);
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockRealConnection).close();
+    inOrder.verify(mockTraceService).open(any(), eq(Transaction.SPAN_NAME), anyLong(), anyLong());
+    inOrder.verify(mockTraceSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).close();
+  }
+
   @Test
   public void invoke_commit_fails() throws Throwable {
     Exception expectedException = new SQLException();
@@ -76,6 +117,35 @@ public class ConnectionInvocationHandlerTest {
     verify(mockRealConnection).commit();
   }
 
+  @Test
+  public void invoke_commit_transaction() throws Throwable {
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+
+    connectionInvocationHandler.invoke(
+        mockProxy,
+        Connection.class.getDeclaredMethod("setAutoCommit", boolean.class),
+        new Object[] {false});
+    Statement statement =
+        (Statement)
+            connectionInvocationHandler.invoke(
+                mockProxy, Connection.class.getDeclaredMethod("createStatement"), new Object[0]);
+    statement.execute("some sql text");
+    connectionInvocationHandler.invoke(
+        mockProxy, Connection.class.getDeclaredMethod("commit"), new Object[0]);
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealConnection);
+    inOrder.verify(mockRealConnection).setAutoCommit(false);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#execute");
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockTraceService).open(Transaction.COMMIT);
+    inOrder.verify(mockRealConnection).commit();
+    inOrder.verify(mockTraceSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockTraceService).open(any(), eq(Transaction.SPAN_NAME), anyLong(), anyLong());
+    inOrder.verify(mockTraceSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).close();
+  }
+
   @Test
   public void invoke_createStatement() throws Throwable {
     when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
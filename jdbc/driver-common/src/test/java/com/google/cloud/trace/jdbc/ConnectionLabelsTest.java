@@ -0,0 +1,135 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.Arrays.asList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link ConnectionLabels}. */
+@RunWith(JUnit4.class)
+public class ConnectionLabelsTest {
+
+  private final Connection mockConnection = mock(Connection.class);
+  private final DatabaseMetaData mockMetaData = mock(DatabaseMetaData.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+
+  private static final TraceOptions TRACE_OPTIONS =
+      TraceOptions.builder()
+          .setEnabled(true)
+          .setSqlScrubber(Scrubbers.KEEP)
+          .setUrlScrubber(Scrubbers.URL_SCRUBBER)
+          .setConnectionLabels(true)
+          .build();
+
+  @Test
+  public void create() {
+    assertThat(ConnectionLabels.create(mockConnection, TRACE_OPTIONS)).isNotNull();
+    assertThat(
+            ConnectionLabels.create(
+                mockConnection,
+                TraceOptions.builder()
+                    .setEnabled(true)
+                    .setSqlScrubber(Scrubbers.KEEP)
+                    .setUrlScrubber(Scrubbers.KEEP)
+                    .build()))
+        .isNull();
+  }
+
+  @Test
+  public void annotate_derives_once() throws Exception {
+    String url = "jdbc:mysql://localhost:3306/db?user=root&password=secret";
+    when(mockConnection.getMetaData()).thenReturn(mockMetaData);
+    when(mockMetaData.getURL()).thenReturn(url);
+    when(mockMetaData.getDatabaseProductName()).thenReturn("MySQL");
+    when(mockMetaData.getDatabaseProductVersion()).thenReturn("5.7.14");
+    ConnectionLabels labels = new ConnectionLabels(mockConnection, TRACE_OPTIONS);
+    verify(mockConnection, times(1)).getMetaData(); // Derived outside of any span.
+
+    labels.annotate(mockTraceSpan);
+    labels.annotate(mockTraceSpan);
+
+    verify(mockConnection, times(1)).getMetaData();
+    verify(mockTraceSpan, times(2))
+        .annotate(Label.DATABASE_URL, Scrubbers.URL_SCRUBBER.apply(url));
+    verify(mockTraceSpan, times(2)).annotate(Label.DATABASE_PRODUCT, Optional.of("MySQL"));
+    verify(mockTraceSpan, times(2)).annotate(Label.DATABASE_VERSION, Optional.of("5.7.14"));
+    verifyNoMoreInteractions(mockTraceSpan);
+  }
+
+  @Test
+  public void create_per_driver_connection() throws Exception {
+    Connection mockPooledConnection1 = mock(Connection.class);
+    Connection mockPooledConnection2 = mock(Connection.class);
+    for (Connection mockPooledConnection : asList(mockPooledConnection1, mockPooledConnection2)) {
+      // Spec-compliant pools return their own connections when unwrapping to Connection.
+      when(mockPooledConnection.isWrapperFor(Connection.class)).thenReturn(true);
+      when(mockPooledConnection.unwrap(Connection.class)).thenReturn(mockPooledConnection);
+      when(mockPooledConnection.getMetaData()).thenReturn(mockMetaData);
+    }
+    when(mockMetaData.getConnection()).thenReturn(mockConnection);
+    when(mockMetaData.getDatabaseProductName()).thenReturn("MySQL");
+
+    ConnectionLabels.create(mockPooledConnection1, TRACE_OPTIONS).annotate(mockTraceSpan);
+    ConnectionLabels.create(mockPooledConnection2, TRACE_OPTIONS).annotate(mockTraceSpan);
+    ConnectionLabels.create(mockConnection, TRACE_OPTIONS).annotate(mockTraceSpan);
+
+    verify(mockMetaData, times(1)).getDatabaseProductName();
+    verify(mockConnection, never()).getMetaData();
+    verify(mockTraceSpan, times(3)).annotate(Label.DATABASE_PRODUCT, Optional.of("MySQL"));
+    verifyNoMoreInteractions(mockTraceSpan);
+  }
+
+  @Test
+  public void create_metaData_fails_unchecked() throws Exception {
+    when(mockConnection.getMetaData()).thenReturn(mockMetaData);
+    when(mockMetaData.getDatabaseProductName()).thenReturn("MySQL");
+    when(mockMetaData.getDatabaseProductVersion()).thenThrow(new AbstractMethodError());
+    Connection mockOtherConnection = mock(Connection.class);
+    when(mockOtherConnection.getMetaData()).thenThrow(new IllegalStateException());
+
+    ConnectionLabels.create(mockConnection, TRACE_OPTIONS).annotate(mockTraceSpan);
+    ConnectionLabels.create(mockOtherConnection, TRACE_OPTIONS).annotate(mockTraceSpan);
+
+    // Labeled with whatever was derived before the failure.
+    verify(mockTraceSpan).annotate(Label.DATABASE_PRODUCT, Optional.of("MySQL"));
+    verifyNoMoreInteractions(mockTraceSpan);
+  }
+
+  @Test
+  public void annotate_without_metaData() throws Exception {
+    when(mockConnection.getMetaData()).thenThrow(new SQLException());
+    ConnectionLabels labels = new ConnectionLabels(mockConnection, TRACE_OPTIONS);
+
+    labels.annotate(mockTraceSpan);
+    new ConnectionLabels(mockConnection, TRACE_OPTIONS).annotate(mockTraceSpan);
+
+    verify(mockConnection, times(1)).getMetaData(); // Not retried.
+    verifyNoMoreInteractions(mockTraceSpan);
+  }
+}
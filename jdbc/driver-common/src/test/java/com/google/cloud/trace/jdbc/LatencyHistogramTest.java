@@ -0,0 +1,141 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link LatencyHistogram}. */
+@RunWith(JUnit4.class)
+public class LatencyHistogramTest {
+
+  @Test
+  public void bucket() {
+    assertThat(LatencyHistogram.bucket(-1)).isEqualTo(0);
+    assertThat(LatencyHistogram.bucket(0)).isEqualTo(0);
+    assertThat(LatencyHistogram.bucket(3)).isEqualTo(3);
+    assertThat(LatencyHistogram.bucket(4)).isEqualTo(4);
+    assertThat(LatencyHistogram.bucket(7)).isEqualTo(7);
+    assertThat(LatencyHistogram.bucket(8)).isEqualTo(8);
+    assertThat(LatencyHistogram.bucket(9)).isEqualTo(8);
+    assertThat(LatencyHistogram.bucket(10)).isEqualTo(9);
+    assertThat(LatencyHistogram.bucket(0xffffffffL)).isEqualTo(LatencyHistogram.BUCKETS - 1);
+    assertThat(LatencyHistogram.bucket(0x100000000L)).isEqualTo(LatencyHistogram.BUCKETS - 1);
+    assertThat(LatencyHistogram.bucket(0x140000000L)).isEqualTo(LatencyHistogram.BUCKETS - 1);
+    assertThat(LatencyHistogram.bucket(Long.MAX_VALUE)).isEqualTo(LatencyHistogram.BUCKETS - 1);
+  }
+
+  @Test
+  public void upperBound() {
+    for (int bucket = 0; bucket < LatencyHistogram.BUCKETS; bucket++) {
+      long upperBound = LatencyHistogram.upperBound(bucket);
+      assertThat(LatencyHistogram.bucket(upperBound)).isEqualTo(bucket);
+      if (bucket < LatencyHistogram.BUCKETS - 1) {
+        assertThat(LatencyHistogram.bucket(upperBound + 1)).isEqualTo(bucket + 1);
+      }
+    }
+    assertThat(LatencyHistogram.upperBound(LatencyHistogram.BUCKETS - 1)).isEqualTo(0xffffffffL);
+  }
+
+  @Test
+  public void snapshot() {
+    LatencyHistogram histogram = new LatencyHistogram("0123456789abcdef", "select ? from t");
+    for (int i = 1; i <= 100; i++) {
+      histogram.record(TimeUnit.MILLISECONDS.toNanos(i), i % 10 == 0);
+    }
+    histogram.recordRows(42);
+
+    StatementStatistics.Snapshot snapshot = histogram.snapshot();
+
+    assertThat(snapshot.fingerprint()).isEqualTo("0123456789abcdef");
+    assertThat(snapshot.sql()).isEqualTo("select ? from t");
+    assertThat(snapshot.count()).isEqualTo(100);
+    assertThat(snapshot.errors()).isEqualTo(10);
+    assertThat(snapshot.rows()).isEqualTo(42);
+    assertThat(snapshot.totalMicros()).isEqualTo(5050000);
+    assertThat(snapshot.maxMicros()).isEqualTo(100000);
+    assertThat(snapshot.p50Micros()).isAtLeast(50000L);
+    assertThat(snapshot.p50Micros()).isAtMost(62500L);
+    assertThat(snapshot.p90Micros()).isAtLeast(90000L);
+    assertThat(snapshot.p90Micros()).isAtMost(100000L);
+    assertThat(snapshot.p99Micros()).isAtLeast(99000L);
+    assertThat(snapshot.p99Micros()).isAtMost(100000L);
+    assertThat(histogram.getCount()).isEqualTo(100);
+    assertThat(histogram.getP99Micros()).isEqualTo(snapshot.p99Micros());
+  }
+
+  @Test
+  public void recordPrepare() {
+    LatencyHistogram histogram = new LatencyHistogram("0123456789abcdef", "select ? from t");
+    histogram.recordPrepare(TimeUnit.MICROSECONDS.toNanos(300), false);
+    histogram.recordPrepare(TimeUnit.MICROSECONDS.toNanos(20), true);
+    histogram.recordPrepare(TimeUnit.MICROSECONDS.toNanos(10), true);
+
+    StatementStatistics.Snapshot snapshot = histogram.snapshot();
+
+    assertThat(snapshot.prepares()).isEqualTo(3);
+    assertThat(snapshot.firstPrepares()).isEqualTo(1);
+    assertThat(snapshot.prepareMicros()).isEqualTo(330);
+    assertThat(snapshot.count()).isEqualTo(0); // Prepares are no executions.
+    assertThat(histogram.getFirstPrepares()).isEqualTo(1);
+  }
+
+  @Test
+  public void snapshot_empty() {
+    StatementStatistics.Snapshot snapshot = new LatencyHistogram("other", "").snapshot();
+
+    assertThat(snapshot.count()).isEqualTo(0);
+    assertThat(snapshot.p50Micros()).isEqualTo(0);
+    assertThat(snapshot.p99Micros()).isEqualTo(0);
+  }
+
+  @Test
+  public void record_concurrently() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram("0123456789abcdef", "select ?");
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    for (int thread = 0; thread < 8; thread++) {
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                start.await();
+              } catch (InterruptedException e) {
+                throw new AssertionError(e);
+              }
+              for (int i = 0; i < 10000; i++) {
+                histogram.record(TimeUnit.MICROSECONDS.toNanos(i % 100), false);
+              }
+            }
+          });
+    }
+    start.countDown();
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    StatementStatistics.Snapshot snapshot = histogram.snapshot();
+    assertThat(snapshot.count()).isEqualTo(80000);
+    assertThat(snapshot.totalMicros()).isEqualTo(8 * 100 * 4950);
+    assertThat(snapshot.maxMicros()).isEqualTo(99);
+  }
+}
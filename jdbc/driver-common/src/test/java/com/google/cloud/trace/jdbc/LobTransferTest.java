@@ -0,0 +1,195 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.sql.Blob;
+import java.sql.Clob;
+import java.sql.NClob;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Unit tests for {@link LobTransfer}, {@link TracingInputStream}, {@link TracingReader}, {@link
+ * TracingOutputStream} and {@link TracingWriter}.
+ */
+@RunWith(JUnit4.class)
+public class LobTransferTest {
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+
+  private static final TraceOptions TRACE_OPTIONS =
+      TraceOptions.builder()
+          .setEnabled(true)
+          .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+          .setUrlScrubber(Scrubbers.KEEP)
+          .setLobs(true)
+          .build();
+
+  @Before
+  public void before() {
+    when(mockTraceService.open(any(String.class), anyLong(), anyLong())).thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+  }
+
+  @Test
+  public void report() {
+    LobTransfer transfer = new LobTransfer(mockTraceService, "JDBC.Blob#getBytes", Label.LOB_BYTES);
+
+    transfer.record(System.nanoTime(), 3);
+    transfer.record(System.nanoTime(), 4);
+    transfer.report();
+    transfer.report();
+
+    verify(mockTraceService, times(1)).open(eq("JDBC.Blob#getBytes"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_BYTES, Optional.of("7"));
+    verify(mockTraceSpan).annotate(eq(Label.LOB_BLOCKED_MICROS), any(Optional.class));
+    verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void report_nothing_recorded() {
+    LobTransfer transfer = new LobTransfer(mockTraceService, "JDBC.Blob#getBytes", Label.LOB_BYTES);
+
+    transfer.report();
+
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void wrap_disabled() {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .build();
+    InputStream in = new ByteArrayInputStream(new byte[0]);
+    Blob blob = mock(Blob.class);
+
+    assertThat(LobTransfer.wrap(in, traceOptions, mockTraceService, "span")).isSameAs(in);
+    assertThat(LobTransfer.wrap(blob, traceOptions, mockTraceService)).isSameAs(blob);
+    assertThat(LobTransfer.wrap((Blob) null, TRACE_OPTIONS, mockTraceService)).isNull();
+  }
+
+  @Test
+  public void unwrap() {
+    Blob blob = mock(Blob.class);
+    Clob clob = mock(Clob.class);
+    NClob nClob = mock(NClob.class);
+
+    assertThat(LobTransfer.unwrap(LobTransfer.wrap(blob, TRACE_OPTIONS, mockTraceService)))
+        .isSameAs(blob);
+    assertThat(LobTransfer.unwrap(LobTransfer.wrap(clob, TRACE_OPTIONS, mockTraceService)))
+        .isSameAs(clob);
+    assertThat(LobTransfer.unwrap(LobTransfer.wrap(nClob, TRACE_OPTIONS, mockTraceService)))
+        .isSameAs(nClob);
+    assertThat(LobTransfer.unwrap((Object) LobTransfer.wrap(blob, TRACE_OPTIONS, mockTraceService)))
+        .isSameAs(blob);
+    assertThat(LobTransfer.unwrap((Object) "text")).isEqualTo("text");
+  }
+
+  @Test
+  public void InputStream_read_to_end() throws Exception {
+    InputStream in =
+        LobTransfer.wrap(
+            new ByteArrayInputStream(new byte[10]), TRACE_OPTIONS, mockTraceService, "span");
+
+    assertThat(in.read()).isEqualTo(0);
+    assertThat(in.read(new byte[4])).isEqualTo(4);
+    assertThat(in.read(new byte[8])).isEqualTo(5);
+    assertThat(in.read(new byte[8])).isEqualTo(-1);
+    in.close();
+
+    verify(mockTraceService, times(1)).open(eq("span"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_BYTES, Optional.of("10"));
+  }
+
+  @Test
+  public void InputStream_close_before_end() throws Exception {
+    InputStream in =
+        LobTransfer.wrap(
+            new ByteArrayInputStream(new byte[10]), TRACE_OPTIONS, mockTraceService, "span");
+
+    assertThat(in.read(new byte[4])).isEqualTo(4);
+    verifyNoMoreInteractions(mockTraceService); // No trace span created before the end.
+    in.close();
+
+    verify(mockTraceSpan).annotate(Label.LOB_BYTES, Optional.of("4"));
+  }
+
+  @Test
+  public void Reader_read_to_end() throws Exception {
+    Reader reader =
+        LobTransfer.wrap(new StringReader("some text"), TRACE_OPTIONS, mockTraceService, "span");
+
+    assertThat(reader.read(new char[16])).isEqualTo(9);
+    assertThat(reader.read()).isEqualTo(-1);
+
+    verify(mockTraceService, times(1)).open(eq("span"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_CHARS, Optional.of("9"));
+  }
+
+  @Test
+  public void OutputStream_close() throws Exception {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    OutputStream out = LobTransfer.wrap(bytes, TRACE_OPTIONS, mockTraceService, "span");
+
+    out.write(1);
+    out.write(new byte[5]);
+    out.flush();
+    verifyNoMoreInteractions(mockTraceService); // No trace span created before closing.
+    out.close();
+
+    assertThat(bytes.size()).isEqualTo(6);
+    verify(mockTraceSpan).annotate(Label.LOB_BYTES, Optional.of("6"));
+  }
+
+  @Test
+  public void Writer_close() throws Exception {
+    StringWriter chars = new StringWriter();
+    Writer writer = LobTransfer.wrap(chars, TRACE_OPTIONS, mockTraceService, "span");
+
+    writer.write("some text");
+    writer.write('!');
+    writer.close();
+    writer.close();
+
+    assertThat(chars.toString()).isEqualTo("some text!");
+    verify(mockTraceService, times(1)).open(eq("span"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_CHARS, Optional.of("10"));
+  }
+}
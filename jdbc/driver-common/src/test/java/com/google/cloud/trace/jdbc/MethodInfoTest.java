@@ -0,0 +1,112 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link MethodInfo}. */
+@RunWith(JUnit4.class)
+public class MethodInfoTest {
+
+  @Test
+  public void Statement_execute() throws Exception {
+    MethodInfo methodInfo = MethodInfo.of(Statement.class.getMethod("execute", String.class));
+
+    assertThat(methodInfo.traced()).isTrue();
+    assertThat(methodInfo.sqlArgumentIndex()).isEqualTo(0);
+    assertThat(methodInfo.closes()).isFalse();
+    assertThat(methodInfo.spanName()).isEqualTo("JDBC.Statement#execute");
+  }
+
+  @Test
+  public void PreparedStatement_executeQuery() throws Exception {
+    MethodInfo methodInfo = MethodInfo.of(PreparedStatement.class.getMethod("executeQuery"));
+
+    assertThat(methodInfo.traced()).isTrue();
+    assertThat(methodInfo.sqlArgumentIndex()).isEqualTo(MethodInfo.NO_SQL_ARGUMENT);
+    assertThat(methodInfo.spanName()).isEqualTo("JDBC.Statement#executeQuery");
+  }
+
+  @Test
+  public void PreparedStatement_setString() throws Exception {
+    MethodInfo methodInfo =
+        MethodInfo.of(PreparedStatement.class.getMethod("setString", int.class, String.class));
+
+    assertThat(methodInfo.traced()).isFalse();
+    assertThat(methodInfo.sqlArgumentIndex()).isEqualTo(MethodInfo.NO_SQL_ARGUMENT);
+    assertThat(methodInfo.spanName()).isNull();
+  }
+
+  @Test
+  public void Connection_prepareStatement() throws Exception {
+    MethodInfo methodInfo =
+        MethodInfo.of(Connection.class.getMethod("prepareStatement", String.class, int.class));
+
+    assertThat(methodInfo.traced()).isFalse();
+    assertThat(methodInfo.sqlArgumentIndex()).isEqualTo(0);
+    assertThat(methodInfo.spanName()).isEqualTo(PrepareTracker.PREPARE_STATEMENT);
+  }
+
+  @Test
+  public void Connection_close() throws Exception {
+    MethodInfo methodInfo = MethodInfo.of(Connection.class.getMethod("close"));
+
+    assertThat(methodInfo.traced()).isFalse();
+    assertThat(methodInfo.endsTransaction()).isFalse();
+    assertThat(methodInfo.closes()).isTrue();
+    assertThat(methodInfo.spanName()).isNull();
+  }
+
+  @Test
+  public void Connection_commit() throws Exception {
+    MethodInfo methodInfo = MethodInfo.of(Connection.class.getMethod("commit"));
+
+    assertThat(methodInfo.traced()).isFalse();
+    assertThat(methodInfo.endsTransaction()).isTrue();
+    assertThat(methodInfo.spanName()).isEqualTo(Transaction.COMMIT);
+  }
+
+  @Test
+  public void Connection_setAutoCommit() throws Exception {
+    MethodInfo methodInfo =
+        MethodInfo.of(Connection.class.getMethod("setAutoCommit", boolean.class));
+
+    assertThat(methodInfo.endsTransaction()).isTrue();
+    assertThat(methodInfo.spanName()).isEqualTo(Transaction.SET_AUTO_COMMIT);
+  }
+
+  @Test
+  public void Connection_rollback_savepoint() throws Exception {
+    MethodInfo methodInfo =
+        MethodInfo.of(Connection.class.getMethod("rollback", Savepoint.class));
+
+    assertThat(methodInfo.endsTransaction()).isFalse();
+    assertThat(methodInfo.spanName()).isNull();
+  }
+
+  @Test
+  public void of_same_instance() throws Exception {
+    assertThat(MethodInfo.of(Statement.class.getMethod("executeBatch")))
+        .isSameAs(MethodInfo.of(Statement.class.getMethod("executeBatch")));
+  }
+}
@@ -17,14 +17,19 @@ package com.google.cloud.trace.jdbc;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.startsWith;
+import static org.mockito.Mockito.ignoreStubs;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.common.base.Optional;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
@@ -53,6 +58,8 @@ public class NonRegisteringDriverTest {
   @Before
   public void before() throws Exception {
     when(mockTraceService.open(any(String.class))).thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+    when(mockRealDriver.acceptsURL(startsWith("jdbc:mockdriver"))).thenReturn(true);
     driver = new NonRegisteringDriver(mockTraceService);
     DriverManager.registerDriver(mockRealDriver);
   }
@@ -96,7 +103,7 @@ public class NonRegisteringDriverTest {
         driver.connect("jdbc:stackdriver:mockdriver?user=root&password=123456", properties);
     conn.close();
 
-    assertThat(conn).isNotNull();
+    assertThat(Proxy.isProxyClass(conn.getClass())).isTrue();
 
     InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealDriver, mockRealConnection);
     inOrder.verify(mockTraceService).open("JDBC.Driver#connect");
@@ -104,9 +111,30 @@ public class NonRegisteringDriverTest {
         .verify(mockTraceSpan)
         .annotate(Label.DATABASE_URL, Optional.of("jdbc:mockdriver?<...>"));
     inOrder.verify(mockRealDriver).connect("jdbc:mockdriver?user=root&password=123456", properties);
+    inOrder.verify(mockRealConnection).getMetaData(); // Connection labels.
     inOrder.verify(mockTraceSpan).close();
     inOrder.verify(mockRealConnection).close();
-    verifyNoMoreInteractions(mockTraceService, mockTraceSpan, mockRealDriver, mockRealConnection);
+    verifyNoMoreInteractions(mockTraceService, mockRealConnection);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan, mockRealDriver));
+  }
+
+  @Test
+  public void connect_delegating() throws Exception {
+    when(mockRealDriver.connect(any(String.class), any(Properties.class)))
+        .thenReturn(mockRealConnection);
+
+    Properties properties =
+        new Properties() {
+          {
+            put("stackdriver.trace.dynamicProxies", "false");
+          }
+        };
+
+    Connection conn = driver.connect("jdbc:stackdriver:mockdriver", properties);
+    conn.close();
+
+    assertThat(conn).isInstanceOf(TracingConnection.class);
+    verify(mockRealConnection).close();
   }
 
   @Test
@@ -130,8 +158,8 @@ public class NonRegisteringDriverTest {
     InOrder inOrder = inOrder(mockTraceService, mockRealDriver, mockRealConnection);
     inOrder.verify(mockRealDriver).connect("jdbc:mockdriver?user=root&password=123456", properties);
     inOrder.verify(mockRealConnection).close();
-    verifyNoMoreInteractions(
-        mockTraceService, mockRealDriver, mockRealConnection); // No trace span created.
+    verifyNoMoreInteractions(mockTraceService, mockRealConnection); // No trace span created.
+    verifyNoMoreInteractions(ignoreStubs(mockRealDriver));
   }
 
   @Test
@@ -167,7 +195,8 @@ public class NonRegisteringDriverTest {
     inOrder.verify(mockRealDriver).connect("jdbc:mockdriver?user=root&password=123456", properties);
     inOrder.verify(mockTraceSpan).close();
     inOrder.verify(mockRealConnection).close();
-    verifyNoMoreInteractions(mockTraceService, mockTraceSpan, mockRealDriver, mockRealConnection);
+    verifyNoMoreInteractions(mockTraceService, mockRealConnection);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan, mockRealDriver));
   }
 
   @Test
@@ -190,6 +219,73 @@ public class NonRegisteringDriverTest {
     inOrder.verify(mockTraceSpan).close();
   }
 
+  @Test
+  public void connect_caches_real_driver() throws Exception {
+    when(mockRealDriver.connect(any(String.class), any(Properties.class)))
+        .thenReturn(mockRealConnection);
+
+    Properties info = new Properties();
+    driver.connect("jdbc:stackdriver:mockdriver://host/db1", info);
+    driver.connect("jdbc:stackdriver:mockdriver://host/db2", info);
+
+    verify(mockRealDriver, times(1)).acceptsURL(anyString());
+    verify(mockRealDriver).connect("jdbc:mockdriver://host/db1", info);
+    verify(mockRealDriver).connect("jdbc:mockdriver://host/db2", info);
+  }
+
+  @Test
+  public void connect_real_driver_per_subprotocol() throws Exception {
+    Driver mockOtherDriver = mock(Driver.class);
+    Connection mockOtherConnection = mock(Connection.class);
+    when(mockOtherDriver.acceptsURL(startsWith("jdbc:otherdriver"))).thenReturn(true);
+    when(mockOtherDriver.connect(eq("jdbc:otherdriver:db"), any(Properties.class)))
+        .thenReturn(mockOtherConnection);
+    when(mockRealDriver.connect(eq("jdbc:mockdriver:db"), any(Properties.class)))
+        .thenReturn(mockRealConnection);
+    DriverManager.registerDriver(mockOtherDriver);
+    try {
+      Properties info = new Properties();
+      driver.connect("jdbc:stackdriver:mockdriver:db", info).close();
+      driver.connect("jdbc:stackdriver:otherdriver:db", info).close();
+
+      verify(mockRealConnection).close();
+      verify(mockOtherConnection).close();
+    } finally {
+      DriverManager.deregisterDriver(mockOtherDriver);
+    }
+  }
+
+  @Test
+  public void connect_falls_back_to_DriverManager() throws Exception {
+    // Both drivers share the sub-protocol, but only the other one accepts the second URL.
+    Driver mockOtherDriver = mock(Driver.class);
+    Connection mockOtherConnection = mock(Connection.class);
+    when(mockOtherDriver.connect(eq("jdbc:mockdriver:other"), any(Properties.class)))
+        .thenReturn(mockOtherConnection);
+    when(mockRealDriver.connect(eq("jdbc:mockdriver:db"), any(Properties.class)))
+        .thenReturn(mockRealConnection);
+    DriverManager.registerDriver(mockOtherDriver);
+    try {
+      Properties info = new Properties();
+      driver.connect("jdbc:stackdriver:mockdriver:db", info).close();
+      driver.connect("jdbc:stackdriver:mockdriver:other", info).close();
+
+      verify(mockRealConnection).close();
+      verify(mockOtherConnection).close();
+    } finally {
+      DriverManager.deregisterDriver(mockOtherDriver);
+    }
+  }
+
+  @Test
+  public void connect_no_suitable_driver() throws Exception {
+    try {
+      driver.connect("jdbc:stackdriver:unknown://host/db", new Properties());
+      fail("expected SQLException");
+    } catch (SQLException expected) {
+    }
+  }
+
   @Test
   public void getMajorVersion() {
     assertThat(driver.getMajorVersion()).isEqualTo(1);
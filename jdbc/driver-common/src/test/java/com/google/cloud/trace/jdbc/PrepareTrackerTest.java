@@ -0,0 +1,189 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.ignoreStubs;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+
+/** Unit tests for {@link PrepareTracker}. */
+@RunWith(JUnit4.class)
+public class PrepareTrackerTest {
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+
+  private final StatementStatistics statistics = new StatementStatistics(10, null);
+
+  private final TraceOptions traceOptions =
+      TraceOptions.builder()
+          .setEnabled(true)
+          .setSqlScrubber(Scrubbers.KEEP)
+          .setUrlScrubber(Scrubbers.KEEP)
+          .setPrepares(true)
+          .build();
+
+  private final PrepareTracker prepares = new PrepareTracker(traceOptions);
+
+  @Before
+  public void before() {
+    when(mockTraceService.open(eq(PrepareTracker.PREPARE_STATEMENT), anyLong(), anyLong()))
+        .thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+  }
+
+  @Test
+  public void create() {
+    assertThat(PrepareTracker.create(traceOptions)).isNotNull();
+    assertThat(
+            PrepareTracker.create(
+                TraceOptions.builder()
+                    .setEnabled(true)
+                    .setSqlScrubber(Scrubbers.KEEP)
+                    .setUrlScrubber(Scrubbers.KEEP)
+                    .build()))
+        .isNull();
+  }
+
+  @Test
+  public void record() {
+    long startNanoTime = System.nanoTime();
+    prepares.record(
+        PrepareTracker.PREPARE_STATEMENT, "SELECT 1", startNanoTime, mockTraceService);
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan);
+    inOrder
+        .verify(mockTraceService)
+        .open(eq(PrepareTracker.PREPARE_STATEMENT), eq(startNanoTime), anyLong());
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("SELECT 1"));
+    inOrder.verify(mockTraceSpan).annotate(Label.PREPARE_REPEATED, Optional.of("false"));
+    inOrder.verify(mockTraceSpan).annotate(Label.PREPARE_COUNT, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).annotate(Label.PREPARE_DISTINCT_SQL, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).annotate(Label.PREPARE_DISTINCT_SHAPES, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).close();
+    verifyNoMoreInteractions(mockTraceService);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+  }
+
+  @Test
+  public void record_excluded() {
+    PrepareTracker prepares =
+        new PrepareTracker(
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.KEEP)
+                .setUrlScrubber(Scrubbers.KEEP)
+                .setSqlExclusions(
+                    SqlExclusions.shared(ImmutableSet.of("SELECT 1"), ImmutableSet.<String>of()))
+                .setPrepares(true)
+                .build());
+
+    prepares.record(PrepareTracker.PREPARE_STATEMENT, "SELECT 1", 0, mockTraceService);
+    prepares.record(
+        PrepareTracker.PREPARE_STATEMENT, "SELECT 2", System.nanoTime(), mockTraceService);
+
+    verify(mockTraceSpan).annotate(Label.PREPARE_COUNT, Optional.of("1"));
+  }
+
+  @Test
+  public void record_repeated_and_distinct() {
+    prepares.record(PrepareTracker.PREPARE_STATEMENT, "SELECT a FROM t WHERE id = 1", 0, null);
+    prepares.record(PrepareTracker.PREPARE_STATEMENT, "SELECT a FROM t WHERE id = 1", 0, null);
+    prepares.record(PrepareTracker.PREPARE_STATEMENT, "SELECT a FROM t WHERE id = 2", 0, null);
+    prepares.record(
+        PrepareTracker.PREPARE_STATEMENT, "SELECT b FROM t", System.nanoTime(), mockTraceService);
+
+    verify(mockTraceSpan).annotate(Label.PREPARE_REPEATED, Optional.of("false"));
+    verify(mockTraceSpan).annotate(Label.PREPARE_COUNT, Optional.of("4"));
+    verify(mockTraceSpan).annotate(Label.PREPARE_DISTINCT_SQL, Optional.of("3"));
+    verify(mockTraceSpan).annotate(Label.PREPARE_DISTINCT_SHAPES, Optional.of("2"));
+  }
+
+  @Test
+  public void record_bounded() {
+    for (int i = 0; i < PrepareTracker.MAX_DISTINCT + 10; i++) {
+      prepares.record(PrepareTracker.PREPARE_STATEMENT, "SELECT " + i, 0, null);
+    }
+    // Not remembered, thus counted as distinct again.
+    prepares.record(
+        PrepareTracker.PREPARE_STATEMENT,
+        "SELECT " + (PrepareTracker.MAX_DISTINCT + 1),
+        System.nanoTime(),
+        mockTraceService);
+
+    verify(mockTraceSpan).annotate(Label.PREPARE_REPEATED, Optional.of("false"));
+    verify(mockTraceSpan)
+        .annotate(
+            Label.PREPARE_DISTINCT_SQL,
+            Optional.of(String.valueOf(PrepareTracker.MAX_DISTINCT + 11)));
+  }
+
+  @Test
+  public void record_statistics() {
+    PrepareTracker prepares =
+        new PrepareTracker(
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.KEEP)
+                .setUrlScrubber(Scrubbers.KEEP)
+                .setStatementStatistics(Optional.of(statistics))
+                .setPrepares(true)
+                .build());
+
+    long startNanoTime = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(2);
+    prepares.record(PrepareTracker.PREPARE_STATEMENT, "SELECT 1", startNanoTime, null);
+    prepares.record(PrepareTracker.PREPARE_STATEMENT, "SELECT 1", startNanoTime, null);
+    prepares.record(PrepareTracker.PREPARE_STATEMENT, "SELECT 2", startNanoTime, null);
+
+    assertThat(statistics.snapshot()).hasSize(1);
+    StatementStatistics.Snapshot snapshot = statistics.snapshot().get(0);
+    assertThat(snapshot.prepares()).isEqualTo(3);
+    assertThat(snapshot.firstPrepares()).isEqualTo(2);
+    assertThat(snapshot.prepareMicros()).isAtLeast(6000L);
+  }
+
+  @Test
+  public void record_below_threshold() {
+    PrepareTracker prepares =
+        new PrepareTracker(
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.KEEP)
+                .setUrlScrubber(Scrubbers.KEEP)
+                .setSlowQueryThresholdNanos(TimeUnit.DAYS.toNanos(1))
+                .setPrepares(true)
+                .build());
+
+    prepares.record(
+        PrepareTracker.PREPARE_STATEMENT, "SELECT 1", System.nanoTime(), mockTraceService);
+
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+}
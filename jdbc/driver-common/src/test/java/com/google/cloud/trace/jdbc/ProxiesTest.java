@@ -54,4 +54,15 @@ public class ProxiesTest {
     ((VendorSpecificPreparedStatement) proxy).vendorSpecificMethod();
     verify(mockStatement).vendorSpecificMethod();
   }
+
+  @Test
+  public void newProxyInstance_reuses_proxy_class() throws Exception {
+    InvocationHandler mockInvocationHandler = mock(InvocationHandler.class);
+
+    Object proxy1 = Proxies.newProxyInstance(mockStatement, mockInvocationHandler);
+    Object proxy2 = Proxies.newProxyInstance(mockStatement, mockInvocationHandler);
+
+    assertThat(proxy1).isNotSameAs(proxy2);
+    assertThat(proxy1.getClass()).isSameAs(proxy2.getClass());
+  }
 }
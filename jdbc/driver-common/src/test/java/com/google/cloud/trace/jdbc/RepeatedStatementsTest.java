@@ -0,0 +1,189 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.ignoreStubs;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+
+/** Unit tests for {@link RepeatedStatements}. */
+@RunWith(JUnit4.class)
+public class RepeatedStatementsTest {
+
+  private static final String SQL = "SELECT * FROM users WHERE id = 1";
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+
+  private final TraceOptions traceOptions =
+      TraceOptions.builder()
+          .setEnabled(true)
+          .setSqlScrubber(Scrubbers.KEEP)
+          .setUrlScrubber(Scrubbers.KEEP)
+          .setRepeatedStatementThreshold(3)
+          .build();
+
+  private final RepeatedStatements repeatedStatements =
+      new RepeatedStatements(traceOptions, mockTraceService);
+
+  /** Stands in for the trace of the current request. */
+  private final Object trace = new Object();
+
+  @Before
+  public void before() {
+    when(mockTraceService.currentTrace()).thenReturn(trace);
+    when(mockTraceService.open(RepeatedStatements.SPAN_NAME)).thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+  }
+
+  @Test
+  public void create() {
+    assertThat(RepeatedStatements.create(traceOptions, mockTraceService)).isNotNull();
+    assertThat(
+            RepeatedStatements.create(
+                TraceOptions.builder()
+                    .setEnabled(true)
+                    .setSqlScrubber(Scrubbers.KEEP)
+                    .setUrlScrubber(Scrubbers.KEEP)
+                    .build(),
+                mockTraceService))
+        .isNull();
+  }
+
+  @Test
+  public void record() {
+    repeatedStatements.record("SELECT * FROM users WHERE id = 1");
+    repeatedStatements.record("SELECT * FROM users WHERE id = 2");
+    verifyNoMoreInteractions(ignoreStubs(mockTraceService)); // Below the threshold.
+
+    repeatedStatements.record("SELECT * FROM users WHERE id = 3");
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan);
+    inOrder.verify(mockTraceService).open(RepeatedStatements.SPAN_NAME);
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(Label.SQL_TEXT, Optional.of("SELECT * FROM users WHERE id = 3"));
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(
+            Label.SQL_FINGERPRINT,
+            Optional.of(SqlFingerprint.of("SELECT * FROM users WHERE id = 3").hash()));
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_OPERATION, Optional.of("SELECT"));
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TABLE, Optional.of("users"));
+    inOrder.verify(mockTraceSpan).annotate(Label.REPEATED_STATEMENTS, Optional.of("3"));
+    inOrder.verify(mockTraceSpan).close();
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+
+    repeatedStatements.record("SELECT * FROM users WHERE id = 4");
+    verifyNoMoreInteractions(ignoreStubs(mockTraceService)); // Reported only once.
+  }
+
+  @Test
+  public void record_per_fingerprint() {
+    repeatedStatements.record(SQL);
+    repeatedStatements.record("SELECT * FROM orders WHERE id = 1");
+    repeatedStatements.record(SQL);
+    repeatedStatements.record("UPDATE users SET name = 'x'");
+
+    verifyNoMoreInteractions(ignoreStubs(mockTraceService));
+  }
+
+  @Test
+  public void record_new_trace() {
+    repeatedStatements.record(SQL);
+    repeatedStatements.record(SQL);
+    when(mockTraceService.currentTrace()).thenReturn(new Object());
+    repeatedStatements.record(SQL);
+    repeatedStatements.record(SQL);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceService)); // Counted per trace.
+
+    repeatedStatements.record(SQL);
+    verify(mockTraceService).open(RepeatedStatements.SPAN_NAME);
+  }
+
+  @Test
+  public void record_across_connections() {
+    RepeatedStatements otherRepeatedStatements =
+        new RepeatedStatements(traceOptions, mockTraceService);
+
+    repeatedStatements.record(SQL);
+    otherRepeatedStatements.record(SQL);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceService));
+
+    // E.g. on another connection checked out of the pool within the same request.
+    RepeatedStatements.create(traceOptions, mockTraceService).record(SQL);
+    verify(mockTraceService).open(RepeatedStatements.SPAN_NAME);
+  }
+
+  @Test
+  public void record_without_trace() {
+    when(mockTraceService.currentTrace()).thenReturn(null);
+
+    for (int i = 0; i < 5; i++) {
+      repeatedStatements.record(SQL);
+    }
+
+    verifyNoMoreInteractions(ignoreStubs(mockTraceService)); // Not counted.
+  }
+
+  @Test
+  public void record_bounded_per_trace() {
+    for (int i = 0; i < RepeatedStatements.MAX_FINGERPRINTS; i++) {
+      repeatedStatements.record("SELECT * FROM t" + i);
+    }
+    when(mockTraceService.currentTrace()).thenReturn(new Object());
+    for (int n = 0; n < 3; n++) {
+      repeatedStatements.record(SQL);
+    }
+
+    verify(mockTraceService).open(RepeatedStatements.SPAN_NAME);
+  }
+
+  @Test
+  public void record_many_fingerprints() {
+    for (int n = 0; n < 3; n++) {
+      for (int i = 0; i < RepeatedStatements.MAX_FINGERPRINTS; i++) {
+        repeatedStatements.record("SELECT * FROM t" + i);
+      }
+    }
+
+    verify(mockTraceService, times(RepeatedStatements.MAX_FINGERPRINTS))
+        .open(RepeatedStatements.SPAN_NAME);
+  }
+
+  @Test
+  public void record_bounded() {
+    for (int i = 0; i < RepeatedStatements.MAX_FINGERPRINTS; i++) {
+      repeatedStatements.record("SELECT * FROM t" + i);
+    }
+    for (int n = 0; n < 3; n++) {
+      repeatedStatements.record(SQL);
+    }
+
+    verifyNoMoreInteractions(ignoreStubs(mockTraceService)); // Not counted.
+  }
+}
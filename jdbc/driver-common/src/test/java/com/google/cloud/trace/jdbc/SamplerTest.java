@@ -0,0 +1,87 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Range;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link Sampler}. */
+@RunWith(JUnit4.class)
+public class SamplerTest {
+
+  @Test
+  public void sample_always() {
+    for (int i = 0; i < 1000; i++) {
+      assertThat(Sampler.ALWAYS.sample()).isTrue();
+    }
+  }
+
+  @Test
+  public void sample_never() {
+    Sampler sampler = Sampler.shared(0.0, 0.0);
+
+    for (int i = 0; i < 1000; i++) {
+      assertThat(sampler.sample()).isFalse();
+    }
+  }
+
+  @Test
+  public void sample_probability() {
+    Sampler sampler = Sampler.shared(0.5, 0.0);
+
+    int sampled = 0;
+    for (int i = 0; i < 10000; i++) {
+      if (sampler.sample()) {
+        sampled++;
+      }
+    }
+
+    assertThat(sampled).isIn(Range.open(4000, 6000));
+  }
+
+  @Test
+  public void sample_rate_limited() {
+    Sampler sampler = Sampler.shared(1.0, 10.0);
+
+    int sampled = 0;
+    for (int i = 0; i < 1000; i++) {
+      if (sampler.sample()) {
+        sampled++;
+      }
+    }
+
+    // One second worth of decisions, plus possibly one more as time passes.
+    assertThat(sampled).isIn(Range.closed(10, 11));
+  }
+
+  @Test
+  public void sample_rate_limited_below_one_per_second() {
+    Sampler sampler = Sampler.shared(1.0, 0.01);
+
+    assertThat(sampler.sample()).isTrue();
+    assertThat(sampler.sample()).isFalse();
+  }
+
+  @Test
+  public void shared() {
+    assertThat(Sampler.shared(1.0, 0.0)).isSameAs(Sampler.ALWAYS);
+    assertThat(Sampler.shared(0.25, 5.0)).isSameAs(Sampler.shared(0.25, 5.0));
+    assertThat(Sampler.shared(0.25, 5.0)).isNotSameAs(Sampler.shared(0.25, 6.0));
+  }
+}
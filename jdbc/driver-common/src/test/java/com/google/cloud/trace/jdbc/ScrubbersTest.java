@@ -50,7 +50,23 @@ public class ScrubbersTest {
     assertThat(Scrubbers.SQL_SCRUBBER.apply("? = call myproc(?)"))
         .isEqualTo(Optional.of("call <...>"));
     assertThat(Scrubbers.SQL_SCRUBBER.apply("/* actually not an insert */ select 1"))
-        .isEqualTo(Optional.of("insert <...>"));
+        .isEqualTo(Optional.of("select <...>"));
+    assertThat(Scrubbers.SQL_SCRUBBER.apply("-- actually not an insert\n\tSELECT 1"))
+        .isEqualTo(Optional.of("select <...>"));
+    assertThat(Scrubbers.SQL_SCRUBBER.apply("{call myproc(?)}"))
+        .isEqualTo(Optional.of("call <...>"));
+  }
+
+  @Test
+  public void scrubSql_keywords_as_whole_words_only() {
+    assertThat(Scrubbers.SQL_SCRUBBER.apply("updated_at = now()"))
+        .isEqualTo(Optional.of("<...>"));
+    assertThat(Scrubbers.SQL_SCRUBBER.apply("select updated_at from t1"))
+        .isEqualTo(Optional.of("select <...>"));
+    assertThat(Scrubbers.SQL_SCRUBBER.apply("'insert' \"delete\" `call` select"))
+        .isEqualTo(Optional.of("select <...>"));
+    assertThat(Scrubbers.SQL_SCRUBBER.apply("/* unterminated insert"))
+        .isEqualTo(Optional.of("<...>"));
   }
 
   @Test
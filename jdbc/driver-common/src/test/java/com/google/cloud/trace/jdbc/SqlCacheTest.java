@@ -0,0 +1,136 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import java.util.Set;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SqlCache}. */
+@RunWith(JUnit4.class)
+public class SqlCacheTest {
+
+  @Test
+  public void get_scrubs_once() {
+    Scrubbers.Scrubber scrubber = mock(Scrubbers.Scrubber.class);
+    when(scrubber.apply("select 1")).thenReturn(Optional.of("select <...>"));
+    SqlCache sqlCache = SqlCache.shared(scrubber, 10);
+
+    assertThat(sqlCache.get("select 1").sqlText()).isEqualTo(Optional.of("select <...>"));
+    assertThat(sqlCache.get("select 1").sqlText()).isEqualTo(Optional.of("select <...>"));
+
+    verify(scrubber, times(1)).apply("select 1");
+    assertThat(sqlCache.getHitCount()).isEqualTo(1);
+    assertThat(sqlCache.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void get_bounded() {
+    Scrubbers.Scrubber scrubber = mock(Scrubbers.Scrubber.class);
+    when(scrubber.apply(anyString())).thenReturn(Optional.<String>absent());
+    SqlCache sqlCache = SqlCache.shared(scrubber, 2);
+
+    sqlCache.get("select 1");
+    sqlCache.get("select 2");
+    sqlCache.get("select 3");
+
+    assertThat(sqlCache.getSize()).isEqualTo(2);
+    assertThat(sqlCache.getEvictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void get_bounded_by_length() {
+    Scrubbers.Scrubber scrubber = mock(Scrubbers.Scrubber.class);
+    when(scrubber.apply(anyString())).thenReturn(Optional.<String>absent());
+    SqlCache sqlCache = SqlCache.shared(scrubber, 3);
+
+    sqlCache.get("select 1");
+    sqlCache.get("select 2");
+    sqlCache.get("select 3 /*" + Strings.repeat(" ", SqlCache.CHARS_PER_WEIGHT) + "*/");
+
+    assertThat(sqlCache.getSize()).isEqualTo(2);
+    assertThat(sqlCache.getEvictionCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void get_fingerprints_lazily_once() {
+    Scrubbers.Scrubber scrubber = mock(Scrubbers.Scrubber.class);
+    when(scrubber.apply(anyString())).thenReturn(Optional.<String>absent());
+    SqlCache sqlCache = SqlCache.shared(scrubber, 11);
+
+    SqlFingerprint fingerprint = sqlCache.get("SELECT * FROM users").fingerprint();
+
+    assertThat(fingerprint.hash()).isEqualTo(SqlFingerprint.of("SELECT * FROM users").hash());
+    assertThat(sqlCache.get("SELECT * FROM users").fingerprint()).isSameAs(fingerprint);
+  }
+
+  @Test
+  public void get_disabled() {
+    Scrubbers.Scrubber scrubber = mock(Scrubbers.Scrubber.class);
+    when(scrubber.apply("select 1")).thenReturn(Optional.<String>absent());
+    SqlCache sqlCache = SqlCache.shared(scrubber, 0);
+
+    assertThat(sqlCache.get("select 1").sqlText()).isEqualTo(Optional.absent());
+    assertThat(sqlCache.get("select 1").sqlText()).isEqualTo(Optional.absent());
+
+    verify(scrubber, times(2)).apply("select 1");
+    assertThat(sqlCache.getSize()).isEqualTo(0);
+  }
+
+  @Test
+  public void mBean() throws Exception {
+    Scrubbers.Scrubber scrubber = mock(Scrubbers.Scrubber.class);
+    when(scrubber.apply("select 1")).thenReturn(Optional.<String>absent());
+    SqlCache sqlCache = SqlCache.shared(scrubber, 10);
+    MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+    SqlCache.register(sqlCache, mBeanServer);
+    sqlCache.get("select 1");
+    sqlCache.get("select 1");
+
+    Set<ObjectName> objectNames =
+        mBeanServer.queryNames(new ObjectName("com.google.cloud.trace.jdbc:type=SqlCache,*"), null);
+    assertThat(objectNames).hasSize(1);
+    ObjectName objectName = objectNames.iterator().next();
+    assertThat(mBeanServer.getAttribute(objectName, "MaximumSize")).isEqualTo(10L);
+    assertThat(mBeanServer.getAttribute(objectName, "Size")).isEqualTo(1L);
+    assertThat(mBeanServer.getAttribute(objectName, "HitCount")).isEqualTo(1L);
+    assertThat(mBeanServer.getAttribute(objectName, "MissCount")).isEqualTo(1L);
+    assertThat(mBeanServer.getAttribute(objectName, "HitRate")).isEqualTo(0.5);
+    assertThat(mBeanServer.getAttribute(objectName, "EvictionCount")).isEqualTo(0L);
+  }
+
+  @Test
+  public void shared() {
+    Scrubbers.Scrubber scrubber = mock(Scrubbers.Scrubber.class);
+
+    assertThat(SqlCache.shared(scrubber, 10)).isSameAs(SqlCache.shared(scrubber, 10));
+    assertThat(SqlCache.shared(scrubber, 10)).isNotSameAs(SqlCache.shared(scrubber, 20));
+    assertThat(SqlCache.shared(scrubber, 10))
+        .isNotSameAs(SqlCache.shared(mock(Scrubbers.Scrubber.class), 10));
+  }
+}
@@ -0,0 +1,46 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SqlComments}. */
+@RunWith(JUnit4.class)
+public class SqlCommentsTest {
+
+  @Test
+  public void traceParent() {
+    assertThat(
+            SqlComments.traceParent(
+                0x0af7651916cd43ddL, 0x8448eb211c80319cL, 0xb7ad6b7169203331L, true))
+        .isEqualTo("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+  }
+
+  @Test
+  public void traceParent_padded() {
+    assertThat(SqlComments.traceParent(0, 1, 2, false))
+        .isEqualTo("00-00000000000000000000000000000001-0000000000000002-00");
+  }
+
+  @Test
+  public void prefix() {
+    assertThat(SqlComments.prefix("00-01-02-01", "SELECT 1"))
+        .isEqualTo("/*traceparent='00-01-02-01'*/ SELECT 1");
+  }
+}
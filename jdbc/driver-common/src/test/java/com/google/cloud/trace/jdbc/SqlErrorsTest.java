@@ -0,0 +1,71 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import com.google.common.base.Optional;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SqlErrors}. */
+@RunWith(JUnit4.class)
+public class SqlErrorsTest {
+
+  @Test
+  public void category_subclass() {
+    assertThat(SqlErrors.category(new SQLTimeoutException())).isEqualTo(SqlErrors.TIMEOUT);
+    assertThat(SqlErrors.category(new SQLIntegrityConstraintViolationException()))
+        .isEqualTo(SqlErrors.CONSTRAINT);
+  }
+
+  @Test
+  public void category_sqlState() {
+    assertThat(SqlErrors.category(new SQLException("", "40001"))).isEqualTo(SqlErrors.ROLLBACK);
+    assertThat(SqlErrors.category(new SQLException("", "08S01"))).isEqualTo(SqlErrors.CONNECTION);
+    assertThat(SqlErrors.category(new SQLException("", "23505"))).isEqualTo(SqlErrors.CONSTRAINT);
+    assertThat(SqlErrors.category(new SQLException("", "42S02"))).isEqualTo(SqlErrors.SYNTAX);
+    assertThat(SqlErrors.category(new SQLException("", "HY000"))).isEqualTo(SqlErrors.OTHER);
+    assertThat(SqlErrors.category(new SQLException("", "4"))).isEqualTo(SqlErrors.OTHER);
+    assertThat(SqlErrors.category(new SQLException())).isEqualTo(SqlErrors.OTHER);
+    assertThat(SqlErrors.category(new SQLTransientException())).isEqualTo(SqlErrors.TRANSIENT);
+  }
+
+  @Test
+  public void category_not_SQLException() {
+    assertThat(SqlErrors.category(new IllegalStateException())).isEqualTo(SqlErrors.OTHER);
+  }
+
+  @Test
+  public void annotate() {
+    TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+
+    SqlErrors.annotate(mockTraceSpan, new SQLException("Table 't' doesn't exist", "42S02"), true);
+
+    verify(mockTraceSpan).annotate(Label.ERROR_NAME, Optional.of("java.sql.SQLException"));
+    verify(mockTraceSpan).annotate(Label.ERROR_CATEGORY, Optional.of(SqlErrors.SYNTAX));
+    verify(mockTraceSpan).annotate(Label.SQL_STATE, Optional.of("42S02"));
+    verify(mockTraceSpan).annotate(Label.ERROR_MESSAGE, Optional.of("Table 't' doesn't exist"));
+    verifyNoMoreInteractions(mockTraceSpan); // No vendor error code.
+  }
+}
@@ -0,0 +1,66 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SqlExclusions}. */
+@RunWith(JUnit4.class)
+public class SqlExclusionsTest {
+
+  @Test
+  public void excludes_none() {
+    assertThat(SqlExclusions.NONE.excludes("SELECT 1")).isFalse();
+    assertThat(SqlExclusions.NONE.excludes(null)).isFalse();
+    assertThat(SqlExclusions.shared(ImmutableSet.<String>of(), ImmutableSet.<String>of()))
+        .isSameAs(SqlExclusions.NONE);
+  }
+
+  @Test
+  public void excludes_sqlTexts() {
+    SqlExclusions exclusions =
+        SqlExclusions.shared(
+            ImmutableSet.of("SELECT 1", "/* ping */ SELECT 1"), ImmutableSet.<String>of());
+
+    assertThat(exclusions.excludes("SELECT 1")).isTrue();
+    assertThat(exclusions.excludes("/* ping */ SELECT 1")).isTrue();
+    assertThat(exclusions.excludes("select 1")).isFalse(); // Matched exactly.
+    assertThat(exclusions.excludes(null)).isFalse();
+  }
+
+  @Test
+  public void excludes_fingerprints() {
+    SqlExclusions exclusions =
+        SqlExclusions.shared(
+            ImmutableSet.<String>of(), ImmutableSet.of(SqlFingerprint.of("SELECT 1").hash()));
+
+    assertThat(exclusions.excludes("SELECT 1")).isTrue();
+    assertThat(exclusions.excludes("select  2")).isTrue(); // Same shape.
+    assertThat(exclusions.excludes("select  2")).isTrue(); // Cached decision.
+    assertThat(exclusions.excludes("SELECT * FROM t")).isFalse();
+    assertThat(exclusions.excludes("SELECT * FROM t")).isFalse();
+  }
+
+  @Test
+  public void shared() {
+    assertThat(SqlExclusions.shared(ImmutableSet.of("SELECT 1"), ImmutableSet.<String>of()))
+        .isSameAs(SqlExclusions.shared(ImmutableSet.of("SELECT 1"), ImmutableSet.<String>of()));
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Optional;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link SqlFingerprint}. */
+@RunWith(JUnit4.class)
+public class SqlFingerprintTest {
+
+  @Test
+  public void of_select() {
+    SqlFingerprint fingerprint =
+        SqlFingerprint.of("SELECT id, name FROM Users WHERE name = 'Bob' AND age > 42");
+
+    assertThat(fingerprint.normalizedSql())
+        .isEqualTo("select id, name from users where name = ? and age > ?");
+    assertThat(fingerprint.operation()).isEqualTo(Optional.of("SELECT"));
+    assertThat(fingerprint.table()).isEqualTo(Optional.of("users"));
+    assertThat(fingerprint.spanName()).isEqualTo(Optional.of("SELECT users"));
+    assertThat(fingerprint.hash()).hasLength(16);
+  }
+
+  @Test
+  public void of_same_shape() {
+    SqlFingerprint fingerprint =
+        SqlFingerprint.of("select * from t where a = 1 and b in (1, 2, 3)");
+
+    assertThat(SqlFingerprint.of("SELECT *\n  FROM t -- comment\n WHERE a=2 AND b IN (?)"))
+        .isEqualTo(fingerprint);
+    assertThat(SqlFingerprint.of("select * /* hint */ from t where a = $1 and b in (:x, 'y')"))
+        .isEqualTo(fingerprint);
+    assertThat(fingerprint.normalizedSql()).isEqualTo("select * from t where a = ? and b in (?)");
+  }
+
+  @Test
+  public void of_different_shape() {
+    assertThat(SqlFingerprint.of("select a from t").hash())
+        .isNotEqualTo(SqlFingerprint.of("select b from t").hash());
+  }
+
+  @Test
+  public void of_stable_hash() {
+    assertThat(SqlFingerprint.of("select 1").hash())
+        .isEqualTo(SqlFingerprint.of("select 2").hash());
+    assertThat(SqlFingerprint.of("select 1").hash()).matches("[0-9a-f]{16}");
+  }
+
+  @Test
+  public void of_literals() {
+    assertThat(
+            SqlFingerprint.of(
+                    "insert into t values ('it''s', 'a\\'b', -1.5e-3, 0x1F, X'0A', N'x', \"s\")")
+                .normalizedSql())
+        .isEqualTo("insert into t values (?, ?, - ?, ?, ?, ?, ?)");
+  }
+
+  @Test
+  public void of_in_subquery() {
+    assertThat(SqlFingerprint.of("select * from t where a in (select b from u)").normalizedSql())
+        .isEqualTo("select * from t where a in (select b from u)");
+    assertThat(
+            SqlFingerprint.of("select * from t where (a, b) in ((1, 2), (3, 4))").normalizedSql())
+        .isEqualTo("select * from t where (a, b) in ((?, ?), (?, ?))");
+  }
+
+  @Test
+  public void of_tables() {
+    assertThat(SqlFingerprint.of("insert into app.users (id) values (?)").spanName())
+        .isEqualTo(Optional.of("INSERT app.users"));
+    assertThat(SqlFingerprint.of("update \"Users\" set a = ?").spanName())
+        .isEqualTo(Optional.of("UPDATE Users"));
+    assertThat(SqlFingerprint.of("delete from `users` where id = ?").spanName())
+        .isEqualTo(Optional.of("DELETE users"));
+    assertThat(SqlFingerprint.of("{? = call get_user(?)}").spanName())
+        .isEqualTo(Optional.of("CALL get_user"));
+    assertThat(SqlFingerprint.of("select count(*) from (select * from t) x").spanName())
+        .isEqualTo(Optional.of("SELECT"));
+    assertThat(SqlFingerprint.of("select extract(year from d) from t").spanName())
+        .isEqualTo(Optional.of("SELECT t"));
+  }
+
+  @Test
+  public void of_with() {
+    SqlFingerprint fingerprint =
+        SqlFingerprint.of("with x as (select * from t) update u set a = (select a from x)");
+
+    assertThat(fingerprint.operation()).isEqualTo(Optional.of("UPDATE"));
+    assertThat(fingerprint.table()).isEqualTo(Optional.of("u"));
+  }
+
+  @Test
+  public void of_empty() {
+    SqlFingerprint fingerprint = SqlFingerprint.of(" -- nothing");
+
+    assertThat(fingerprint.normalizedSql()).isEmpty();
+    assertThat(fingerprint.operation()).isAbsent();
+    assertThat(fingerprint.table()).isAbsent();
+    assertThat(fingerprint.spanName()).isAbsent();
+  }
+}
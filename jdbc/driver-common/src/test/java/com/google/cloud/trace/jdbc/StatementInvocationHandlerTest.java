@@ -17,6 +17,7 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.ignoreStubs;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -39,6 +40,9 @@ import static org.mockito.Mockito.mock;
 @RunWith(JUnit4.class)
 public class StatementInvocationHandlerTest {
 
+  private static final String TRACE_PARENT =
+      "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
   private final TraceService mockTraceService = mock(TraceService.class);
   private final TraceService.Span mockTraceSpan =mock(TraceService.Span.class);
   private final Statement mockRealStatement=mock(Statement.class);
@@ -62,6 +66,7 @@ public class StatementInvocationHandlerTest {
   @Before
   public void before() {
     when(mockTraceService.open(any(String.class))).thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
   }
 
   @Test
@@ -74,7 +79,7 @@ public class StatementInvocationHandlerTest {
         mockProxy, Statement.class.getDeclaredMethod("close"), new Object[0]);
 
     verify(mockRealStatement).close();
-    verifyNoMoreInteractions(mockTraceSpan); // No trace span created.
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan)); // No trace span created.
   }
 
   @Test
@@ -94,7 +99,7 @@ public class StatementInvocationHandlerTest {
     }
 
     verify(mockRealStatement).close();
-    verifyNoMoreInteractions(mockTraceSpan); // No trace span created.
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan)); // No trace span created.
   }
 
   @Test
@@ -115,6 +120,36 @@ public class StatementInvocationHandlerTest {
     inOrder.verify(mockTraceSpan).close();
   }
 
+  @Test
+  public void invoke_Statement_execute_comments() throws Throwable {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSqlComments(true)
+            .build();
+    when(mockTraceSpan.traceParent()).thenReturn(TRACE_PARENT);
+    StatementInvocationHandler statementInvocationHandler =
+        new StatementInvocationHandler(
+            mockRealStatement, traceOptions, mockTraceService, Optional.<String>absent());
+    Object[] args = new Object[] {"DELETE FROM t"};
+
+    statementInvocationHandler.invoke(
+        mockProxy,
+        Statement.class.getDeclaredMethod("execute", new Class<?>[] {String.class}),
+        args);
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#execute");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("DELETE FROM t"));
+    inOrder
+        .verify(mockRealStatement)
+        .execute("/*traceparent='" + TRACE_PARENT + "'*/ DELETE FROM t");
+    inOrder.verify(mockTraceSpan).close();
+    assertThat(args[0]).isEqualTo("DELETE FROM t"); // The caller's arguments are unchanged.
+  }
+
   @Test
   public void invoke_PreparedStatement_execute() throws Throwable {
     StatementInvocationHandler statementInvocationHandler =
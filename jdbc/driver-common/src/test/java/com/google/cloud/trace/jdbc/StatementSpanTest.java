@@ -0,0 +1,337 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.ignoreStubs;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+import java.sql.Connection;
+import java.sql.SQLException;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+/** Unit tests for {@link StatementSpan}. */
+@RunWith(JUnit4.class)
+public class StatementSpanTest {
+
+  private static final String TRACE_PARENT =
+      "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+
+  private static final TraceOptions TRACE_OPTIONS = traceOptions(0);
+
+  private static TraceOptions traceOptions(long slowQueryThresholdNanos) {
+    return TraceOptions.builder()
+        .setEnabled(true)
+        .setSqlScrubber(Scrubbers.KEEP)
+        .setUrlScrubber(Scrubbers.KEEP)
+        .setSlowQueryThresholdNanos(slowQueryThresholdNanos)
+        .build();
+  }
+
+  @Before
+  public void before() {
+    when(mockTraceService.open(any(String.class))).thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+    when(mockTraceService.open(any(String.class), anyLong(), anyLong())).thenReturn(mockTraceSpan);
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(true);
+  }
+
+  @Test
+  public void open_excluded() {
+    StatementStatistics statistics = new StatementStatistics(10, null);
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSqlExclusions(
+                SqlExclusions.shared(ImmutableSet.of("SELECT 1"), ImmutableSet.<String>of()))
+            .setStatementStatistics(Optional.of(statistics))
+            .build();
+    Transaction transaction =
+        new Transaction(mock(Connection.class), traceOptions, mockTraceService);
+
+    try (StatementSpan span =
+        StatementSpan.open(
+            mockTraceService,
+            traceOptions,
+            "JDBC.Statement#execute",
+            "SELECT 1",
+            transaction,
+            null,
+            null)) {
+      assertThat(span.isRecording()).isFalse();
+      assertThat(span.comment("SELECT 1")).isEqualTo("SELECT 1");
+    }
+
+    verifyNoMoreInteractions(mockTraceService);
+    assertThat(transaction.isActive()).isFalse();
+    assertThat(statistics.snapshot()).isEmpty();
+  }
+
+  @Test
+  public void open() {
+    try (TraceService.Span span =
+        StatementSpan.open(mockTraceService, TRACE_OPTIONS, "JDBC.Statement#execute", "sql")) {
+      verify(mockTraceService).open("JDBC.Statement#execute");
+      span.annotate(Label.BATCH_SIZE, Optional.of("2"));
+    }
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan);
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("sql"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SIZE, Optional.of("2"));
+    inOrder.verify(mockTraceSpan).close();
+    verifyNoMoreInteractions(mockTraceService);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+  }
+
+  @Test
+  public void open_not_recording() {
+    TraceService.Span mockUnrecordedSpan = mock(TraceService.Span.class);
+    when(mockTraceService.open(any(String.class))).thenReturn(mockUnrecordedSpan);
+
+    try (TraceService.Span span =
+        StatementSpan.open(mockTraceService, TRACE_OPTIONS, "JDBC.Statement#execute", "sql")) {
+      assertThat(span.isRecording()).isFalse();
+    }
+
+    verify(mockUnrecordedSpan, never()).annotate(any(Label.class), any(Optional.class));
+    verify(mockUnrecordedSpan).close();
+  }
+
+  @Test
+  public void open_statistics() {
+    StatementStatistics statistics = new StatementStatistics(10, null);
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setStatementStatistics(Optional.of(statistics))
+            .build();
+
+    try (StatementSpan span =
+        StatementSpan.open(TraceService.NOOP, traceOptions, "JDBC.Statement#execute", "sql")) {
+      span.failed(new SQLException());
+    }
+
+    assertThat(statistics.snapshot()).hasSize(1);
+    assertThat(statistics.snapshot().get(0).fingerprint())
+        .isEqualTo(SqlFingerprint.of("sql").hash());
+    assertThat(statistics.snapshot().get(0).count()).isEqualTo(1);
+    assertThat(statistics.snapshot().get(0).errors()).isEqualTo(1);
+  }
+
+  @Test
+  public void open_threshold_fast() {
+    TraceOptions traceOptions = traceOptions(Long.MAX_VALUE);
+
+    try (TraceService.Span span =
+        StatementSpan.open(mockTraceService, traceOptions, "JDBC.Statement#execute", "sql")) {
+      span.annotate(Label.BATCH_SIZE, Optional.of("2"));
+    }
+
+    verify(mockTraceService).supportsRetroactiveSpans();
+    verifyNoMoreInteractions(mockTraceService);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan)); // No trace span created.
+  }
+
+  @Test
+  public void open_threshold_retroactive_spans_unsupported() {
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(false);
+    TraceOptions traceOptions = traceOptions(Long.MAX_VALUE);
+
+    try (TraceService.Span span =
+        StatementSpan.open(mockTraceService, traceOptions, "JDBC.Statement#execute", "sql")) {}
+
+    // Traced like without threshold, as the span could not be created with the original times.
+    verify(mockTraceService).open("JDBC.Statement#execute");
+    verify(mockTraceService, never()).open(any(String.class), anyLong(), anyLong());
+    verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void open_threshold_slow() throws Exception {
+    TraceOptions traceOptions = traceOptions(1);
+
+    long startNanoTime = System.nanoTime();
+    try (TraceService.Span span =
+        StatementSpan.open(mockTraceService, traceOptions, "JDBC.Statement#execute", "sql")) {
+      span.annotate(Label.BATCH_SIZE, Optional.of("2"));
+      verify(mockTraceService).supportsRetroactiveSpans();
+      verifyNoMoreInteractions(mockTraceService);
+      verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+      Thread.sleep(1);
+    }
+    long endNanoTime = System.nanoTime();
+
+    ArgumentCaptor<Long> start = ArgumentCaptor.forClass(Long.class);
+    ArgumentCaptor<Long> end = ArgumentCaptor.forClass(Long.class);
+    ArgumentCaptor<Optional> elapsedMicros = ArgumentCaptor.forClass(Optional.class);
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan);
+    inOrder
+        .verify(mockTraceService)
+        .open(eq("JDBC.Statement#execute"), start.capture(), end.capture());
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("sql"));
+    inOrder.verify(mockTraceSpan).annotate(eq(Label.ELAPSED_MICROS), elapsedMicros.capture());
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SIZE, Optional.of("2"));
+    inOrder.verify(mockTraceSpan).close();
+    verifyNoMoreInteractions(mockTraceService);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+
+    assertThat(start.getValue()).isAtLeast(startNanoTime);
+    assertThat(end.getValue()).isAtLeast(start.getValue() + 1000000);
+    assertThat(end.getValue()).isAtMost(endNanoTime);
+    assertThat(elapsedMicros.getValue().get())
+        .isEqualTo(String.valueOf((end.getValue() - start.getValue()) / 1000));
+  }
+
+  @Test
+  public void open_threshold_failed() {
+    TraceOptions traceOptions = traceOptions(Long.MAX_VALUE);
+
+    try (StatementSpan span =
+        StatementSpan.open(mockTraceService, traceOptions, "JDBC.Statement#execute", null)) {
+      span.failed(new SQLException());
+    }
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan);
+    inOrder.verify(mockTraceService).supportsRetroactiveSpans();
+    inOrder.verify(mockTraceService).open(eq("JDBC.Statement#execute"), anyLong(), anyLong());
+    inOrder.verify(mockTraceSpan).annotate(eq(Label.ELAPSED_MICROS), any(Optional.class));
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(Label.ERROR_NAME, Optional.of("java.sql.SQLException"));
+    inOrder.verify(mockTraceSpan).annotate(Label.ERROR_CATEGORY, Optional.of(SqlErrors.OTHER));
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_STATE, Optional.<String>absent());
+    inOrder.verify(mockTraceSpan).annotate(Label.ERROR_MESSAGE, Optional.<String>absent());
+    inOrder.verify(mockTraceSpan).close();
+    verifyNoMoreInteractions(mockTraceService);
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+  }
+
+  @Test
+  public void failed() {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setErrorStackTraces(true)
+            .build();
+    SQLException e = new SQLException("Deadlock found for 'secret'", "40001", 1213);
+
+    try (StatementSpan span =
+        StatementSpan.open(mockTraceService, traceOptions, "JDBC.Statement#execute", null)) {
+      span.failed(e);
+    }
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#execute");
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(Label.ERROR_NAME, Optional.of("java.sql.SQLException"));
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(Label.ERROR_CATEGORY, Optional.of(SqlErrors.ROLLBACK));
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_STATE, Optional.of("40001"));
+    inOrder.verify(mockTraceSpan).annotate(Label.ERROR_CODE, Optional.of("1213"));
+    inOrder.verify(mockTraceSpan).setStackTrace(e);
+    inOrder.verify(mockTraceSpan).close();
+    // The message is not annotated, as SQL texts are scrubbed.
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+  }
+
+  @Test
+  public void comment() {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSqlComments(true)
+            .build();
+    when(mockTraceSpan.traceParent()).thenReturn(TRACE_PARENT);
+
+    try (StatementSpan span =
+        StatementSpan.open(mockTraceService, traceOptions, "JDBC.Statement#execute", "SELECT 1")) {
+      assertThat(span.comment("SELECT 1"))
+          .isEqualTo("/*traceparent='" + TRACE_PARENT + "'*/ SELECT 1");
+    }
+  }
+
+  @Test
+  public void comment_disabled() {
+    when(mockTraceSpan.traceParent()).thenReturn(TRACE_PARENT);
+
+    try (StatementSpan span =
+        StatementSpan.open(mockTraceService, TRACE_OPTIONS, "JDBC.Statement#execute", "SELECT 1")) {
+      assertThat(span.comment("SELECT 1")).isSameAs("SELECT 1");
+    }
+  }
+
+  @Test
+  public void comment_not_recording() {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSqlComments(true)
+            .build();
+
+    try (StatementSpan span =
+        StatementSpan.open(
+            TraceService.NOOP, traceOptions, "JDBC.Statement#execute", "SELECT 1")) {
+      assertThat(span.comment("SELECT 1")).isSameAs("SELECT 1");
+    }
+  }
+
+  @Test
+  public void comment_threshold() {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSlowQueryThresholdNanos(Long.MAX_VALUE)
+            .setSqlComments(true)
+            .build();
+
+    try (StatementSpan span =
+        StatementSpan.open(mockTraceService, traceOptions, "JDBC.Statement#execute", "SELECT 1")) {
+      // The underlying span is not started yet.
+      assertThat(span.comment("SELECT 1")).isSameAs("SELECT 1");
+    }
+  }
+}
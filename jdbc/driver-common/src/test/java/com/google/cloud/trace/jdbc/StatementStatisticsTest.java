@@ -0,0 +1,103 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link StatementStatistics}. */
+@RunWith(JUnit4.class)
+public class StatementStatisticsTest {
+
+  private static final SqlFingerprint SELECT = SqlFingerprint.of("SELECT * FROM users WHERE id=1");
+  private static final SqlFingerprint UPDATE = SqlFingerprint.of("UPDATE users SET name='x'");
+  private static final SqlFingerprint DELETE = SqlFingerprint.of("DELETE FROM users");
+
+  @Test
+  public void snapshot() {
+    StatementStatistics statistics = new StatementStatistics(10, null);
+    statistics.record(SELECT, 1000, false);
+    statistics.record(SqlFingerprint.of("SELECT * FROM users WHERE id=2"), 2000, true);
+    statistics.recordRows(SELECT, 3);
+    statistics.record(UPDATE, 1000, false);
+
+    List<StatementStatistics.Snapshot> snapshots = statistics.snapshot();
+
+    assertThat(snapshots).hasSize(2);
+    StatementStatistics.Snapshot select =
+        snapshots.get(0).fingerprint().equals(SELECT.hash()) ? snapshots.get(0) : snapshots.get(1);
+    assertThat(select.sql()).isEqualTo(SELECT.normalizedSql());
+    assertThat(select.count()).isEqualTo(2);
+    assertThat(select.errors()).isEqualTo(1);
+    assertThat(select.rows()).isEqualTo(3);
+  }
+
+  @Test
+  public void snapshot_other() {
+    StatementStatistics statistics = new StatementStatistics(1, null);
+    statistics.record(SELECT, 1000, false);
+    statistics.record(UPDATE, 1000, false);
+    statistics.record(DELETE, 1000, true);
+
+    List<StatementStatistics.Snapshot> snapshots = statistics.snapshot();
+
+    assertThat(snapshots).hasSize(2);
+    assertThat(snapshots.get(0).fingerprint()).isEqualTo(SELECT.hash());
+    assertThat(snapshots.get(1).fingerprint()).isEqualTo(StatementStatistics.OTHER);
+    assertThat(snapshots.get(1).count()).isEqualTo(2);
+    assertThat(snapshots.get(1).errors()).isEqualTo(1);
+  }
+
+  @Test
+  public void mBeans() throws Exception {
+    MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+    StatementStatistics statistics = new StatementStatistics(10, mBeanServer);
+    statistics.record(SELECT, 1000, false);
+    statistics.record(SELECT, 3000, false);
+
+    assertThat(
+            mBeanServer.getAttribute(StatementStatistics.objectName(SELECT.hash()), "Sql"))
+        .isEqualTo(SELECT.normalizedSql());
+    assertThat(
+            mBeanServer.getAttribute(StatementStatistics.objectName(SELECT.hash()), "Count"))
+        .isEqualTo(2L);
+    assertThat(
+            mBeanServer.getAttribute(
+                StatementStatistics.objectName(StatementStatistics.OTHER), "Count"))
+        .isEqualTo(0L);
+  }
+
+  @Test
+  public void mBeans_already_registered() throws Exception {
+    MBeanServer mBeanServer = MBeanServerFactory.newMBeanServer();
+    new StatementStatistics(10, mBeanServer).record(SELECT, 1000, false);
+    StatementStatistics statistics = new StatementStatistics(10, mBeanServer);
+
+    statistics.record(SELECT, 1000, false); // Does not fail.
+
+    assertThat(statistics.snapshot()).hasSize(1);
+  }
+
+  @Test
+  public void getInstance() {
+    assertThat(StatementStatistics.getInstance()).isSameAs(StatementStatistics.getInstance());
+  }
+}
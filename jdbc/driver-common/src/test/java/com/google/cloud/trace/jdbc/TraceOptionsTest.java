@@ -16,6 +16,7 @@ package com.google.cloud.trace.jdbc;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.google.common.collect.ImmutableSet;
 import java.util.Properties;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -32,6 +33,277 @@ public class TraceOptionsTest {
     assertThat(traceOptions.enabled()).isTrue();
     assertThat(traceOptions.sqlScrubber()).isSameAs(Scrubbers.SQL_SCRUBBER);
     assertThat(traceOptions.urlScrubber()).isSameAs(Scrubbers.URL_SCRUBBER);
+    assertThat(traceOptions.dynamicProxies()).isTrue();
+    assertThat(traceOptions.sqlFingerprint()).isFalse();
+    assertThat(traceOptions.sqlSpanNames()).isFalse();
+    assertThat(traceOptions.connectionLabels()).isTrue();
+    assertThat(traceOptions.resultSets()).isFalse();
+    assertThat(traceOptions.slowQueryThresholdNanos()).isEqualTo(0);
+    assertThat(traceOptions.sampler()).isSameAs(Sampler.ALWAYS);
+    assertThat(traceOptions.samplePerConnection()).isFalse();
+    assertThat(traceOptions.sqlCache())
+        .isSameAs(SqlCache.shared(Scrubbers.SQL_SCRUBBER, TraceOptions.DEFAULT_SQL_CACHE_SIZE));
+    assertThat(traceOptions.statementStatistics().isPresent()).isFalse();
+    assertThat(traceOptions.prepares()).isFalse();
+    assertThat(traceOptions.repeatedStatementThreshold()).isEqualTo(0);
+    assertThat(traceOptions.logRepeatedStatements()).isFalse();
+    assertThat(traceOptions.sqlComments()).isFalse();
+    assertThat(traceOptions.lobs()).isFalse();
+    assertThat(traceOptions.sqlExclusions()).isSameAs(SqlExclusions.NONE);
+    assertThat(traceOptions.errorStackTraces()).isFalse();
+  }
+
+  @Test
+  public void of_sql_statistics() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.statistics", "true");
+              }
+            });
+
+    assertThat(traceOptions.statementStatistics().get())
+        .isSameAs(StatementStatistics.getInstance());
+  }
+
+  @Test
+  public void of_sql_prepares() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.prepares", "true");
+              }
+            });
+
+    assertThat(traceOptions.prepares()).isTrue();
+  }
+
+  @Test
+  public void of_sql_comments() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.comments", "true");
+              }
+            });
+
+    assertThat(traceOptions.sqlComments()).isTrue();
+  }
+
+  @Test
+  public void of_connectionLabels() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.connectionLabels", "false");
+              }
+            });
+
+    assertThat(traceOptions.connectionLabels()).isFalse();
+  }
+
+  @Test
+  public void of_lobs() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.lobs", "true");
+              }
+            });
+
+    assertThat(traceOptions.lobs()).isTrue();
+  }
+
+  @Test
+  public void of_errors_stackTraces() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.errors.stackTraces", "true");
+              }
+            });
+
+    assertThat(traceOptions.errorStackTraces()).isTrue();
+  }
+
+  @Test
+  public void of_sql_exclude() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.exclude", "SELECT 1; /* ping */ SELECT 1;");
+                put("stackdriver.trace.sql.excludeFingerprints", "0123456789abcdef, ");
+              }
+            });
+
+    assertThat(traceOptions.sqlExclusions())
+        .isSameAs(
+            SqlExclusions.shared(
+                ImmutableSet.of("SELECT 1", "/* ping */ SELECT 1"),
+                ImmutableSet.of("0123456789abcdef")));
+    assertThat(traceOptions.sqlExclusions().excludes("SELECT 1")).isTrue();
+  }
+
+  @Test
+  public void of_sql_repeated() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.repeatedThreshold", "20");
+                put("stackdriver.trace.sql.repeatedLog", "true");
+              }
+            });
+
+    assertThat(traceOptions.repeatedStatementThreshold()).isEqualTo(20);
+    assertThat(traceOptions.logRepeatedStatements()).isTrue();
+  }
+
+  @Test
+  public void of_sql_repeated_invalid() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.repeatedThreshold", "-1");
+              }
+            });
+
+    assertThat(traceOptions.repeatedStatementThreshold()).isEqualTo(0);
+  }
+
+  @Test
+  public void of_sql_thresholdMs() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.thresholdMs", "2.5");
+              }
+            });
+
+    assertThat(traceOptions.slowQueryThresholdNanos()).isEqualTo(2500000);
+  }
+
+  @Test
+  public void of_invalid_sql_thresholdMs() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.thresholdMs", "-1");
+              }
+            });
+
+    assertThat(traceOptions.slowQueryThresholdNanos()).isEqualTo(0);
+  }
+
+  @Test
+  public void of_sql_fingerprint_spanNames() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.fingerprint", "true");
+                put("stackdriver.trace.sql.spanNames", "true");
+              }
+            });
+
+    assertThat(traceOptions.sqlFingerprint()).isTrue();
+    assertThat(traceOptions.sqlSpanNames()).isTrue();
+  }
+
+  @Test
+  public void of_sampling() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sampling.probability", "0.5");
+                put("stackdriver.trace.sampling.maxPerSecond", "100");
+                put("stackdriver.trace.sampling.scope", "connection");
+              }
+            });
+
+    assertThat(traceOptions.sampler()).isSameAs(Sampler.shared(0.5, 100));
+    assertThat(traceOptions.samplePerConnection()).isTrue();
+  }
+
+  @Test
+  public void of_invalid_sampling() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sampling.probability", "2");
+                put("stackdriver.trace.sampling.maxPerSecond", "-1");
+                put("stackdriver.trace.sampling.scope", "unknown");
+              }
+            });
+
+    assertThat(traceOptions.sampler()).isSameAs(Sampler.ALWAYS);
+    assertThat(traceOptions.samplePerConnection()).isFalse();
+  }
+
+  @Test
+  public void of_sql_cacheSize() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql", "full");
+                put("stackdriver.trace.sql.cacheSize", "10");
+              }
+            });
+
+    assertThat(traceOptions.sqlCache()).isSameAs(SqlCache.shared(Scrubbers.KEEP, 10));
+  }
+
+  @Test
+  public void of_invalid_sql_cacheSize() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.sql.cacheSize", "-1");
+              }
+            });
+
+    assertThat(traceOptions.sqlCache())
+        .isSameAs(SqlCache.shared(Scrubbers.SQL_SCRUBBER, TraceOptions.DEFAULT_SQL_CACHE_SIZE));
+  }
+
+  @Test
+  public void builder_default_sqlCache() {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.DROP)
+            .setUrlScrubber(Scrubbers.DROP)
+            .build();
+
+    assertThat(traceOptions.sqlCache())
+        .isSameAs(SqlCache.shared(Scrubbers.DROP, TraceOptions.DEFAULT_SQL_CACHE_SIZE));
+  }
+
+  @Test
+  public void of_dynamicProxies() {
+    TraceOptions traceOptions =
+        TraceOptions.of(
+            new Properties() {
+              {
+                put("stackdriver.trace.dynamicProxies", "false");
+              }
+            });
+
+    assertThat(traceOptions.dynamicProxies()).isFalse();
   }
 
   @Test
@@ -63,6 +335,7 @@ public class TraceOptionsTest {
     assertThat(traceOptions.enabled()).isTrue();
     assertThat(traceOptions.sqlScrubber()).isSameAs(Scrubbers.DROP);
     assertThat(traceOptions.urlScrubber()).isSameAs(Scrubbers.KEEP);
+    assertThat(traceOptions.sqlFingerprint()).isFalse();
   }
 
   @Test
@@ -0,0 +1,129 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.sql.Blob;
+import java.sql.Clob;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TracingBlob} and {@link TracingClob}. */
+@RunWith(JUnit4.class)
+public class TracingBlobTest {
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+  private final Blob mockRealBlob = mock(Blob.class);
+  private final Clob mockRealClob = mock(Clob.class);
+
+  private static final TraceOptions TRACE_OPTIONS =
+      TraceOptions.builder()
+          .setEnabled(true)
+          .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+          .setUrlScrubber(Scrubbers.KEEP)
+          .setLobs(true)
+          .build();
+
+  @Before
+  public void before() {
+    when(mockTraceService.open(any(String.class), anyLong(), anyLong())).thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+  }
+
+  @Test
+  public void Blob_getBytes() throws Exception {
+    when(mockRealBlob.getBytes(1, 3)).thenReturn(new byte[3]);
+    Blob blob = new TracingBlob(mockRealBlob, TRACE_OPTIONS, mockTraceService);
+
+    assertThat(blob.getBytes(1, 3)).hasLength(3);
+
+    verify(mockTraceService).open(eq("JDBC.Blob#getBytes"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_BYTES, Optional.of("3"));
+    verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void Blob_getBinaryStream() throws Exception {
+    when(mockRealBlob.getBinaryStream()).thenReturn(new ByteArrayInputStream(new byte[3]));
+    Blob blob = new TracingBlob(mockRealBlob, TRACE_OPTIONS, mockTraceService);
+
+    InputStream in = blob.getBinaryStream();
+    in.read(new byte[4]);
+    verifyNoMoreInteractions(mockTraceService); // No trace span created before the end.
+    in.close();
+
+    verify(mockTraceService).open(eq("JDBC.Blob#getBinaryStream"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_BYTES, Optional.of("3"));
+  }
+
+  @Test
+  public void Blob_length() throws Exception {
+    when(mockRealBlob.length()).thenReturn(3L);
+    Blob blob = new TracingBlob(mockRealBlob, TRACE_OPTIONS, mockTraceService);
+
+    assertThat(blob.length()).isEqualTo(3L);
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void Blob_position_unwraps() throws Exception {
+    Blob pattern = mock(Blob.class);
+    Blob blob = new TracingBlob(mockRealBlob, TRACE_OPTIONS, mockTraceService);
+
+    blob.position(new TracingBlob(pattern, TRACE_OPTIONS, mockTraceService), 1);
+
+    verify(mockRealBlob).position(pattern, 1);
+  }
+
+  @Test
+  public void Clob_getSubString() throws Exception {
+    when(mockRealClob.getSubString(1, 9)).thenReturn("some text");
+    Clob clob = new TracingClob(mockRealClob, TRACE_OPTIONS, mockTraceService);
+
+    assertThat(clob.getSubString(1, 9)).isEqualTo("some text");
+
+    verify(mockTraceService).open(eq("JDBC.Clob#getSubString"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_CHARS, Optional.of("9"));
+  }
+
+  @Test
+  public void Clob_getCharacterStream() throws Exception {
+    when(mockRealClob.getCharacterStream()).thenReturn(new StringReader("some text"));
+    Clob clob = new TracingClob(mockRealClob, TRACE_OPTIONS, mockTraceService);
+
+    Reader reader = clob.getCharacterStream();
+    reader.read(new char[16]);
+    reader.close();
+
+    verify(mockTraceService).open(eq("JDBC.Clob#getCharacterStream"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_CHARS, Optional.of("9"));
+  }
+}
@@ -0,0 +1,460 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.ignoreStubs;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import java.io.Closeable;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+
+/** Unit tests for {@link TracingConnection}. */
+@RunWith(JUnit4.class)
+public class TracingConnectionTest {
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+  private final Connection mockRealConnection = mock(Connection.class);
+
+  private Connection connection;
+
+  @Before
+  public void before() {
+    when(mockTraceService.open(any(String.class))).thenReturn(mockTraceSpan);
+    when(mockTraceService.open(any(), any(String.class), anyLong(), anyLong()))
+        .thenReturn(mockTraceSpan);
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(true);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+    connection =
+        new TracingConnection(
+            mockRealConnection, TraceOptions.of(new Properties()), mockTraceService);
+  }
+
+  @Test
+  public void close() throws Exception {
+    connection.close();
+
+    verify(mockRealConnection).close();
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void isValid() throws Exception {
+    when(mockRealConnection.isValid(5)).thenReturn(true);
+
+    assertThat(connection.isValid(5)).isTrue();
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void createStatement() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+
+    Statement statement = connection.createStatement();
+
+    assertThat(statement).isInstanceOf(TracingStatement.class);
+    assertThat(statement.getConnection()).isSameAs(connection);
+    statement.execute("some sql text");
+    verify(mockRealStatement).execute("some sql text");
+    verify(mockTraceService).open("JDBC.Statement#execute");
+  }
+
+  @Test
+  public void prepareStatement() throws Exception {
+    PreparedStatement mockRealStatement = mock(PreparedStatement.class);
+    when(mockRealConnection.prepareStatement("some sql text")).thenReturn(mockRealStatement);
+
+    PreparedStatement statement = connection.prepareStatement("some sql text");
+
+    assertThat(statement).isInstanceOf(TracingPreparedStatement.class);
+    statement.execute();
+    verify(mockRealStatement).execute();
+    verify(mockTraceService).open("JDBC.Statement#execute");
+  }
+
+  @Test
+  public void prepareCall() throws Exception {
+    CallableStatement mockRealStatement = mock(CallableStatement.class);
+    when(mockRealConnection.prepareCall("call myproc()")).thenReturn(mockRealStatement);
+
+    CallableStatement statement = connection.prepareCall("call myproc()");
+
+    assertThat(statement).isInstanceOf(TracingCallableStatement.class);
+    statement.executeUpdate();
+    verify(mockRealStatement).executeUpdate();
+    verify(mockTraceService).open("JDBC.Statement#executeUpdate");
+  }
+
+  @Test
+  public void createStatement_not_sampled() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+    Connection connection =
+        new TracingConnection(
+            mockRealConnection,
+            TraceOptions.of(
+                new Properties() {
+                  {
+                    put("stackdriver.trace.sampling.probability", "0");
+                  }
+                }),
+            mockTraceService);
+
+    Statement statement = connection.createStatement();
+    statement.execute("SELECT 1");
+
+    // Calls are passed through, but the statement still returns the traced connection.
+    assertThat(statement.getConnection()).isSameAs(connection);
+    verify(mockRealStatement).execute("SELECT 1");
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void prepareStatement_not_sampled() throws Exception {
+    PreparedStatement mockRealStatement = mock(PreparedStatement.class);
+    when(mockRealConnection.prepareStatement("SELECT 1")).thenReturn(mockRealStatement);
+    Connection connection =
+        new TracingConnection(
+            mockRealConnection,
+            TraceOptions.of(
+                new Properties() {
+                  {
+                    put("stackdriver.trace.sampling.probability", "0");
+                  }
+                }),
+            mockTraceService);
+
+    PreparedStatement statement = connection.prepareStatement("SELECT 1");
+    statement.executeQuery();
+
+    assertThat(statement.getConnection()).isSameAs(connection);
+    verify(mockRealStatement).executeQuery();
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void createStatement_not_sampled_statistics() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+    StatementStatistics statistics = new StatementStatistics(10, null);
+    Connection connection =
+        new TracingConnection(
+            mockRealConnection,
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.KEEP)
+                .setUrlScrubber(Scrubbers.KEEP)
+                .setSampler(Sampler.shared(0.0, 0.0))
+                .setStatementStatistics(Optional.of(statistics))
+                .build(),
+            mockTraceService);
+
+    Statement statement = connection.createStatement();
+    statement.execute("SELECT 1");
+
+    assertThat(statement).isInstanceOf(TracingStatement.class);
+    verify(mockRealStatement).execute("SELECT 1");
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+    assertThat(statistics.snapshot()).hasSize(1);
+    assertThat(statistics.snapshot().get(0).count()).isEqualTo(1);
+  }
+
+  @Test
+  public void prepareStatement_excluded_not_sampled() throws Exception {
+    PreparedStatement mockRealStatement = mock(PreparedStatement.class);
+    when(mockRealConnection.prepareStatement(any(String.class))).thenReturn(mockRealStatement);
+    Connection connection =
+        new TracingConnection(
+            mockRealConnection,
+            TraceOptions.of(
+                new Properties() {
+                  {
+                    put("stackdriver.trace.sql.exclude", "SELECT 1");
+                    put("stackdriver.trace.sampling.maxPerSecond", "0.0005");
+                  }
+                }),
+            mockTraceService);
+
+    connection.prepareStatement("SELECT 1").executeQuery();
+    connection.prepareStatement("SELECT 1").executeQuery();
+    connection.prepareStatement("SELECT 2").executeQuery();
+
+    // Only one statement per 2000 seconds is sampled, which is not taken by the excluded ones.
+    verify(mockTraceService).open(any(String.class));
+    verify(mockTraceService).open("JDBC.Statement#executeQuery");
+  }
+
+  @Test
+  public void createStatement_sampled_per_connection() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+    Connection connection =
+        new TracingConnection(
+            mockRealConnection,
+            TraceOptions.of(
+                new Properties() {
+                  {
+                    put("stackdriver.trace.sampling.maxPerSecond", "0.001");
+                    put("stackdriver.trace.sampling.scope", "connection");
+                  }
+                }),
+            mockTraceService);
+
+    // Only one connection per 1000 seconds is sampled, which is this one.
+    connection.createStatement().execute("SELECT 1");
+    connection.createStatement().execute("SELECT 1");
+    verify(mockTraceService, times(2)).open("JDBC.Statement#execute");
+  }
+
+  @Test
+  public void prepareStatement_prepares() throws Exception {
+    PreparedStatement mockRealStatement = mock(PreparedStatement.class);
+    when(mockRealConnection.prepareStatement(any(String.class))).thenReturn(mockRealStatement);
+    StatementStatistics statistics = new StatementStatistics(10, null);
+    Connection connection =
+        new TracingConnection(
+            mockRealConnection,
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.KEEP)
+                .setUrlScrubber(Scrubbers.KEEP)
+                .setStatementStatistics(Optional.of(statistics))
+                .setPrepares(true)
+                .build(),
+            mockTraceService);
+    when(mockTraceService.open(any(String.class), anyLong(), anyLong())).thenReturn(mockTraceSpan);
+
+    connection.prepareStatement("SELECT * FROM t WHERE id = 1");
+    connection.prepareStatement("SELECT * FROM t WHERE id = 1");
+
+    verify(mockTraceService, times(2))
+        .open(eq(PrepareTracker.PREPARE_STATEMENT), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.PREPARE_REPEATED, Optional.of("false"));
+    verify(mockTraceSpan).annotate(Label.PREPARE_REPEATED, Optional.of("true"));
+    assertThat(statistics.snapshot()).hasSize(1);
+    assertThat(statistics.snapshot().get(0).prepares()).isEqualTo(2);
+    assertThat(statistics.snapshot().get(0).firstPrepares()).isEqualTo(1);
+  }
+
+  @Test
+  public void commit() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+
+    connection.setAutoCommit(false);
+    connection.createStatement().executeUpdate("some sql text");
+    connection.commit();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealConnection);
+    inOrder.verify(mockRealConnection).setAutoCommit(false);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeUpdate");
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockTraceService).open(Transaction.COMMIT);
+    inOrder.verify(mockRealConnection).commit();
+    inOrder.verify(mockTraceSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).close();
+    // The transaction span is created retroactively, after the spans it covers ended.
+    inOrder.verify(mockTraceService).open(any(), eq(Transaction.SPAN_NAME), anyLong(), anyLong());
+    inOrder.verify(mockTraceSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).close();
+    verify(mockTraceService).currentTrace();
+    verify(mockTraceService).supportsRetroactiveSpans();
+    verifyNoMoreInteractions(mockTraceService);
+  }
+
+  @Test
+  public void commit_without_transaction() throws Exception {
+    connection.commit();
+    connection.rollback();
+    connection.setAutoCommit(true);
+
+    verify(mockRealConnection).commit();
+    verify(mockRealConnection).rollback();
+    verify(mockRealConnection).setAutoCommit(true);
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void close_transaction() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+    when(mockRealConnection.getAutoCommit()).thenReturn(false);
+
+    connection.createStatement().executeUpdate("some sql text");
+    connection.close();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealConnection);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeUpdate");
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockRealConnection).close();
+    inOrder.verify(mockTraceService).open(any(), eq(Transaction.SPAN_NAME), anyLong(), anyLong());
+    inOrder.verify(mockTraceSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void close_fails_transaction() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+    when(mockRealConnection.getAutoCommit()).thenReturn(false);
+    SQLException expectedException = new SQLException();
+    doThrow(expectedException).when(mockRealConnection).close();
+
+    connection.createStatement().executeUpdate("some sql text");
+    try {
+      connection.close();
+      fail("expected SQLException");
+    } catch (Exception actualException) {
+      assertThat(actualException).isSameAs(expectedException);
+    }
+
+    // The transaction span is created nevertheless.
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealConnection);
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockRealConnection).close();
+    inOrder.verify(mockTraceService).open(any(), eq(Transaction.SPAN_NAME), anyLong(), anyLong());
+    inOrder.verify(mockTraceSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void executeQuery_repeated() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+    when(mockRealConnection.getAutoCommit()).thenReturn(true);
+    Connection connection =
+        new TracingConnection(
+            mockRealConnection,
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.KEEP)
+                .setUrlScrubber(Scrubbers.KEEP)
+                .setRepeatedStatementThreshold(2)
+                .build(),
+            mockTraceService);
+
+    when(mockTraceService.currentTrace()).thenReturn(new Object());
+
+    Statement statement = connection.createStatement();
+    statement.executeQuery("SELECT * FROM t WHERE id = 1");
+    statement.executeQuery("SELECT * FROM t WHERE id = 2");
+    statement.executeQuery("SELECT * FROM t WHERE id = 3");
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeQuery");
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeQuery");
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockTraceService).open(RepeatedStatements.SPAN_NAME);
+    inOrder.verify(mockTraceSpan).annotate(Label.REPEATED_STATEMENTS, Optional.of("2"));
+    inOrder.verify(mockTraceSpan).close();
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeQuery");
+    verifyNoMoreInteractions(ignoreStubs(mockTraceService)); // Reported only once.
+  }
+
+  @Test
+  public void executeQuery_connectionLabels() throws Exception {
+    Connection mockPhysicalConnection = mock(Connection.class); // Not yet labeled.
+    Statement mockRealStatement = mock(Statement.class);
+    DatabaseMetaData mockMetaData = mock(DatabaseMetaData.class);
+    when(mockPhysicalConnection.createStatement()).thenReturn(mockRealStatement);
+    when(mockPhysicalConnection.getAutoCommit()).thenReturn(true);
+    when(mockPhysicalConnection.getMetaData()).thenReturn(mockMetaData);
+    when(mockMetaData.getURL()).thenReturn("jdbc:mysql://localhost/db");
+    when(mockMetaData.getDatabaseProductName()).thenReturn("MySQL");
+    Connection connection =
+        new TracingConnection(
+            mockPhysicalConnection,
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.KEEP)
+                .setUrlScrubber(Scrubbers.KEEP)
+                .setConnectionLabels(true)
+                .build(),
+            mockTraceService);
+
+    Statement statement = connection.createStatement();
+    statement.executeQuery("SELECT 1");
+    statement.executeQuery("SELECT 2");
+
+    verify(mockPhysicalConnection, times(1)).getMetaData();
+    verify(mockTraceSpan, times(2))
+        .annotate(Label.DATABASE_URL, Optional.of("jdbc:mysql://localhost/db"));
+    verify(mockTraceSpan, times(2)).annotate(Label.DATABASE_PRODUCT, Optional.of("MySQL"));
+    verify(mockTraceSpan, never()).annotate(eq(Label.DATABASE_VERSION), any(Optional.class));
+  }
+
+  @Test
+  public void executeQuery_repeated_per_trace() throws Exception {
+    Statement mockRealStatement = mock(Statement.class);
+    when(mockRealConnection.createStatement()).thenReturn(mockRealStatement);
+    when(mockRealConnection.getAutoCommit()).thenReturn(true);
+    Connection connection =
+        new TracingConnection(
+            mockRealConnection,
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.KEEP)
+                .setUrlScrubber(Scrubbers.KEEP)
+                .setRepeatedStatementThreshold(2)
+                .build(),
+            mockTraceService);
+
+    // The same connection, e.g. held by a pool below the driver, used by two requests.
+    Statement statement = connection.createStatement();
+    when(mockTraceService.currentTrace()).thenReturn(new Object());
+    statement.executeQuery("SELECT * FROM t WHERE id = 1");
+    when(mockTraceService.currentTrace()).thenReturn(new Object());
+    statement.executeQuery("SELECT * FROM t WHERE id = 2");
+
+    verify(mockTraceService, times(2)).open("JDBC.Statement#executeQuery");
+    verify(mockTraceService, never()).open(RepeatedStatements.SPAN_NAME);
+  }
+
+  @Test
+  public void unwrap() throws Exception {
+    Closeable vendorConnection = mock(Closeable.class);
+    when(mockRealConnection.unwrap(Closeable.class)).thenReturn(vendorConnection);
+
+    assertThat(connection.isWrapperFor(Connection.class)).isTrue();
+    assertThat(connection.unwrap(Connection.class)).isSameAs(connection); // Still traced.
+    assertThat(connection.unwrap(Closeable.class)).isSameAs(vendorConnection);
+  }
+}
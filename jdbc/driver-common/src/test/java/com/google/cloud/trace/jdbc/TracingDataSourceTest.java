@@ -0,0 +1,226 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import java.io.Closeable;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import javax.sql.DataSource;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.InOrder;
+
+/** Unit tests for {@link TracingDataSource}. */
+@RunWith(JUnit4.class)
+public class TracingDataSourceTest {
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+  private final DataSource mockRealDataSource = mock(DataSource.class);
+  private final Connection mockRealConnection = mock(Connection.class);
+
+  private static final TraceOptions TRACE_OPTIONS =
+      TraceOptions.builder()
+          .setEnabled(true)
+          .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+          .setUrlScrubber(Scrubbers.URL_SCRUBBER)
+          .build();
+
+  @Before
+  public void before() throws Exception {
+    when(mockTraceService.open(any(String.class))).thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+    when(mockRealDataSource.getConnection()).thenReturn(mockRealConnection);
+    when(mockRealDataSource.getConnection("user", "password")).thenReturn(mockRealConnection);
+  }
+
+  @Test
+  public void getConnection() throws Exception {
+    TracingDataSource dataSource =
+        new TracingDataSource(mockRealDataSource, TRACE_OPTIONS, mockTraceService);
+
+    Connection conn = dataSource.getConnection();
+
+    assertThat(conn).isInstanceOf(TracingConnection.class);
+    conn.isReadOnly();
+    verify(mockRealConnection).isReadOnly();
+    assertThat(dataSource.getWaitingCount()).isEqualTo(0);
+    assertThat(dataSource.getInFlightCount()).isEqualTo(1);
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealDataSource);
+    inOrder.verify(mockTraceService).open("JDBC.DataSource#getConnection");
+    inOrder.verify(mockTraceSpan).annotate(Label.POOL_WAITING, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).annotate(Label.POOL_IN_FLIGHT, Optional.of("0"));
+    inOrder.verify(mockRealDataSource).getConnection();
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void getConnection_close() throws Exception {
+    TracingDataSource dataSource =
+        new TracingDataSource(mockRealDataSource, TRACE_OPTIONS, mockTraceService);
+
+    Connection conn1 = dataSource.getConnection();
+    Connection conn2 = dataSource.getConnection("user", "password");
+    conn1.close();
+    conn1.close();
+
+    assertThat(dataSource.getInFlightCount()).isEqualTo(1);
+    verify(mockTraceSpan).annotate(Label.POOL_IN_FLIGHT, Optional.of("1"));
+
+    conn2.close();
+
+    assertThat(dataSource.getInFlightCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void getConnection_close_fails() throws Exception {
+    SQLException expectedException = new SQLException();
+    doThrow(expectedException).when(mockRealConnection).close();
+
+    for (boolean dynamicProxies : new boolean[] {false, true}) {
+      TracingDataSource dataSource =
+          new TracingDataSource(
+              mockRealDataSource,
+              TraceOptions.builder()
+                  .setEnabled(true)
+                  .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+                  .setUrlScrubber(Scrubbers.URL_SCRUBBER)
+                  .setDynamicProxies(dynamicProxies)
+                  .build(),
+              mockTraceService);
+      Connection conn = dataSource.getConnection();
+
+      try {
+        conn.close();
+        fail("expected SQLException");
+      } catch (Exception actualException) {
+        assertThat(actualException).isSameAs(expectedException);
+      }
+
+      assertThat(dataSource.getInFlightCount()).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void getConnection_dynamicProxies() throws Exception {
+    TracingDataSource dataSource =
+        new TracingDataSource(
+            mockRealDataSource,
+            TraceOptions.builder()
+                .setEnabled(true)
+                .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+                .setUrlScrubber(Scrubbers.URL_SCRUBBER)
+                .setDynamicProxies(true)
+                .build(),
+            mockTraceService);
+
+    Connection conn = dataSource.getConnection();
+    conn.close();
+
+    assertThat(Proxy.isProxyClass(conn.getClass())).isTrue();
+    assertThat(dataSource.getInFlightCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void getConnection_fails() throws Exception {
+    TracingDataSource dataSource =
+        new TracingDataSource(mockRealDataSource, TRACE_OPTIONS, mockTraceService);
+    SQLException expectedException = new SQLException();
+    when(mockRealDataSource.getConnection()).thenThrow(expectedException);
+
+    try {
+      dataSource.getConnection();
+      fail("expected SQLException");
+    } catch (Exception actualException) {
+      assertThat(actualException).isSameAs(expectedException);
+    }
+
+    assertThat(dataSource.getWaitingCount()).isEqualTo(0);
+    assertThat(dataSource.getInFlightCount()).isEqualTo(0);
+    verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void getConnection_wrap_fails() throws Exception {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+            .setUrlScrubber(Scrubbers.URL_SCRUBBER)
+            .setConnectionLabels(true)
+            .build();
+    TracingDataSource dataSource =
+        new TracingDataSource(mockRealDataSource, traceOptions, mockTraceService);
+    Error expectedError = new LinkageError();
+    when(mockRealConnection.getMetaData()).thenThrow(expectedError);
+    SQLException closeException = new SQLException();
+    doThrow(closeException).when(mockRealConnection).close();
+
+    try {
+      dataSource.getConnection();
+      fail("expected LinkageError");
+    } catch (LinkageError actualError) {
+      assertThat(actualError).isSameAs(expectedError);
+      assertThat(actualError.getSuppressed()).asList().containsExactly(closeException);
+    }
+
+    assertThat(dataSource.getWaitingCount()).isEqualTo(0);
+    assertThat(dataSource.getInFlightCount()).isEqualTo(0);
+    verify(mockRealConnection).close();
+  }
+
+  @Test
+  public void getConnection_disabled() throws Exception {
+    TracingDataSource dataSource =
+        new TracingDataSource(
+            mockRealDataSource,
+            TraceOptions.builder()
+                .setEnabled(false)
+                .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+                .setUrlScrubber(Scrubbers.URL_SCRUBBER)
+                .build(),
+            mockTraceService);
+
+    assertThat(dataSource.getConnection()).isSameAs(mockRealConnection);
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void unwrap() throws Exception {
+    TracingDataSource dataSource =
+        new TracingDataSource(mockRealDataSource, TRACE_OPTIONS, mockTraceService);
+
+    Closeable vendorDataSource = mock(Closeable.class);
+    when(mockRealDataSource.unwrap(Closeable.class)).thenReturn(vendorDataSource);
+
+    assertThat(dataSource.isWrapperFor(DataSource.class)).isTrue();
+    assertThat(dataSource.unwrap(DataSource.class)).isSameAs(dataSource); // Still traced.
+    assertThat(dataSource.unwrap(Closeable.class)).isSameAs(vendorDataSource);
+  }
+}
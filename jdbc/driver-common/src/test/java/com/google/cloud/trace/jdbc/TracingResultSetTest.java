@@ -0,0 +1,266 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import java.io.Closeable;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.Blob;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/** Unit tests for {@link TracingResultSet}. */
+@RunWith(JUnit4.class)
+public class TracingResultSetTest {
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+  private final Statement mockStatement = mock(Statement.class);
+  private final ResultSet mockRealResultSet = mock(ResultSet.class);
+
+  private static final TraceOptions TRACE_OPTIONS =
+      TraceOptions.builder()
+          .setEnabled(true)
+          .setSqlScrubber(Scrubbers.SQL_SCRUBBER)
+          .setUrlScrubber(Scrubbers.KEEP)
+          .setSqlFingerprint(true)
+          .setResultSets(true)
+          .build();
+
+  private final Object trace = new Object();
+
+  @Before
+  public void before() {
+    when(mockTraceService.currentTrace()).thenReturn(trace);
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(true);
+    when(mockTraceService.open(any(String.class), anyLong(), anyLong())).thenReturn(mockTraceSpan);
+    when(mockTraceService.open(any(), any(String.class), anyLong(), anyLong()))
+        .thenReturn(mockTraceSpan);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+  }
+
+  private ResultSet newResultSet() {
+    return new TracingResultSet(
+        mockRealResultSet,
+        mockStatement,
+        TRACE_OPTIONS,
+        mockTraceService,
+        "select * from t",
+        System.nanoTime());
+  }
+
+  @Test
+  public void next_close() throws Exception {
+    when(mockRealResultSet.next()).thenReturn(true, true, false);
+    ResultSet resultSet = newResultSet();
+
+    long startNanos = System.nanoTime();
+    assertThat(resultSet.next()).isTrue();
+    assertThat(resultSet.next()).isTrue();
+    verify(mockTraceService).currentTrace();
+    verify(mockTraceService, times(0)).supportsRetroactiveSpans(); // No span created per row.
+    long endNanos = System.nanoTime();
+    resultSet.close();
+
+    ArgumentCaptor<Long> start = ArgumentCaptor.forClass(Long.class);
+    ArgumentCaptor<Long> end = ArgumentCaptor.forClass(Long.class);
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealResultSet);
+    inOrder.verify(mockRealResultSet, times(2)).next();
+    inOrder.verify(mockRealResultSet).close();
+    inOrder
+        .verify(mockTraceService)
+        .open(eq(trace), eq("JDBC.ResultSet#next"), start.capture(), end.capture());
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(
+            Label.SQL_FINGERPRINT, Optional.of(SqlFingerprint.of("select * from t").hash()));
+    inOrder.verify(mockTraceSpan).annotate(Label.RESULT_SET_ROWS, Optional.of("2"));
+    inOrder.verify(mockTraceSpan).annotate(eq(Label.RESULT_SET_FETCHES), any(Optional.class));
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(eq(Label.RESULT_SET_FIRST_ROW_MICROS), any(Optional.class));
+    inOrder.verify(mockTraceSpan).annotate(eq(Label.RESULT_SET_NEXT_MICROS), any(Optional.class));
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(eq(Label.RESULT_SET_ITERATION_MICROS), any(Optional.class));
+    inOrder.verify(mockTraceSpan).close();
+    // The span covers the calls to next, not the close.
+    assertThat(start.getValue()).isAtLeast(startNanos);
+    assertThat(end.getValue()).isAtLeast(start.getValue());
+    assertThat(end.getValue()).isAtMost(endNanos);
+  }
+
+  @Test
+  public void next_slow_fetch() throws Exception {
+    when(mockRealResultSet.next())
+        .thenAnswer(
+            new Answer<Boolean>() {
+              @Override
+              public Boolean answer(InvocationOnMock invocation)
+                  throws InterruptedException {
+                Thread.sleep(1);
+                return false;
+              }
+            });
+    ResultSet resultSet = newResultSet();
+
+    resultSet.next();
+    resultSet.close();
+
+    verify(mockTraceSpan).annotate(Label.RESULT_SET_ROWS, Optional.of("0"));
+    verify(mockTraceSpan).annotate(Label.RESULT_SET_FETCHES, Optional.of("1"));
+  }
+
+  @Test
+  public void close_twice() throws Exception {
+    ResultSet resultSet = newResultSet();
+
+    resultSet.next();
+    resultSet.close();
+    resultSet.close();
+
+    verify(mockTraceService, times(1))
+        .open(eq(trace), eq("JDBC.ResultSet#next"), anyLong(), anyLong());
+  }
+
+  @Test
+  public void next_exhausted() throws Exception {
+    when(mockRealResultSet.next()).thenReturn(true, false);
+    ResultSet resultSet = newResultSet();
+
+    while (resultSet.next()) {}
+
+    // Reported without closing the result set.
+    verify(mockTraceService).open(eq(trace), eq("JDBC.ResultSet#next"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.RESULT_SET_ROWS, Optional.of("1"));
+    verify(mockTraceSpan).close();
+
+    resultSet.close();
+    verify(mockTraceService, times(1))
+        .open(eq(trace), eq("JDBC.ResultSet#next"), anyLong(), anyLong());
+  }
+
+  @Test
+  public void next_trace_captured_at_execution() throws Exception {
+    when(mockRealResultSet.next()).thenReturn(true, false);
+    ResultSet resultSet = newResultSet();
+    when(mockTraceService.currentTrace()).thenReturn(null); // E.g. closed on another thread.
+
+    resultSet.next();
+    resultSet.close();
+
+    verify(mockTraceService).open(eq(trace), eq("JDBC.ResultSet#next"), anyLong(), anyLong());
+  }
+
+  @Test
+  public void next_retroactive_spans_unsupported() throws Exception {
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(false);
+    when(mockRealResultSet.next()).thenReturn(true, false);
+    ResultSet resultSet = newResultSet();
+
+    resultSet.next();
+    resultSet.close();
+
+    verify(mockTraceService, times(0)).open(any(), eq(TracingResultSet.NEXT), anyLong(), anyLong());
+    verify(mockTraceService, times(0)).open(eq(TracingResultSet.NEXT), anyLong(), anyLong());
+  }
+
+  @Test
+  public void close_without_next() throws Exception {
+    ResultSet resultSet = newResultSet();
+
+    resultSet.close();
+
+    verify(mockRealResultSet).close();
+    verify(mockTraceService).currentTrace();
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void getBinaryStream_lobs() throws Exception {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setResultSets(true)
+            .setLobs(true)
+            .build();
+    when(mockRealResultSet.getBinaryStream(1)).thenReturn(new ByteArrayInputStream(new byte[3]));
+    ResultSet resultSet =
+        new TracingResultSet(
+            mockRealResultSet,
+            mockStatement,
+            traceOptions,
+            mockTraceService,
+            "select * from t",
+            System.nanoTime());
+
+    InputStream in = resultSet.getBinaryStream(1);
+    assertThat(in.read(new byte[4])).isEqualTo(3);
+    assertThat(in.read()).isEqualTo(-1);
+
+    verify(mockTraceService).open(eq("JDBC.ResultSet#getBinaryStream"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_BYTES, Optional.of("3"));
+  }
+
+  @Test
+  public void getBlob_lobs_disabled() throws Exception {
+    Blob blob = mock(Blob.class);
+    when(mockRealResultSet.getBlob(1)).thenReturn(blob);
+    ResultSet resultSet = newResultSet();
+
+    assertThat(resultSet.getBlob(1)).isSameAs(blob);
+  }
+
+  @Test
+  public void getStatement() throws Exception {
+    ResultSet resultSet = newResultSet();
+
+    assertThat(resultSet.getStatement()).isSameAs(mockStatement);
+  }
+
+  @Test
+  public void unwrap() throws Exception {
+    ResultSet resultSet = newResultSet();
+
+    Closeable vendorResultSet = mock(Closeable.class);
+    when(mockRealResultSet.unwrap(Closeable.class)).thenReturn(vendorResultSet);
+
+    assertThat(resultSet.isWrapperFor(ResultSet.class)).isTrue();
+    assertThat(resultSet.unwrap(ResultSet.class)).isSameAs(resultSet); // Still traced.
+    assertThat(resultSet.unwrap(Closeable.class)).isSameAs(vendorResultSet);
+  }
+}
@@ -0,0 +1,517 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.ignoreStubs;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import java.io.Closeable;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.Blob;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+/** Unit tests for {@link TracingStatement} and {@link TracingPreparedStatement}. */
+@RunWith(JUnit4.class)
+public class TracingStatementTest {
+
+  private static final String TRACE_PARENT =
+      "00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01";
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTraceSpan = mock(TraceService.Span.class);
+  private final Connection mockConnection = mock(Connection.class);
+  private final Statement mockRealStatement = mock(Statement.class);
+  private final PreparedStatement mockRealPreparedStatement = mock(PreparedStatement.class);
+
+  private static final TraceOptions TRACE_OPTIONS =
+      TraceOptions.builder()
+          .setEnabled(true)
+          .setSqlScrubber(
+              new Scrubbers.Scrubber() {
+                @Override
+                public Optional<String> apply(String input) {
+                  return Optional.of("#scrubbed SQL#");
+                }
+              })
+          .setUrlScrubber(Scrubbers.KEEP)
+          .build();
+
+  @Before
+  public void before() {
+    when(mockTraceService.open(any(String.class))).thenReturn(mockTraceSpan);
+    when(mockTraceService.open(any(String.class), anyLong(), anyLong())).thenReturn(mockTraceSpan);
+    when(mockTraceService.open(any(), any(String.class), anyLong(), anyLong()))
+        .thenReturn(mockTraceSpan);
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(true);
+    when(mockTraceSpan.isRecording()).thenReturn(true);
+  }
+
+  @Test
+  public void close() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+
+    statement.close();
+
+    verify(mockRealStatement).close();
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void close_fails() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+    SQLException expectedException = new SQLException();
+    doThrow(expectedException).when(mockRealStatement).close();
+
+    try {
+      statement.close();
+      fail("expected SQLException");
+    } catch (Exception actualException) {
+      assertThat(actualException).isSameAs(expectedException);
+    }
+
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void getConnection() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+
+    assertThat(statement.getConnection()).isSameAs(mockConnection);
+  }
+
+  @Test
+  public void unwrap() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+
+    Closeable vendorStatement = mock(Closeable.class);
+    when(mockRealStatement.unwrap(Closeable.class)).thenReturn(vendorStatement);
+
+    assertThat(statement.isWrapperFor(Statement.class)).isTrue();
+    assertThat(statement.unwrap(Statement.class)).isSameAs(statement); // Still traced.
+    assertThat(statement.unwrap(Closeable.class)).isSameAs(vendorStatement);
+  }
+
+  @Test
+  public void execute() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+
+    statement.execute("insert some sql text");
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#execute");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("#scrubbed SQL#"));
+    inOrder.verify(mockRealStatement).execute("insert some sql text");
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void execute_comments() throws Exception {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSqlComments(true)
+            .build();
+    when(mockTraceSpan.traceParent()).thenReturn(TRACE_PARENT);
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, traceOptions, mockTraceService);
+
+    statement.executeUpdate("DELETE FROM t");
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeUpdate");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("DELETE FROM t"));
+    inOrder
+        .verify(mockRealStatement)
+        .executeUpdate("/*traceparent='" + TRACE_PARENT + "'*/ DELETE FROM t");
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void executeQuery_fingerprint() throws Exception {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.DROP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSqlFingerprint(true)
+            .setSqlSpanNames(true)
+            .build();
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, traceOptions, mockTraceService);
+
+    statement.executeQuery("select * from users where id = 42");
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockTraceService).open("SELECT users");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.<String>absent());
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(
+            Label.SQL_FINGERPRINT,
+            Optional.of(SqlFingerprint.of("select * from users where id = ?").hash()));
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_OPERATION, Optional.of("SELECT"));
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TABLE, Optional.of("users"));
+    inOrder.verify(mockRealStatement).executeQuery("select * from users where id = 42");
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void executeQuery_resultSet() throws Exception {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setResultSets(true)
+            .build();
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, traceOptions, mockTraceService);
+    ResultSet mockRealResultSet = mock(ResultSet.class);
+    when(mockRealStatement.executeQuery("select 1")).thenReturn(mockRealResultSet);
+    when(mockRealStatement.getResultSet()).thenReturn(mockRealResultSet);
+    when(mockRealResultSet.next()).thenReturn(true);
+
+    ResultSet resultSet = statement.executeQuery("select 1");
+    resultSet.next();
+    statement.close();
+
+    assertThat(resultSet).isInstanceOf(TracingResultSet.class);
+    assertThat(resultSet.getStatement()).isSameAs(statement);
+    assertThat(statement.getResultSet()).isSameAs(resultSet);
+    InOrder inOrder = inOrder(mockTraceService, mockRealResultSet, mockRealStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeQuery");
+    inOrder.verify(mockRealResultSet).next();
+    inOrder.verify(mockRealStatement).close();
+    inOrder.verify(mockTraceService).open(any(), eq("JDBC.ResultSet#next"), anyLong(), anyLong());
+  }
+
+  @Test
+  public void execute_getResultSet() throws Exception {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSqlFingerprint(true)
+            .setResultSets(true)
+            .build();
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, traceOptions, mockTraceService);
+    ResultSet mockRealResultSet = mock(ResultSet.class);
+    when(mockRealStatement.getResultSet()).thenReturn(mockRealResultSet);
+
+    statement.execute("select 1");
+    ResultSet resultSet = statement.getResultSet();
+    resultSet.next();
+    resultSet.close();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#execute");
+    inOrder.verify(mockTraceService).open(any(), eq("JDBC.ResultSet#next"), anyLong(), anyLong());
+    // Labeled with the SQL text executed by the plain statement.
+    inOrder
+        .verify(mockTraceSpan)
+        .annotate(Label.SQL_FINGERPRINT, Optional.of(SqlFingerprint.of("select 1").hash()));
+  }
+
+  @Test
+  public void executeBatch_without_sql() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+
+    statement.executeBatch();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeBatch");
+    inOrder.verify(mockRealStatement).executeBatch();
+    inOrder.verify(mockTraceSpan).close();
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan)); // No annotation for SQL_TEXT created.
+  }
+
+  @Test
+  public void executeBatch_same_fingerprint() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+
+    statement.addBatch("insert into t values (1)");
+    statement.addBatch("insert into t values (2)");
+    statement.executeBatch();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockRealStatement).addBatch("insert into t values (1)");
+    inOrder.verify(mockRealStatement).addBatch("insert into t values (2)");
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeBatch");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("#scrubbed SQL#"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SIZE, Optional.of("2"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_FINGERPRINTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SQL_BYTES, Optional.of("48"));
+    inOrder.verify(mockRealStatement).executeBatch();
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void addBatch_bypasses_sqlCache() throws Exception {
+    SqlCache sqlCache = SqlCache.shared(mock(Scrubbers.Scrubber.class), 10);
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.DROP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setSqlCache(sqlCache)
+            .build();
+    when(mockTraceSpan.isRecording()).thenReturn(false);
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, traceOptions, mockTraceService);
+
+    for (int i = 0; i < 5; i++) {
+      statement.addBatch("insert into t values (" + i + ")");
+    }
+    statement.executeBatch();
+
+    // Neither the batched nor the representative SQL texts are cached, as nothing is recorded.
+    assertThat(sqlCache.getSize()).isEqualTo(0);
+    verify(mockTraceSpan, never()).annotate(eq(Label.BATCH_FINGERPRINTS), any(Optional.class));
+  }
+
+  @Test
+  public void executeBatch_distinct_fingerprints() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+
+    statement.addBatch("insert into t values (1)");
+    statement.addBatch("update t set a = 2");
+    statement.addBatch("insert into t values (3)");
+    statement.executeBatch();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeBatch");
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SIZE, Optional.of("3"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_FINGERPRINTS, Optional.of("2"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SQL_BYTES, Optional.of("66"));
+    inOrder.verify(mockRealStatement).executeBatch();
+    inOrder.verify(mockTraceSpan).close();
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan)); // No annotation for SQL_TEXT created.
+  }
+
+  @Test
+  public void executeBatch_after_clearBatch() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+
+    statement.addBatch("update t set a = 2");
+    statement.clearBatch();
+    statement.addBatch("insert into t values (1)");
+    statement.executeBatch();
+    statement.executeBatch();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockRealStatement).clearBatch();
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeBatch");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("#scrubbed SQL#"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SIZE, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_FINGERPRINTS, Optional.of("1"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SQL_BYTES, Optional.of("24"));
+    inOrder.verify(mockRealStatement).executeBatch();
+    inOrder.verify(mockTraceSpan).close();
+    // The executed batch is empty.
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeBatch");
+    inOrder.verify(mockRealStatement).executeBatch();
+    inOrder.verify(mockTraceSpan).close();
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+  }
+
+  @Test
+  public void execute_fails() throws Exception {
+    Statement statement =
+        new TracingStatement(mockRealStatement, mockConnection, TRACE_OPTIONS, mockTraceService);
+    SQLException expectedException = new SQLException();
+    when(mockRealStatement.executeUpdate("some sql text")).thenThrow(expectedException);
+
+    try {
+      statement.executeUpdate("some sql text");
+      fail("expected SQLException");
+    } catch (Exception actualException) {
+      assertThat(actualException).isSameAs(expectedException);
+    }
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeUpdate");
+    inOrder.verify(mockRealStatement).executeUpdate("some sql text");
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void PreparedStatement_setInt() throws Exception {
+    PreparedStatement statement =
+        new TracingPreparedStatement(
+            mockRealPreparedStatement,
+            mockConnection,
+            TRACE_OPTIONS,
+            mockTraceService,
+            "select some sql text");
+
+    statement.setInt(1, 42);
+
+    verify(mockRealPreparedStatement).setInt(1, 42);
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void PreparedStatement_setBlob_unwraps() throws Exception {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setLobs(true)
+            .build();
+    Blob mockRealBlob = mock(Blob.class);
+    PreparedStatement statement =
+        new TracingPreparedStatement(
+            mockRealPreparedStatement,
+            mockConnection,
+            traceOptions,
+            mockTraceService,
+            "update t set b = ?");
+
+    statement.setBlob(1, new TracingBlob(mockRealBlob, traceOptions, mockTraceService));
+    statement.setObject(2, new TracingBlob(mockRealBlob, traceOptions, mockTraceService));
+
+    verify(mockRealPreparedStatement).setBlob(1, mockRealBlob);
+    verify(mockRealPreparedStatement).setObject(2, mockRealBlob);
+  }
+
+  @Test
+  public void PreparedStatement_setBinaryStream_lobs() throws Exception {
+    TraceOptions traceOptions =
+        TraceOptions.builder()
+            .setEnabled(true)
+            .setSqlScrubber(Scrubbers.KEEP)
+            .setUrlScrubber(Scrubbers.KEEP)
+            .setLobs(true)
+            .build();
+    when(mockTraceService.open(any(String.class), anyLong(), anyLong())).thenReturn(mockTraceSpan);
+    PreparedStatement statement =
+        new TracingPreparedStatement(
+            mockRealPreparedStatement,
+            mockConnection,
+            traceOptions,
+            mockTraceService,
+            "update t set b = ?");
+
+    statement.setBinaryStream(1, new ByteArrayInputStream(new byte[3]));
+
+    ArgumentCaptor<InputStream> captor = ArgumentCaptor.forClass(InputStream.class);
+    verify(mockRealPreparedStatement).setBinaryStream(eq(1), captor.capture());
+    captor.getValue().read(new byte[4]);
+    captor.getValue().close();
+    verify(mockTraceService)
+        .open(eq("JDBC.PreparedStatement#setBinaryStream"), anyLong(), anyLong());
+    verify(mockTraceSpan).annotate(Label.LOB_BYTES, Optional.of("3"));
+  }
+
+  @Test
+  public void PreparedStatement_executeQuery() throws Exception {
+    PreparedStatement statement =
+        new TracingPreparedStatement(
+            mockRealPreparedStatement,
+            mockConnection,
+            TRACE_OPTIONS,
+            mockTraceService,
+            "select some sql text");
+
+    statement.executeQuery();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealPreparedStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeQuery");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("#scrubbed SQL#"));
+    inOrder.verify(mockRealPreparedStatement).executeQuery();
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void PreparedStatement_executeBatch() throws Exception {
+    PreparedStatement statement =
+        new TracingPreparedStatement(
+            mockRealPreparedStatement,
+            mockConnection,
+            TRACE_OPTIONS,
+            mockTraceService,
+            "insert some sql text");
+
+    statement.executeBatch();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealPreparedStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeBatch");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("#scrubbed SQL#"));
+    inOrder.verify(mockRealPreparedStatement).executeBatch();
+    inOrder.verify(mockTraceSpan).close();
+  }
+
+  @Test
+  public void PreparedStatement_addBatch_executeBatch() throws Exception {
+    PreparedStatement statement =
+        new TracingPreparedStatement(
+            mockRealPreparedStatement,
+            mockConnection,
+            TRACE_OPTIONS,
+            mockTraceService,
+            "insert some sql text");
+
+    statement.addBatch();
+    statement.addBatch();
+    statement.executeBatch();
+
+    InOrder inOrder = inOrder(mockTraceService, mockTraceSpan, mockRealPreparedStatement);
+    inOrder.verify(mockTraceService).open("JDBC.Statement#executeBatch");
+    inOrder.verify(mockTraceSpan).annotate(Label.SQL_TEXT, Optional.of("#scrubbed SQL#"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_SIZE, Optional.of("2"));
+    inOrder.verify(mockTraceSpan).annotate(Label.BATCH_FINGERPRINTS, Optional.of("1"));
+    inOrder.verify(mockRealPreparedStatement).executeBatch();
+    inOrder.verify(mockTraceSpan).close();
+    // No annotation for BATCH_SQL_BYTES created.
+    verifyNoMoreInteractions(ignoreStubs(mockTraceSpan));
+  }
+}
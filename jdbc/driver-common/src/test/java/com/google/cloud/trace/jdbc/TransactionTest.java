@@ -0,0 +1,222 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.ignoreStubs;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import com.google.common.base.Optional;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+/** Unit tests for {@link Transaction}. */
+@RunWith(JUnit4.class)
+public class TransactionTest {
+
+  private final TraceService mockTraceService = mock(TraceService.class);
+  private final TraceService.Span mockTransactionSpan = mock(TraceService.Span.class);
+  private final TraceService.Span mockEndSpan = mock(TraceService.Span.class);
+  private final Connection mockRealConnection = mock(Connection.class);
+
+  private static final TraceOptions TRACE_OPTIONS = traceOptions(0);
+
+  private static TraceOptions traceOptions(long slowQueryThresholdNanos) {
+    return TraceOptions.builder()
+        .setEnabled(true)
+        .setSqlScrubber(Scrubbers.KEEP)
+        .setUrlScrubber(Scrubbers.KEEP)
+        .setSlowQueryThresholdNanos(slowQueryThresholdNanos)
+        .build();
+  }
+
+  private Transaction transaction;
+
+  private final Object trace = new Object();
+
+  @Before
+  public void before() throws Exception {
+    when(mockTraceService.currentTrace()).thenReturn(trace);
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(true);
+    when(mockTraceService.open(any(), eq(Transaction.SPAN_NAME), anyLong(), anyLong()))
+        .thenReturn(mockTransactionSpan);
+    when(mockTraceService.open(Transaction.COMMIT)).thenReturn(mockEndSpan);
+    when(mockTraceService.open(Transaction.ROLLBACK)).thenReturn(mockEndSpan);
+    when(mockTraceService.open(any(String.class), anyLong(), anyLong())).thenReturn(mockEndSpan);
+    when(mockTransactionSpan.isRecording()).thenReturn(true);
+    when(mockEndSpan.isRecording()).thenReturn(true);
+    when(mockRealConnection.getAutoCommit()).thenReturn(false);
+    transaction = new Transaction(mockRealConnection, TRACE_OPTIONS, mockTraceService);
+  }
+
+  @Test
+  public void commit() {
+    long beginNanos = System.nanoTime();
+    transaction.beforeStatement();
+    transaction.afterStatement(TimeUnit.MICROSECONDS.toNanos(3));
+    transaction.beforeStatement();
+    transaction.afterStatement(TimeUnit.MICROSECONDS.toNanos(4));
+    transaction.closeEnd(transaction.openEnd(Transaction.COMMIT));
+    long endNanos = System.nanoTime();
+
+    assertThat(transaction.isActive()).isFalse();
+    ArgumentCaptor<Long> start = ArgumentCaptor.forClass(Long.class);
+    ArgumentCaptor<Long> end = ArgumentCaptor.forClass(Long.class);
+    InOrder inOrder = inOrder(mockTraceService, mockTransactionSpan, mockEndSpan);
+    inOrder.verify(mockTraceService).currentTrace();
+    inOrder.verify(mockTraceService).open(Transaction.COMMIT);
+    inOrder.verify(mockEndSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("2"));
+    inOrder.verify(mockEndSpan).annotate(Label.TRANSACTION_DB_MICROS, Optional.of("7"));
+    inOrder.verify(mockEndSpan).close();
+    // Created retroactively in the trace which began the transaction, covering the commit.
+    inOrder.verify(mockTraceService).supportsRetroactiveSpans();
+    inOrder
+        .verify(mockTraceService)
+        .open(eq(trace), eq(Transaction.SPAN_NAME), start.capture(), end.capture());
+    inOrder.verify(mockTransactionSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("2"));
+    inOrder.verify(mockTransactionSpan).annotate(Label.TRANSACTION_DB_MICROS, Optional.of("7"));
+    inOrder.verify(mockTransactionSpan).close();
+    verifyNoMoreInteractions(mockTraceService);
+    assertThat(start.getValue()).isAtLeast(beginNanos);
+    assertThat(end.getValue()).isAtLeast(start.getValue());
+    assertThat(end.getValue()).isAtMost(endNanos);
+    verifyNoMoreInteractions(ignoreStubs(mockTransactionSpan, mockEndSpan));
+  }
+
+  @Test
+  public void rollback_failed() {
+    transaction.beforeStatement();
+    transaction.afterStatement(TimeUnit.MICROSECONDS.toNanos(3));
+    StatementSpan span = transaction.openEnd(Transaction.ROLLBACK);
+    span.failed(new SQLException());
+    transaction.closeEnd(span);
+
+    assertThat(transaction.isActive()).isFalse();
+    verify(mockEndSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    verify(mockEndSpan).close();
+    verify(mockTransactionSpan).close();
+  }
+
+  @Test
+  public void next_transaction() {
+    transaction.beforeStatement();
+    transaction.afterStatement(TimeUnit.MICROSECONDS.toNanos(3));
+    transaction.closeEnd(transaction.openEnd(Transaction.COMMIT));
+    transaction.beforeStatement();
+
+    assertThat(transaction.isActive()).isTrue();
+    transaction.end();
+
+    InOrder inOrder = inOrder(mockTransactionSpan);
+    inOrder.verify(mockTransactionSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockTransactionSpan).close();
+    inOrder.verify(mockTransactionSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("0"));
+    inOrder.verify(mockTransactionSpan).close();
+  }
+
+  @Test
+  public void autoCommit() throws Exception {
+    when(mockRealConnection.getAutoCommit()).thenReturn(true);
+
+    transaction.beforeStatement();
+    transaction.afterStatement(TimeUnit.MICROSECONDS.toNanos(3));
+    transaction.beforeStatement();
+    transaction.closeEnd(transaction.openEnd(Transaction.COMMIT));
+
+    assertThat(transaction.isActive()).isFalse();
+    verify(mockRealConnection).getAutoCommit(); // Only asked once.
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void retroactive_spans_unsupported() {
+    when(mockTraceService.supportsRetroactiveSpans()).thenReturn(false);
+
+    transaction.beforeStatement();
+    transaction.afterStatement(TimeUnit.MICROSECONDS.toNanos(3));
+    transaction.closeEnd(transaction.openEnd(Transaction.COMMIT));
+
+    verify(mockEndSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    verify(mockTraceService, never()).open(any(), eq(Transaction.SPAN_NAME), anyLong(), anyLong());
+  }
+
+  @Test
+  public void setAutoCommit() {
+    transaction.setAutoCommit(true);
+    transaction.beforeStatement();
+    assertThat(transaction.isActive()).isFalse();
+
+    transaction.setAutoCommit(false);
+    transaction.beforeStatement();
+    assertThat(transaction.isActive()).isTrue();
+
+    verifyNoMoreInteractions(mockRealConnection); // Auto-commit mode known.
+  }
+
+  @Test
+  public void getAutoCommit_fails() throws Exception {
+    when(mockRealConnection.getAutoCommit()).thenThrow(new SQLException());
+
+    transaction.beforeStatement();
+
+    assertThat(transaction.isActive()).isFalse();
+    verifyNoMoreInteractions(mockTraceService);
+  }
+
+  @Test
+  public void end_without_transaction() {
+    transaction.closeEnd(transaction.openEnd(Transaction.ROLLBACK));
+    transaction.end();
+
+    verifyNoMoreInteractions(mockTraceService); // No trace span created.
+  }
+
+  @Test
+  public void slow_query_only() {
+    transaction =
+        new Transaction(
+            mockRealConnection, traceOptions(TimeUnit.DAYS.toNanos(1)), mockTraceService);
+
+    transaction.beforeStatement();
+    transaction.afterStatement(TimeUnit.MICROSECONDS.toNanos(3));
+    StatementSpan span = transaction.openEnd(Transaction.COMMIT);
+    span.failed(new SQLException());
+    transaction.closeEnd(span);
+
+    InOrder inOrder = inOrder(mockTraceService, mockEndSpan);
+    inOrder.verify(mockTraceService).open(any(String.class), anyLong(), anyLong());
+    inOrder.verify(mockEndSpan).annotate(Label.TRANSACTION_STATEMENTS, Optional.of("1"));
+    inOrder.verify(mockEndSpan).annotate(Label.TRANSACTION_DB_MICROS, Optional.of("3"));
+    inOrder.verify(mockEndSpan).close();
+    verify(mockTraceService).currentTrace();
+    verify(mockTraceService).supportsRetroactiveSpans();
+    verifyNoMoreInteractions(mockTraceService); // No transaction span created.
+  }
+}
@@ -18,10 +18,18 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import com.google.auto.service.AutoService;
 import com.google.cloud.trace.Tracer;
+import com.google.cloud.trace.core.EndSpanOptions;
 import com.google.cloud.trace.core.Labels;
+import com.google.cloud.trace.core.SpanContext;
+import com.google.cloud.trace.core.StartSpanOptions;
+import com.google.cloud.trace.core.Timestamp;
 import com.google.cloud.trace.core.TraceContext;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * Implementation of {@link TraceService} based on the Cloud Trace SDK's {@link Tracer},
@@ -31,6 +39,10 @@ import com.google.common.base.Optional;
  */
 @AutoService(TraceService.class)
 public class CloudTraceSdkTraceService extends TraceService {
+  /** Stack traces of exceptions, shared by all spans. */
+  private static final StackTraces STACK_TRACES =
+      new StackTraces(StackTraces.DEFAULT_MAXIMUM_SIZE);
+
   private final Tracers tracers;
 
   // Visible no-arg constructor required ServiceLoader.
@@ -47,19 +59,92 @@ public class CloudTraceSdkTraceService extends TraceService {
   public Span open(String name) {
     checkNotNull(name);
 
-    return new SpanImpl(tracers.getCurrent(), name);
+    Tracer tracer = tracers.getCurrent();
+    if (tracer == Tracers.NOOP_TRACER) {
+      return NOOP_SPAN;
+    }
+    return new SpanImpl(tracer, name, null, null);
+  }
+
+  @Override
+  public Span open(String name, long startNanoTime, long endNanoTime) {
+    return open(currentTrace(), name, startNanoTime, endNanoTime);
+  }
+
+  /**
+   * Starts the span with the specified {@link Tracer}, as the child of its span current when
+   * called.
+   */
+  @Override
+  Span open(@Nullable Object trace, String name, long startNanoTime, long endNanoTime) {
+    checkNotNull(name);
+
+    if (!(trace instanceof Tracer) || trace == Tracers.NOOP_TRACER) {
+      return NOOP_SPAN;
+    }
+    Tracer tracer = (Tracer) trace;
+    // Offset between System.nanoTime() and the epoch, sampled once for both timestamps.
+    long epochOffsetNanos =
+        TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+    return new SpanImpl(
+        tracer,
+        name,
+        new StartSpanOptions().setTimestamp(new TimestampImpl(epochOffsetNanos + startNanoTime)),
+        new EndSpanOptions().setTimestamp(new TimestampImpl(epochOffsetNanos + endNanoTime)));
+  }
+
+  @Override
+  boolean supportsRetroactiveSpans() {
+    return true;
+  }
+
+  /**
+   * Returns the current thread's {@link Tracer}, which is set per request, see {@link
+   * ThreadLocalTracerStore}, or null if none.
+   */
+  @Override
+  @Nullable
+  Object currentTrace() {
+    Tracer tracer = tracers.getCurrent();
+    return tracer != Tracers.NOOP_TRACER ? tracer : null;
   }
 
+  /**
+   * {@link Span} which buffers its labels and flushes them in a single annotation when closed,
+   * instead of one {@link Tracer#annotateSpan} call per label.
+   */
   private static class SpanImpl implements Span {
+    /** Initial capacity of the label buffer, enough for the labels of most spans. */
+    private static final int INITIAL_LABELS = 8;
+
     private final Tracer tracer;
     private final TraceContext traceContext;
+    @Nullable private final EndSpanOptions endSpanOptions;
+
+    /** Keys and values of the labels annotated so far, alternating. */
+    private String[] labels = new String[2 * INITIAL_LABELS];
+
+    private int labelCount;
 
-    SpanImpl(Tracer tracer, String name) {
+    SpanImpl(
+        Tracer tracer,
+        String name,
+        @Nullable StartSpanOptions startSpanOptions,
+        @Nullable EndSpanOptions endSpanOptions) {
       checkNotNull(tracer);
       checkNotNull(name);
 
       this.tracer = tracer;
-      this.traceContext = tracer.startSpan(name);
+      this.traceContext =
+          startSpanOptions != null
+              ? tracer.startSpan(name, startSpanOptions)
+              : tracer.startSpan(name);
+      this.endSpanOptions = endSpanOptions;
+    }
+
+    @Override
+    public boolean isRecording() {
+      return true;
     }
 
     @Override
@@ -68,13 +153,74 @@ public class CloudTraceSdkTraceService extends TraceService {
       checkNotNull(value);
 
       if (value.isPresent()) {
-        tracer.annotateSpan(traceContext, Labels.builder().add(label.key(), value.get()).build());
+        if (2 * labelCount == labels.length) {
+          labels = Arrays.copyOf(labels, 2 * labels.length);
+        }
+        labels[2 * labelCount] = label.key();
+        labels[2 * labelCount + 1] = value.get();
+        labelCount++;
+      }
+    }
+
+    @Override
+    @Nullable
+    public String traceParent() {
+      // Tracers may return no context, e.g. if discarding all spans.
+      if (traceContext == null) {
+        return null;
       }
+      SpanContext spanContext = traceContext.getHandle().getCurrentSpanContext();
+      BigInteger traceId = spanContext.getTraceId().getTraceId();
+      return SqlComments.traceParent(
+          traceId.shiftRight(64).longValue(),
+          traceId.longValue(),
+          spanContext.getSpanId().getSpanId(),
+          spanContext.getTraceOptions().getTraceEnabled());
+    }
+
+    @Override
+    public void setStackTrace(Throwable t) {
+      checkNotNull(t);
+
+      tracer.setStackTrace(traceContext, STACK_TRACES.get(t));
     }
 
     @Override
     public void close() {
-      tracer.endSpan(traceContext);
+      if (labelCount > 0) {
+        Labels.Builder builder = Labels.builder();
+        for (int i = 0; i < labelCount; i++) {
+          builder.add(labels[2 * i], labels[2 * i + 1]);
+        }
+        labelCount = 0;
+        tracer.annotateSpan(traceContext, builder.build());
+      }
+      if (endSpanOptions != null) {
+        tracer.endSpan(traceContext, endSpanOptions);
+      } else {
+        tracer.endSpan(traceContext);
+      }
+    }
+  }
+
+  /** {@link Timestamp} of the specified number of nanoseconds since the epoch. */
+  private static class TimestampImpl implements Timestamp {
+    private final long seconds;
+    private final int nanos;
+
+    TimestampImpl(long epochNanos) {
+      this.seconds = Math.floorDiv(epochNanos, TimeUnit.SECONDS.toNanos(1));
+      this.nanos = (int) Math.floorMod(epochNanos, TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Override
+    public long getSeconds() {
+      return seconds;
+    }
+
+    @Override
+    public int getNanos() {
+      return nanos;
     }
   }
 }
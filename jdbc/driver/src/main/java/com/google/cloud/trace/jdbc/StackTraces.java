@@ -0,0 +1,95 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.trace.core.StackTrace;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * Bounded, concurrent cache of the {@link StackTrace}s of exceptions, keyed by a 64-bit hash of the
+ * exception class and the stack frames, so that a storm of identical exceptions, e.g. deadlocks
+ * thrown over and over again from the same code path, converts the stack frames of only one of
+ * them and shares the resulting {@link StackTrace}.
+ *
+ * <p>Entries are evicted in approximately least-recently-used order once the cache holds the
+ * configured maximum number of stack traces.
+ */
+final class StackTraces {
+
+  /** Default maximum number of stack traces in the cache. */
+  static final int DEFAULT_MAXIMUM_SIZE = 128;
+
+  private final Cache<Long, StackTrace> cache;
+
+  StackTraces(int maximumSize) {
+    checkArgument(maximumSize >= 0, "maximumSize must not be negative: %s", maximumSize);
+
+    this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+  }
+
+  /** Returns the stack trace of the specified exception. */
+  StackTrace get(Throwable t) {
+    checkNotNull(t);
+
+    StackTraceElement[] frames = t.getStackTrace();
+    Long hash = hash(t, frames);
+    StackTrace stackTrace = cache.getIfPresent(hash);
+    if (stackTrace == null) {
+      stackTrace = convert(frames);
+      cache.put(hash, stackTrace);
+    }
+    return stackTrace;
+  }
+
+  @VisibleForTesting
+  long hitCount() {
+    return cache.stats().hitCount();
+  }
+
+  private static long hash(Throwable t, StackTraceElement[] frames) {
+    Hasher hasher = Hashing.farmHashFingerprint64().newHasher();
+    hasher.putUnencodedChars(t.getClass().getName());
+    for (StackTraceElement frame : frames) {
+      hasher.putUnencodedChars(frame.getClassName());
+      hasher.putUnencodedChars(frame.getMethodName());
+      hasher.putInt(frame.getLineNumber());
+    }
+    return hasher.hash().asLong();
+  }
+
+  /**
+   * Converts the specified stack frames like {@link
+   * com.google.cloud.trace.core.ThrowableStackTraceHelper}, which would copy them once more.
+   */
+  private static StackTrace convert(StackTraceElement[] frames) {
+    StackTrace.Builder builder = StackTrace.builder();
+    for (StackTraceElement frame : frames) {
+      builder.add(
+          frame.getClassName(),
+          frame.getMethodName(),
+          frame.getFileName(),
+          frame.getLineNumber() >= 0 ? frame.getLineNumber() : null,
+          null);
+    }
+    return builder.build();
+  }
+}
@@ -15,21 +15,36 @@
 package com.google.cloud.trace.jdbc;
 
 import com.google.cloud.trace.Tracer;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 
 /**
  * Thread-local context holding the current thread's {@link Tracer} (if any).
  *
  * <p>This context is used for passing the {@code Tracer} to other methods in cases where
- * there is no way to pass the {@code Tracer} as a parameter.
+ * there is no way to pass the {@code Tracer} as a parameter. Use {@link TracerPropagation} for
+ * passing the current thread's {@code Tracer} on to tasks run by other threads.
  *
  * TODO: Replace this with the upcoming mechanism in the Cloud Trace for Java SDK.
  */
 public final class ThreadLocalTracerStore {
   private ThreadLocalTracerStore() {}
 
+  /**
+   * Name of the system property which, if set to "true", makes threads inherit the {@link Tracer}
+   * of the thread which created them. Note that this applies to long-lived pooled threads as well,
+   * see {@link TracerPropagation} for passing the {@code Tracer} to tasks run by thread pools.
+   */
+  public static final String INHERITABLE_PROPERTY = "stackdriver.trace.tracerStore.inheritable";
+
   /** Holds the current thread's {@link Tracer} (if any). */
-  private static final ThreadLocal<Tracer> perThreadTracer = new ThreadLocal<>();
+  private static final ThreadLocal<Tracer> perThreadTracer =
+      newThreadLocal(Boolean.getBoolean(INHERITABLE_PROPERTY));
+
+  @VisibleForTesting
+  static ThreadLocal<Tracer> newThreadLocal(boolean inheritable) {
+    return inheritable ? new InheritableThreadLocal<Tracer>() : new ThreadLocal<Tracer>();
+  }
 
   /** Returns the current thread's {@link Tracer}. */
   public static Optional<Tracer> getCurrent() {
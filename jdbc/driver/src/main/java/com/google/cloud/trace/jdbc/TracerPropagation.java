@@ -0,0 +1,190 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import com.google.cloud.trace.Tracer;
+import com.google.common.util.concurrent.ForwardingExecutorService;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
+
+/**
+ * Helpers for passing the current thread's {@link Tracer} (as held by {@link
+ * ThreadLocalTracerStore}) on to tasks run by other threads, e.g. by thread pools or {@link
+ * java.util.concurrent.CompletableFuture} stages.
+ *
+ * <p>The {@code Tracer} is captured when a task is wrapped (or submitted to a wrapped executor),
+ * set as the current thread's {@code Tracer} while the task runs and replaced by the executing
+ * thread's previous {@code Tracer} (if any) afterwards, so pooled threads do not retain it.
+ *
+ * <p>Only the {@code Tracer} is passed on, not its current span context, which the {@code Tracer}
+ * API does not expose: spans started by a task are children of whatever span the {@code Tracer}
+ * tracks as current at that time. Tasks must therefore not run concurrently under one {@code
+ * Tracer}, neither with each other nor with the submitting thread, or their spans may end up with
+ * the wrong parents.
+ *
+ * <p>Example:
+ *
+ * <pre>{@code
+ * ExecutorService executor = TracerPropagation.wrap(Executors.newFixedThreadPool(4));
+ * executor.submit(() -> queryDatabase()); // Traced with the submitting thread's Tracer.
+ * }</pre>
+ *
+ * TODO: Replace this with the upcoming mechanism in the Cloud Trace for Java SDK.
+ */
+public final class TracerPropagation {
+  private TracerPropagation() {}
+
+  /** Returns a {@link Runnable} which runs the specified task with the current {@link Tracer}. */
+  public static Runnable wrap(Runnable task) {
+    checkNotNull(task);
+
+    Tracer tracer = ThreadLocalTracerStore.getCurrent().orNull();
+    return () -> {
+      Tracer previous = attach(tracer);
+      try {
+        task.run();
+      } finally {
+        attach(previous);
+      }
+    };
+  }
+
+  /** Returns a {@link Callable} which calls the specified task with the current {@link Tracer}. */
+  public static <V> Callable<V> wrap(Callable<V> task) {
+    checkNotNull(task);
+
+    Tracer tracer = ThreadLocalTracerStore.getCurrent().orNull();
+    return () -> {
+      Tracer previous = attach(tracer);
+      try {
+        return task.call();
+      } finally {
+        attach(previous);
+      }
+    };
+  }
+
+  /**
+   * Returns an {@link Executor} which runs the tasks passed to the specified executor with the
+   * {@link Tracer} current at the time of {@link Executor#execute}.
+   */
+  public static Executor wrap(Executor executor) {
+    checkNotNull(executor);
+
+    return task -> executor.execute(wrap(task));
+  }
+
+  /**
+   * Returns an {@link ExecutorService} which runs the tasks submitted to the specified executor
+   * service with the {@link Tracer} current at the time of submission.
+   */
+  public static ExecutorService wrap(ExecutorService executorService) {
+    checkNotNull(executorService);
+
+    return new TracingExecutorService(executorService);
+  }
+
+  /**
+   * Makes the specified {@link Tracer} the current thread's {@code Tracer}, or removes it if null,
+   * and returns the previous one (if any).
+   */
+  @Nullable
+  private static Tracer attach(@Nullable Tracer tracer) {
+    Tracer previous = ThreadLocalTracerStore.getCurrent().orNull();
+    if (tracer != null) {
+      ThreadLocalTracerStore.setCurrent(tracer);
+    } else if (previous != null) {
+      ThreadLocalTracerStore.remove();
+    }
+    return previous;
+  }
+
+  private static <V> List<Callable<V>> wrapAll(Collection<? extends Callable<V>> tasks) {
+    List<Callable<V>> wrappedTasks = new ArrayList<>(tasks.size());
+    for (Callable<V> task : tasks) {
+      wrappedTasks.add(wrap(task));
+    }
+    return wrappedTasks;
+  }
+
+  private static final class TracingExecutorService extends ForwardingExecutorService {
+    private final ExecutorService delegate;
+
+    TracingExecutorService(ExecutorService delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    protected ExecutorService delegate() {
+      return delegate;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      delegate.execute(wrap(command));
+    }
+
+    @Override
+    public <T> Future<T> submit(Callable<T> task) {
+      return delegate.submit(wrap(task));
+    }
+
+    @Override
+    public Future<?> submit(Runnable task) {
+      return delegate.submit(wrap(task));
+    }
+
+    @Override
+    public <T> Future<T> submit(Runnable task, T result) {
+      return delegate.submit(wrap(task), result);
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+        throws InterruptedException {
+      return delegate.invokeAll(wrapAll(tasks));
+    }
+
+    @Override
+    public <T> List<Future<T>> invokeAll(
+        Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+        throws InterruptedException {
+      return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks)
+        throws InterruptedException, ExecutionException {
+      return delegate.invokeAny(wrapAll(tasks));
+    }
+
+    @Override
+    public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+      return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+    }
+  }
+}
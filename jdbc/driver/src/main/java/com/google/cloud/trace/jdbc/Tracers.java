@@ -33,9 +33,9 @@ import com.google.cloud.trace.core.TraceContext;
 class Tracers {
   /**
    * A no-op {@link Tracer} which does nothing and has tracing disabled in its {@link
-   * SpanContext}.
+   * SpanContext}. {@link CloudTraceSdkTraceService} checks for it to skip recording spans.
    */
-  private static final Tracer NOOP_TRACER = new Tracer() {
+  static final Tracer NOOP_TRACER = new Tracer() {
     @Override
     public TraceContext startSpan(String name, StartSpanOptions options) {
       return null;
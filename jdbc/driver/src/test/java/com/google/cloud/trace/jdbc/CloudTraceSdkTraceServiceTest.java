@@ -15,15 +15,28 @@
 package com.google.cloud.trace.jdbc;
 
 import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 import com.google.cloud.trace.Tracer;
+import com.google.cloud.trace.core.EndSpanOptions;
 import com.google.cloud.trace.core.Labels;
+import com.google.cloud.trace.core.SpanContext;
+import com.google.cloud.trace.core.SpanContextHandle;
+import com.google.cloud.trace.core.SpanId;
+import com.google.cloud.trace.core.StackTrace;
+import com.google.cloud.trace.core.StartSpanOptions;
+import com.google.cloud.trace.core.TraceContext;
+import com.google.cloud.trace.core.TraceId;
 import com.google.common.base.Optional;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -49,6 +62,7 @@ public class CloudTraceSdkTraceServiceTest {
     TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
 
     try (TraceService.Span span = traceService.open("JDBC.Driver#connect")) {
+      assertThat(span.isRecording()).isTrue();
       span.annotate(Label.DATABASE_URL, Optional.of("jdbc:mockdriver"));
       span.annotate(Label.SQL_TEXT, Optional.absent());
     }
@@ -65,4 +79,164 @@ public class CloudTraceSdkTraceServiceTest {
         .containsExactly(new com.google.cloud.trace.core.Label(
             "g.co/jdbc/url", "jdbc:mockdriver"));
   }
+
+  @Test
+  public void labels_flushed_once() {
+    when(mockTracers.getCurrent()).thenReturn(mockTracer);
+    TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
+
+    try (TraceService.Span span = traceService.open("JDBC.Statement#executeBatch")) {
+      for (int i = 0; i < 10; i++) {
+        span.annotate(Label.BATCH_SIZE, Optional.of(String.valueOf(i)));
+      }
+      span.annotate(Label.SQL_TEXT, Optional.of("SELECT 1"));
+      verify(mockTracer).startSpan("JDBC.Statement#executeBatch");
+      verifyNoMoreInteractions(mockTracer); // No annotation before the span is closed.
+    }
+
+    ArgumentCaptor<Labels> labels = ArgumentCaptor.forClass(Labels.class);
+
+    InOrder inOrder = inOrder(mockTracer);
+    inOrder.verify(mockTracer).annotateSpan(eq(null), labels.capture());
+    inOrder.verify(mockTracer).endSpan(null);
+    verifyNoMoreInteractions(mockTracer);
+
+    assertThat(labels.getValue().getLabels()).hasSize(11);
+    assertThat(labels.getValue().getLabels().get(9))
+        .isEqualTo(new com.google.cloud.trace.core.Label("g.co/jdbc/batch/size", "9"));
+    assertThat(labels.getValue().getLabels().get(10))
+        .isEqualTo(new com.google.cloud.trace.core.Label("g.co/jdbc/sql", "SELECT 1"));
+  }
+
+  @Test
+  public void no_labels() {
+    when(mockTracers.getCurrent()).thenReturn(mockTracer);
+    TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
+
+    try (TraceService.Span span = traceService.open("JDBC.Driver#connect")) {
+      span.annotate(Label.SQL_TEXT, Optional.<String>absent());
+    }
+
+    InOrder inOrder = inOrder(mockTracer);
+    inOrder.verify(mockTracer).startSpan("JDBC.Driver#connect");
+    inOrder.verify(mockTracer).endSpan(null);
+    verifyNoMoreInteractions(mockTracer); // No empty annotation created.
+  }
+
+  @Test
+  public void retroactiveSpan() {
+    when(mockTracers.getCurrent()).thenReturn(mockTracer);
+    TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
+
+    long startNanoTime = System.nanoTime() - TimeUnit.SECONDS.toNanos(2);
+    long endNanoTime = startNanoTime + TimeUnit.MILLISECONDS.toNanos(1500);
+    long startMillis = System.currentTimeMillis() - 2000;
+    try (TraceService.Span span =
+        traceService.open("JDBC.Statement#executeQuery", startNanoTime, endNanoTime)) {}
+
+    ArgumentCaptor<StartSpanOptions> startSpanOptions =
+        ArgumentCaptor.forClass(StartSpanOptions.class);
+    ArgumentCaptor<EndSpanOptions> endSpanOptions = ArgumentCaptor.forClass(EndSpanOptions.class);
+
+    InOrder inOrder = inOrder(mockTracer);
+    inOrder
+        .verify(mockTracer)
+        .startSpan(eq("JDBC.Statement#executeQuery"), startSpanOptions.capture());
+    inOrder.verify(mockTracer).endSpan(eq(null), endSpanOptions.capture());
+    verifyNoMoreInteractions(mockTracer);
+
+    long start = toNanos(startSpanOptions.getValue().getTimestamp());
+    long end = toNanos(endSpanOptions.getValue().getTimestamp());
+    assertThat(end - start).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1500));
+    assertThat(TimeUnit.NANOSECONDS.toMillis(start)).isAtLeast(startMillis - 1000);
+    assertThat(TimeUnit.NANOSECONDS.toMillis(start)).isAtMost(startMillis + 1000);
+  }
+
+  @Test
+  public void retroactiveSpan_capturedTrace() {
+    TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
+    when(mockTracers.getCurrent()).thenReturn(mockTracer);
+    Object trace = traceService.currentTrace();
+    when(mockTracers.getCurrent()).thenReturn(Tracers.NOOP_TRACER); // E.g. on another thread.
+
+    try (TraceService.Span span = traceService.open(trace, "JDBC.ResultSet#next", 0, 1)) {
+      assertThat(span.isRecording()).isTrue();
+    }
+
+    verify(mockTracer).startSpan(eq("JDBC.ResultSet#next"), any(StartSpanOptions.class));
+    verify(mockTracer).endSpan(eq(null), any(EndSpanOptions.class));
+    assertThat(traceService.supportsRetroactiveSpans()).isTrue();
+    assertThat(traceService.open(null, "JDBC.ResultSet#next", 0, 1))
+        .isSameAs(TraceService.NOOP_SPAN);
+  }
+
+  @Test
+  public void traceParent() {
+    SpanContextHandle mockHandle = mock(SpanContextHandle.class);
+    when(mockHandle.getCurrentSpanContext())
+        .thenReturn(
+            new SpanContext(
+                new TraceId(new BigInteger("0af7651916cd43dd8448eb211c80319c", 16)),
+                new SpanId(0xb7ad6b7169203331L),
+                com.google.cloud.trace.core.TraceOptions.forTraceEnabled()));
+    when(mockTracer.startSpan("JDBC.Statement#execute")).thenReturn(new TraceContext(mockHandle));
+    when(mockTracers.getCurrent()).thenReturn(mockTracer);
+    TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
+
+    try (TraceService.Span span = traceService.open("JDBC.Statement#execute")) {
+      assertThat(span.traceParent())
+          .isEqualTo("00-0af7651916cd43dd8448eb211c80319c-b7ad6b7169203331-01");
+    }
+  }
+
+  @Test
+  public void noopTracer() {
+    when(mockTracers.getCurrent()).thenReturn(Tracers.NOOP_TRACER);
+    TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
+
+    assertThat(traceService.open("JDBC.Driver#connect")).isSameAs(TraceService.NOOP_SPAN);
+    assertThat(traceService.open("JDBC.Driver#connect", 0, 1)).isSameAs(TraceService.NOOP_SPAN);
+    assertThat(TraceService.NOOP_SPAN.isRecording()).isFalse();
+    assertThat(TraceService.NOOP_SPAN.traceParent()).isNull();
+  }
+
+  @Test
+  public void setStackTrace() {
+    when(mockTracers.getCurrent()).thenReturn(mockTracer);
+    TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
+    SQLException e = new SQLException("Deadlock found", "40001");
+
+    try (TraceService.Span span = traceService.open("JDBC.Statement#execute")) {
+      span.setStackTrace(e);
+    }
+
+    ArgumentCaptor<StackTrace> stackTrace = ArgumentCaptor.forClass(StackTrace.class);
+
+    InOrder inOrder = inOrder(mockTracer);
+    inOrder.verify(mockTracer).startSpan("JDBC.Statement#execute");
+    inOrder.verify(mockTracer).setStackTrace(eq(null), stackTrace.capture());
+    inOrder.verify(mockTracer).endSpan(null);
+    verifyNoMoreInteractions(mockTracer);
+
+    assertThat(stackTrace.getValue().getStackFrames()).hasSize(e.getStackTrace().length);
+    assertThat(stackTrace.getValue().getStackFrames().get(0).getMethodName())
+        .isEqualTo("setStackTrace");
+  }
+
+  @Test
+  public void currentTrace() {
+    TraceService traceService = new CloudTraceSdkTraceService(mockTracers);
+
+    when(mockTracers.getCurrent()).thenReturn(mockTracer);
+    assertThat(traceService.currentTrace()).isSameAs(mockTracer);
+
+    when(mockTracers.getCurrent()).thenReturn(Tracers.NOOP_TRACER);
+    assertThat(traceService.currentTrace()).isNull();
+  }
+
+  private static long toNanos(com.google.cloud.trace.core.Timestamp timestamp) {
+    assertThat(timestamp.getNanos()).isAtLeast(0);
+    assertThat(timestamp.getNanos()).isLessThan(1000000000);
+    return TimeUnit.SECONDS.toNanos(timestamp.getSeconds()) + timestamp.getNanos();
+  }
 }
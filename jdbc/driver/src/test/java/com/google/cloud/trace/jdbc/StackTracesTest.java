@@ -0,0 +1,84 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.cloud.trace.core.StackFrame;
+import com.google.cloud.trace.core.StackTrace;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link StackTraces}. */
+@RunWith(JUnit4.class)
+public class StackTracesTest {
+  private final StackTraces stackTraces = new StackTraces(StackTraces.DEFAULT_MAXIMUM_SIZE);
+
+  @Test
+  public void get() {
+    SQLException e = new SQLException("Deadlock found", "40001");
+
+    StackTrace stackTrace = stackTraces.get(e);
+
+    StackTraceElement[] frames = e.getStackTrace();
+    assertThat(stackTrace.getStackFrames()).hasSize(frames.length);
+    StackFrame frame = stackTrace.getStackFrames().get(0);
+    assertThat(frame.getClassName()).isEqualTo(StackTracesTest.class.getName());
+    assertThat(frame.getMethodName()).isEqualTo("get");
+    assertThat(frame.getFileName()).isEqualTo("StackTracesTest.java");
+    assertThat(frame.getLineNumber()).isEqualTo(frames[0].getLineNumber());
+    assertThat(frame.getColumnNumber()).isNull();
+  }
+
+  @Test
+  public void get_same_site_shared() {
+    List<StackTrace> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      results.add(stackTraces.get(new SQLException("Deadlock found " + i, "40001")));
+    }
+
+    assertThat(results.get(1)).isSameAs(results.get(0));
+    assertThat(results.get(2)).isSameAs(results.get(0));
+    assertThat(stackTraces.hitCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void get_different_sites() {
+    StackTrace first = stackTraces.get(new SQLException("Deadlock found", "40001"));
+    StackTrace second = stackTraces.get(new SQLException("Deadlock found", "40001"));
+
+    assertThat(second).isNotSameAs(first);
+    assertThat(stackTraces.hitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void get_different_classes() {
+    // Thrown from the same line, so that only the exception classes differ.
+    StackTrace first = stackTraces.get(newException(true));
+    StackTrace second = stackTraces.get(newException(false));
+
+    assertThat(second).isNotSameAs(first);
+    assertThat(stackTraces.hitCount()).isEqualTo(0);
+  }
+
+  private static Exception newException(boolean sql) {
+    return sql ? new SQLException() : new IllegalStateException();
+  }
+}
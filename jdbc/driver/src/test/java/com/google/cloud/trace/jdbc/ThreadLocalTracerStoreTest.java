@@ -36,4 +36,40 @@ public class ThreadLocalTracerStoreTest {
     ThreadLocalTracerStore.remove();
     assertThat(ThreadLocalTracerStore.getCurrent().isPresent()).isFalse();
   }
+
+  @Test
+  public void newThreadLocal_inheritable() throws Exception {
+    final ThreadLocal<Tracer> threadLocal = ThreadLocalTracerStore.newThreadLocal(true);
+    threadLocal.set(mockTracer);
+    final Tracer[] inherited = new Tracer[1];
+    Thread thread =
+        new Thread() {
+          @Override
+          public void run() {
+            inherited[0] = threadLocal.get();
+          }
+        };
+    thread.start();
+    thread.join();
+
+    assertThat(inherited[0]).isSameAs(mockTracer);
+  }
+
+  @Test
+  public void newThreadLocal_not_inheritable() throws Exception {
+    final ThreadLocal<Tracer> threadLocal = ThreadLocalTracerStore.newThreadLocal(false);
+    threadLocal.set(mockTracer);
+    final Tracer[] inherited = {mockTracer};
+    Thread thread =
+        new Thread() {
+          @Override
+          public void run() {
+            inherited[0] = threadLocal.get();
+          }
+        };
+    thread.start();
+    thread.join();
+
+    assertThat(inherited[0]).isNull();
+  }
 }
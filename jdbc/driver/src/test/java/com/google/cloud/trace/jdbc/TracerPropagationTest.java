@@ -0,0 +1,194 @@
+// Copyright 2017 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.cloud.trace.jdbc;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import com.google.cloud.trace.Tracer;
+import com.google.common.base.Optional;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/** Unit tests for {@link TracerPropagation}. */
+@RunWith(JUnit4.class)
+public class TracerPropagationTest {
+  private final Tracer mockTracer = mock(Tracer.class);
+  private final Tracer otherMockTracer = mock(Tracer.class);
+
+  private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+  @After
+  public void after() throws Exception {
+    ThreadLocalTracerStore.remove();
+    executorService.shutdown();
+    executorService.awaitTermination(10, TimeUnit.SECONDS);
+  }
+
+  private static final Callable<Optional<Tracer>> GET_CURRENT =
+      new Callable<Optional<Tracer>>() {
+        @Override
+        public Optional<Tracer> call() {
+          return ThreadLocalTracerStore.getCurrent();
+        }
+      };
+
+  @Test
+  public void wrap_callable() throws Exception {
+    ThreadLocalTracerStore.setCurrent(mockTracer);
+    Callable<Optional<Tracer>> task = TracerPropagation.wrap(GET_CURRENT);
+    ThreadLocalTracerStore.remove();
+
+    assertThat(executorService.submit(task).get().get()).isSameAs(mockTracer);
+    // The pooled thread does not retain the Tracer.
+    assertThat(executorService.submit(GET_CURRENT).get().isPresent()).isFalse();
+  }
+
+  @Test
+  public void wrap_callable_restores_previous() throws Exception {
+    ThreadLocalTracerStore.setCurrent(mockTracer);
+    Callable<Optional<Tracer>> task = TracerPropagation.wrap(GET_CURRENT);
+    ThreadLocalTracerStore.setCurrent(otherMockTracer);
+
+    assertThat(task.call().get()).isSameAs(mockTracer);
+    assertThat(ThreadLocalTracerStore.getCurrent().get()).isSameAs(otherMockTracer);
+  }
+
+  @Test
+  public void wrap_callable_without_tracer() throws Exception {
+    Callable<Optional<Tracer>> task = TracerPropagation.wrap(GET_CURRENT);
+    ThreadLocalTracerStore.setCurrent(mockTracer);
+
+    assertThat(task.call().isPresent()).isFalse();
+    assertThat(ThreadLocalTracerStore.getCurrent().get()).isSameAs(mockTracer);
+  }
+
+  @Test
+  public void wrap_runnable() throws Exception {
+    final List<Optional<Tracer>> tracers = new ArrayList<>();
+    ThreadLocalTracerStore.setCurrent(mockTracer);
+    Runnable task =
+        TracerPropagation.wrap(
+            new Runnable() {
+              @Override
+              public void run() {
+                tracers.add(ThreadLocalTracerStore.getCurrent());
+              }
+            });
+    ThreadLocalTracerStore.remove();
+
+    executorService.submit(task).get();
+
+    assertThat(tracers).containsExactly(Optional.of(mockTracer));
+    assertThat(executorService.submit(GET_CURRENT).get().isPresent()).isFalse();
+  }
+
+  @Test
+  public void wrap_executor() throws Exception {
+    ThreadLocalTracerStore.setCurrent(mockTracer);
+
+    Optional<Tracer> tracer =
+        CompletableFuture.supplyAsync(
+                ThreadLocalTracerStore::getCurrent,
+                TracerPropagation.wrap((java.util.concurrent.Executor) executorService))
+            .get();
+
+    assertThat(tracer.get()).isSameAs(mockTracer);
+  }
+
+  @Test
+  public void wrap_executorService() throws Exception {
+    ExecutorService wrappedExecutorService = TracerPropagation.wrap(executorService);
+    List<Future<Optional<Tracer>>> futures = new ArrayList<>();
+    List<Tracer> expectedTracers = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      Tracer tracer = i % 2 == 0 ? mockTracer : otherMockTracer;
+      ThreadLocalTracerStore.setCurrent(tracer);
+      futures.add(wrappedExecutorService.submit(GET_CURRENT));
+      expectedTracers.add(tracer);
+    }
+
+    for (int i = 0; i < futures.size(); i++) {
+      assertThat(futures.get(i).get().get()).isSameAs(expectedTracers.get(i));
+    }
+    // None of the pooled threads retains a Tracer.
+    ThreadLocalTracerStore.remove();
+    for (Future<Optional<Tracer>> future :
+        executorService.invokeAll(
+            Arrays.asList(GET_CURRENT, GET_CURRENT, GET_CURRENT, GET_CURRENT))) {
+      assertThat(future.get().isPresent()).isFalse();
+    }
+  }
+
+  @Test
+  public void wrap_executorService_concurrent_tasks() throws Exception {
+    final CountDownLatch running = new CountDownLatch(4);
+    final TraceService traceService = new CloudTraceSdkTraceService();
+    Callable<Optional<Tracer>> task =
+        new Callable<Optional<Tracer>>() {
+          @Override
+          public Optional<Tracer> call() throws InterruptedException {
+            try (TraceService.Span span = traceService.open("JDBC.Statement#execute")) {
+              running.countDown();
+              assertThat(running.await(10, TimeUnit.SECONDS)).isTrue(); // All tasks run at once.
+            }
+            return ThreadLocalTracerStore.getCurrent();
+          }
+        };
+    ThreadLocalTracerStore.setCurrent(mockTracer);
+
+    // The tasks share the Tracer, but not its span context, see the class documentation.
+    for (Future<Optional<Tracer>> future :
+        TracerPropagation.wrap(executorService)
+            .invokeAll(Arrays.asList(task, task, task, task))) {
+      assertThat(future.get().get()).isSameAs(mockTracer);
+    }
+    verify(mockTracer, times(4)).startSpan("JDBC.Statement#execute");
+    verify(mockTracer, times(4)).endSpan(null);
+    ThreadLocalTracerStore.remove();
+    for (Future<Optional<Tracer>> future :
+        executorService.invokeAll(
+            Arrays.asList(GET_CURRENT, GET_CURRENT, GET_CURRENT, GET_CURRENT))) {
+      assertThat(future.get().isPresent()).isFalse();
+    }
+  }
+
+  @Test
+  public void wrap_executorService_invokeAll() throws Exception {
+    ThreadLocalTracerStore.setCurrent(mockTracer);
+
+    for (Future<Optional<Tracer>> future :
+        TracerPropagation.wrap(executorService)
+            .invokeAll(Arrays.asList(GET_CURRENT, GET_CURRENT))) {
+      assertThat(future.get().get()).isSameAs(mockTracer);
+    }
+    assertThat(TracerPropagation.wrap(executorService).invokeAny(Arrays.asList(GET_CURRENT)).get())
+        .isSameAs(mockTracer);
+  }
+}